@@ -6,6 +6,7 @@ import gov.usgs.volcanoes.core.legacy.net.InternetClient;
 import gov.usgs.volcanoes.core.util.Retriable;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.core.util.UtilException;
+import gov.usgs.volcanoes.vdx.data.ColumnarCodec;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -26,6 +27,8 @@ public class VDXClient extends InternetClient {
   private static final int MAX_RETRIES = 3;
   private static final Map<String, String> dataTypeMap;
 
+  private String encoding;
+
   static {
     dataTypeMap = new HashMap<String, String>();
     dataTypeMap.put("genericfixed", "gov.usgs.volcanoes.core.data.GenericDataMatrix");
@@ -33,6 +36,7 @@ public class VDXClient extends InternetClient {
     dataTypeMap.put("gps", "gov.usgs.volcanoes.vdx.data.gps.GpsData");
     dataTypeMap.put("helicorder", "gov.usgs.volcanoes.core.data.HelicorderData");
     dataTypeMap.put("hypocenters", "gov.usgs.volcanoes.vdx.data.hypo.HypocenterList");
+    dataTypeMap.put("multichannel", "gov.usgs.volcanoes.vdx.data.MultiChannelData");
     dataTypeMap.put("rsam", "gov.usgs.volcanoes.core.data.RSAMData");
     dataTypeMap.put("ewrsam", "gov.usgs.volcanoes.vdx.data.rsam.EwRsamData");
     dataTypeMap.put("tilt", "gov.usgs.volcanoes.vdx.data.tilt.TiltData");
@@ -61,6 +65,17 @@ public class VDXClient extends InternetClient {
     dataTypeMap.put(t, c);
   }
 
+  /**
+   * Set encoding to ask the server for with binary data requests. Servers that don't know the
+   * encoding, and data types without a columnar form, reply in the plain binary form.
+   *
+   * @param encoding ColumnarCodec.COLUMNAR, ColumnarCodec.COLUMNAR_FLOAT32 to allow float32
+   *     narrowing of data values, or null for plain binary
+   */
+  public void setEncoding(String encoding) {
+    this.encoding = encoding;
+  }
+
   /**
    * Issue command to server. Command is map of parameters - param_name - param_value pairs.
    *
@@ -71,6 +86,10 @@ public class VDXClient extends InternetClient {
     if (!connected()) {
       connect();
     }
+    if (encoding != null && !params.containsKey("encoding")) {
+      params = new HashMap<String, String>(params);
+      params.put("encoding", encoding);
+    }
     String cmd = "getdata: " + StringUtils.mapToString(params) + "\n";
     writeString(cmd);
 
@@ -113,15 +132,7 @@ public class VDXClient extends InternetClient {
           Map<String, String> map = StringUtils.stringToMap(r);
           if (map.get("bytes") != null) {
             try {
-              int bytes = Integer.parseInt(map.get("bytes"));
-              byte[] buffer = readBinary(bytes);
-              byte[] decompBuf = Zip.decompress(buffer);
-              ByteBuffer bb = ByteBuffer.wrap(decompBuf);
-
-              String className = dataTypeMap.get(map.get("type"));
-              BinaryDataSet ds = (BinaryDataSet) Class.forName(className).newInstance();
-              ds.fromBinary(bb);
-              result = ds;
+              result = readBinaryDataSet(map);
             } catch (Exception e) {
               logger.warn("VDXClient: binary dataset unpacking exception: {}", e.getMessage());
               return false;
@@ -139,6 +150,103 @@ public class VDXClient extends InternetClient {
     return rt.go();
   }
 
+  /**
+   * Read the body of a binary data response.
+   *
+   * @param map parameters of the response header
+   * @return BinaryDataSet of the type named in the header
+   * @throws Exception if the body can't be read or parsed
+   */
+  private BinaryDataSet readBinaryDataSet(Map<String, String> map) throws Exception {
+    int bytes = Integer.parseInt(map.get("bytes"));
+    byte[] buffer = readBinary(bytes);
+    byte[] decompBuf = Zip.decompress(buffer);
+    ByteBuffer bb = ByteBuffer.wrap(decompBuf);
+
+    String className = dataTypeMap.get(map.get("type"));
+    BinaryDataSet ds = (BinaryDataSet) Class.forName(className).newInstance();
+    if (ColumnarCodec.isColumnar(map.get("encoding"))) {
+      ColumnarCodec.fromColumnar(ds, bb);
+    } else {
+      ds.fromBinary(bb);
+    }
+    return ds;
+  }
+
+  /**
+   * Subscribe to live data of one channel. New rows are pushed by the server and handed to the
+   * listener on a thread of its own. The connection is used only for the subscription from then
+   * on, so subscribe on a client of its own; closing the client ends the subscription.
+   *
+   * @param params getdata parameters for a single channel; 'st', if given, is the time after
+   *     which rows are pushed
+   * @param listener listener for pushed data
+   * @return thread reading pushed data
+   * @throws UtilException if the server refuses the subscription
+   */
+  public Thread subscribe(Map<String, String> params, final SubscriptionListener listener)
+      throws UtilException {
+    String rs;
+    try {
+      if (!connected()) {
+        connect();
+      }
+      if (encoding != null && !params.containsKey("encoding")) {
+        params = new HashMap<String, String>(params);
+        params.put("encoding", encoding);
+      }
+      writeString("subscribe: " + StringUtils.mapToString(params) + "\n");
+      rs = readString();
+    } catch (Exception e) {
+      throw new UtilException("VDXClient.subscribe() exception: " + e.getMessage());
+    }
+    if (rs == null || !rs.startsWith("ok:")) {
+      throw new UtilException(rs == null ? "no reply" : rs.substring(rs.indexOf(':') + 1));
+    }
+
+    Thread reader = new Thread(new Runnable() {
+      public void run() {
+        Exception reason = null;
+        try {
+          String line;
+          while ((line = readString()) != null && line.startsWith("ok:")) {
+            Map<String, String> map = StringUtils.stringToMap(line.substring(3));
+            // heartbeats carry no data
+            if (map.get("bytes") != null) {
+              listener.dataReceived(readBinaryDataSet(map));
+            }
+          }
+        } catch (Exception e) {
+          reason = e;
+        }
+        listener.subscriptionClosed(reason);
+      }
+    }, "VDXClient/Subscription");
+    reader.setDaemon(true);
+    reader.start();
+    return reader;
+  }
+
+  /**
+   * Listener for data pushed to a subscription.
+   */
+  public interface SubscriptionListener {
+
+    /**
+     * Called with each batch of new rows.
+     *
+     * @param data new rows
+     */
+    void dataReceived(BinaryDataSet data);
+
+    /**
+     * Called once the subscription has ended.
+     *
+     * @param reason exception that ended it, or null if the connection was closed
+     */
+    void subscriptionClosed(Exception reason);
+  }
+
   /**
    * Issue command to server and get text data response. Command is map of parameters - param_name -
    * param_value pairs.
@@ -0,0 +1,344 @@
+package gov.usgs.volcanoes.vdx.data;
+
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of historical data, in fixed blocks of BLOCK_SECONDS. Data older than a
+ * configured age rarely changes, so each block of raw rows read for a channel is kept as one
+ * file of columns in the {@link ColumnarCodec} encoding, read back through a memory map. Files
+ * survive restarts and the least recently used ones are removed once the cache outgrows its
+ * size limit.
+ *
+ * <p>A file is named by the source, the channel table, the block, and a hash of the query that
+ * read it, which is also stored in the file to rule out hash collisions. Importers writing into
+ * a block call {@link #invalidate(String, String, double, double)}, which deletes the block's
+ * files and touches its 'modified' marker; a block read while an import ran is not stored.
+ */
+public class BlockCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BlockCache.class);
+  public static final double BLOCK_SECONDS = 86400;
+  private static final String SUFFIX = ".blk";
+  private static final String MARKER = "modified";
+  private static final long CLOCK_SLACK_MS = 2000;
+
+  private static final Map<String, BlockCache> CACHES = new HashMap<String, BlockCache>();
+
+  private final File dir;
+  private final long maxBytes;
+  private final double age;
+  private final LinkedHashMap<File, Long> files = new LinkedHashMap<File, Long>(16, 0.75f, true);
+  private long bytes;
+  private boolean indexed;
+
+  /**
+   * Constructor.
+   *
+   * @param dir cache directory
+   * @param maxBytes size limit in bytes
+   * @param age age in seconds after which data is cached
+   */
+  private BlockCache(File dir, long maxBytes, double age) {
+    this.dir = dir;
+    this.maxBytes = maxBytes;
+    this.age = age;
+  }
+
+  /**
+   * Index the files already in the cache directory, least recently used first. Done on first
+   * use, so processes that only invalidate never scan the cache.
+   */
+  private synchronized void index() {
+    if (indexed) {
+      return;
+    }
+    indexed = true;
+    List<File> found = new ArrayList<File>();
+    list(dir, found);
+    Collections.sort(found, new Comparator<File>() {
+      public int compare(File a, File b) {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    for (File file : found) {
+      files.put(file, file.length());
+      bytes += file.length();
+    }
+    evict();
+    LOGGER.info("Block cache {}: {} blocks, {} MB.", dir, files.size(), bytes / (1024 * 1024));
+  }
+
+  /**
+   * Yield the cache for a directory, shared by all data sources using it.
+   *
+   * @param dir cache directory
+   * @param maxBytes size limit in bytes
+   * @param age age in seconds after which data is cached
+   * @return block cache
+   */
+  public static synchronized BlockCache getShared(String dir, long maxBytes, double age) {
+    File file = new File(dir).getAbsoluteFile();
+    BlockCache cache = CACHES.get(file.getPath());
+    if (cache == null) {
+      file.mkdirs();
+      cache = new BlockCache(file, maxBytes, age);
+      CACHES.put(file.getPath(), cache);
+    }
+    return cache;
+  }
+
+  /**
+   * Get the time before which data is cached: the start of the block holding the time the
+   * configured age ago.
+   *
+   * @return cutoff in j2ksec, always a block boundary
+   */
+  public double getCutoff() {
+    return getBlock(J2kSec.fromDate(new Date()) - age) * BLOCK_SECONDS;
+  }
+
+  /**
+   * Get the block holding a time.
+   *
+   * @param t time in j2ksec
+   * @return block number
+   */
+  public static long getBlock(double t) {
+    return (long) Math.floor(t / BLOCK_SECONDS);
+  }
+
+  /**
+   * Read a block.
+   *
+   * @param source source database name
+   * @param table channel table
+   * @param block block number
+   * @param key query that read the block
+   * @return columns of the block, or null if not cached
+   */
+  public double[][] get(String source, String table, long block, String key) {
+    File file = getFile(source, table, block, key);
+    synchronized (this) {
+      index();
+      if (files.get(file) == null) {
+        return null;
+      }
+    }
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(file, "r");
+      MappedByteBuffer bb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      byte[] stored = new byte[bb.getInt()];
+      bb.get(stored);
+      if (!key.equals(new String(stored, StandardCharsets.UTF_8))) {
+        return null;
+      }
+      double[][] columns = ColumnarCodec.decode(bb);
+      file.setLastModified(System.currentTimeMillis());
+      return columns;
+    } catch (Exception e) {
+      // removed by an importer, or unreadable
+      remove(file);
+      return null;
+    } finally {
+      close(raf);
+    }
+  }
+
+  /**
+   * Store a block, unless it was invalidated since it was read.
+   *
+   * @param source source database name
+   * @param table channel table
+   * @param block block number
+   * @param key query that read the block
+   * @param columns columns of the block
+   * @param readAt time in milliseconds when the block started being read
+   */
+  public void put(String source, String table, long block, String key, double[][] columns,
+      long readAt) {
+    File file = getFile(source, table, block, key);
+    File marker = new File(file.getParentFile(), MARKER);
+    if (marker.lastModified() >= readAt - CLOCK_SLACK_MS) {
+      return;
+    }
+    byte[] stored = key.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer payload = ColumnarCodec.encode(columns, columns.length, false);
+    ByteBuffer header = ByteBuffer.allocate(4 + stored.length);
+    header.putInt(stored.length).put(stored).flip();
+
+    File tmp = null;
+    FileOutputStream out = null;
+    try {
+      file.getParentFile().mkdirs();
+      tmp = File.createTempFile("block", ".tmp", file.getParentFile());
+      out = new FileOutputStream(tmp);
+      FileChannel channel = out.getChannel();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      while (payload.hasRemaining()) {
+        channel.write(payload);
+      }
+      out.close();
+      out = null;
+      if (!tmp.renameTo(file)) {
+        tmp.delete();
+        return;
+      }
+      // invalidated while being written
+      if (marker.lastModified() >= readAt - CLOCK_SLACK_MS) {
+        file.delete();
+        return;
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Could not cache block {}: {}", file, e.getMessage());
+      if (tmp != null) {
+        tmp.delete();
+      }
+      return;
+    } finally {
+      close(out);
+    }
+
+    synchronized (this) {
+      index();
+      Long old = files.put(file, file.length());
+      bytes += file.length() - (old == null ? 0 : old);
+      evict();
+    }
+  }
+
+  /**
+   * Drop cached blocks of a channel overlapping a time range, and mark the blocks as modified so
+   * that a read in progress, also of a block not cached yet, is not stored. Blocks past the
+   * cutoff are never stored, so they are left alone. Called by writers after inserting data,
+   * possibly from another process.
+   *
+   * @param source source database name
+   * @param table channel table
+   * @param st start of the written range in j2ksec
+   * @param et end of the written range in j2ksec
+   */
+  public void invalidate(String source, String table, double st, double et) {
+    File channelDir = new File(new File(dir, source), table);
+
+    // a read that started a block ago may still take the block before the cutoff for cached
+    long last = Math.min(getBlock(et), getBlock(getCutoff()));
+    for (long block = getBlock(st); block <= last; block++) {
+      File blockDir = new File(channelDir, Long.toString(block));
+      blockDir.mkdirs();
+      File marker = new File(blockDir, MARKER);
+      try {
+        if (!marker.createNewFile()) {
+          marker.setLastModified(System.currentTimeMillis());
+        }
+      } catch (IOException e) {
+        LOGGER.warn("Could not mark block {}: {}", blockDir, e.getMessage());
+      }
+      File[] blocks = blockDir.listFiles();
+      for (File file : blocks == null ? new File[0] : blocks) {
+        if (file.getName().endsWith(SUFFIX)) {
+          remove(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the file of a block.
+   *
+   * @param source source database name
+   * @param table channel table
+   * @param block block number
+   * @param key query that read the block
+   * @return block file
+   */
+  private File getFile(String source, String table, long block, String key) {
+    File blockDir = new File(new File(new File(dir, source), table), Long.toString(block));
+    return new File(blockDir, Integer.toHexString(key.hashCode()) + SUFFIX);
+  }
+
+  /**
+   * Delete a block file and forget it.
+   *
+   * @param file block file
+   */
+  private synchronized void remove(File file) {
+    Long size = files.remove(file);
+    if (size != null) {
+      bytes -= size;
+    }
+    file.delete();
+  }
+
+  /**
+   * Delete least recently used files until the cache fits its size limit.
+   */
+  private synchronized void evict() {
+    Iterator<Map.Entry<File, Long>> it = files.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      Map.Entry<File, Long> entry = it.next();
+      bytes -= entry.getValue();
+      entry.getKey().delete();
+      it.remove();
+    }
+  }
+
+  /**
+   * Collect block files under a directory.
+   *
+   * @param dir directory to search
+   * @param found list of files found
+   */
+  private static void list(File dir, List<File> found) {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        list(child, found);
+      } else if (child.getName().endsWith(SUFFIX)) {
+        found.add(child);
+      }
+    }
+  }
+
+  /**
+   * Close a file, ignoring errors.
+   *
+   * @param c file to close
+   */
+  private static void close(Closeable c) {
+    if (c != null) {
+      try {
+        c.close();
+      } catch (IOException e) {
+        // nothing to do
+      }
+    }
+  }
+}
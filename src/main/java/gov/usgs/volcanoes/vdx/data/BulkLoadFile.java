@@ -0,0 +1,189 @@
+package gov.usgs.volcanoes.vdx.data;
+
+import gov.usgs.volcanoes.vdx.db.VDXDatabase;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Temporary file of rows for MySQL's LOAD DATA LOCAL INFILE, which loads historical backfills far
+ * faster than inserting rows over JDBC. Values are separated by tabs, rows end with '\n' and
+ * NaN or null values are written as \N. The connection url needs allowLoadLocalInfile=true.
+ */
+public class BulkLoadFile implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BulkLoadFile.class);
+
+  private final File file;
+  private final Writer writer;
+  private final long created = System.currentTimeMillis();
+  private boolean rowStarted;
+  private int rows;
+
+  /**
+   * Constructor. Creates the temporary file.
+   *
+   * @param table table the rows are for, used in the file name
+   * @throws IOException if the file can't be created
+   */
+  public BulkLoadFile(String table) throws IOException {
+    file = File.createTempFile("vdx-" + table + "-", ".tsv");
+    file.deleteOnExit();
+    writer = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 65536);
+  }
+
+  /**
+   * Write a number to the current row.
+   *
+   * @param value value, NaN for null
+   * @throws IOException if the file can't be written
+   */
+  public void add(double value) throws IOException {
+    separate();
+    if (Double.isNaN(value)) {
+      writer.write("\\N");
+    } else {
+      writer.write(Double.toString(value));
+    }
+  }
+
+  /**
+   * Write an integer to the current row.
+   *
+   * @param value value, null for null
+   * @throws IOException if the file can't be written
+   */
+  public void add(Integer value) throws IOException {
+    separate();
+    writer.write(value == null ? "\\N" : value.toString());
+  }
+
+  /**
+   * Write a string to the current row, escaping backslashes, tabs and line ends.
+   *
+   * @param value value, null for null
+   * @throws IOException if the file can't be written
+   */
+  public void add(String value) throws IOException {
+    separate();
+    if (value == null) {
+      writer.write("\\N");
+      return;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          writer.write("\\\\");
+          break;
+        case '\t':
+          writer.write("\\t");
+          break;
+        case '\n':
+          writer.write("\\n");
+          break;
+        case '\r':
+          writer.write("\\r");
+          break;
+        default:
+          writer.write(c);
+      }
+    }
+  }
+
+  /**
+   * End the current row.
+   *
+   * @throws IOException if the file can't be written
+   */
+  public void endRow() throws IOException {
+    writer.write('\n');
+    rowStarted = false;
+    rows++;
+  }
+
+  /**
+   * Get the number of rows written.
+   *
+   * @return number of rows
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * Load the rows into a table, in the current database.
+   *
+   * @param database database
+   * @param modifier duplicate handling, "REPLACE", "IGNORE" or ""
+   * @param table table to load into
+   * @param columns comma separated columns or variables the values go to, null for all columns
+   * @param set SET clause without the keyword, null for none
+   * @return number of rows affected
+   * @throws IOException if the file can't be written
+   * @throws SQLException if the load fails
+   */
+  public int load(VDXDatabase database, String modifier, String table, String columns,
+      String set) throws IOException, SQLException {
+    writer.close();
+    String path = file.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'");
+    String sql = "LOAD DATA LOCAL INFILE '" + path + "' " + modifier + " INTO TABLE " + table
+        + " CHARACTER SET utf8 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\'"
+        + " LINES TERMINATED BY '\\n'";
+    if (columns != null) {
+      sql += " (" + columns + ")";
+    }
+    if (set != null) {
+      sql += " SET " + set;
+    }
+    return database.getStatement().executeUpdate(sql);
+  }
+
+  /**
+   * Log the number of rows loaded and the rate since the file was created.
+   *
+   * @param table table the rows were loaded into
+   */
+  public void logRate(String table) {
+    double seconds = Math.max(1, System.currentTimeMillis() - created) / 1000.0;
+    LOGGER.info("bulk loaded {} rows into {} in {} s ({} rows/s)", rows, table,
+        String.format("%.1f", seconds), Math.round(rows / seconds));
+  }
+
+  /**
+   * Close and delete the file.
+   */
+  public void close() {
+    try {
+      writer.close();
+    } catch (IOException e) {
+      // nothing to do
+    }
+    if (!file.delete()) {
+      LOGGER.warn("Could not delete {}", file);
+    }
+  }
+
+  /**
+   * Write a separator before all but the first value of a row.
+   *
+   * @throws IOException if the file can't be written
+   */
+  private void separate() throws IOException {
+    if (rowStarted) {
+      writer.write('\t');
+    }
+    rowStarted = true;
+  }
+}
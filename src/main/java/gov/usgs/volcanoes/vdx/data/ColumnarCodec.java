@@ -0,0 +1,353 @@
+package gov.usgs.volcanoes.vdx.data;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+import gov.usgs.volcanoes.core.data.BinaryDataSet;
+import gov.usgs.volcanoes.core.data.GenericDataMatrix;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Columnar encoding of data sets. A table is written column by column, each column in whichever
+ * of the forms below is smallest:
+ *
+ * <ul>
+ * <li>raw 8-byte doubles;</li>
+ * <li>4-byte floats, when every value is exactly a float, or when the client accepts narrowing
+ * and the column isn't one of the leading exact columns (time);</li>
+ * <li>runs of repeated values, as for ranks;</li>
+ * <li>a first value and a fixed step, for regularly sampled times;</li>
+ * <li>a first value followed by varint-coded XORs of consecutive bit patterns, for times and
+ * other slowly changing values.</li>
+ * </ul>
+ *
+ * <p>Apart from optional float narrowing the encoding is lossless. Clients ask for it with the
+ * 'encoding' request parameter; the server echoes the parameter in the reply header when it used
+ * it, so data sets without a columnar form still travel in their plain binary form.
+ */
+public class ColumnarCodec {
+
+  public static final String COLUMNAR = "columnar";
+  public static final String COLUMNAR_FLOAT32 = "columnar32";
+
+  private static final byte VERSION = 1;
+
+  private static final byte RAW = 0;
+  private static final byte FLOAT = 1;
+  private static final byte RUNS = 2;
+  private static final byte REGULAR = 3;
+  private static final byte XOR = 4;
+
+  private static final DoubleFactory2D DENSE = DoubleFactory2D.dense;
+
+  /**
+   * Check if an encoding name asks for the columnar encoding.
+   *
+   * @param encoding encoding name, may be null
+   * @return true if columnar
+   */
+  public static boolean isColumnar(String encoding) {
+    return COLUMNAR.equals(encoding) || COLUMNAR_FLOAT32.equals(encoding);
+  }
+
+  /**
+   * Dump a data set into ByteBuffer using the columnar encoding.
+   *
+   * @param ds data set
+   * @param float32 true if data columns may be narrowed to float32
+   * @return ByteBuffer of content, or null if the data set has no columnar form
+   */
+  public static ByteBuffer toColumnar(BinaryDataSet ds, boolean float32) {
+    if (ds instanceof ColumnarDataSet) {
+      return ((ColumnarDataSet) ds).toColumnar(float32);
+    } else if (ds instanceof GenericDataMatrix) {
+      return encode(toColumns(((GenericDataMatrix) ds).getData()), 1, float32);
+    }
+    return null;
+  }
+
+  /**
+   * Parse ByteBuffer written by {@link #toColumnar(BinaryDataSet, boolean)} into a data set.
+   *
+   * @param ds data set to fill
+   * @param bb ByteBuffer to parse
+   */
+  public static void fromColumnar(BinaryDataSet ds, ByteBuffer bb) {
+    if (ds instanceof ColumnarDataSet) {
+      ((ColumnarDataSet) ds).fromColumnar(bb);
+    } else if (ds instanceof GenericDataMatrix) {
+      ((GenericDataMatrix) ds).setData(toMatrix(decode(bb)));
+    } else {
+      throw new IllegalArgumentException(
+          "No columnar form for " + ds.getClass().getName());
+    }
+  }
+
+  /**
+   * Split matrix into columns.
+   *
+   * @param matrix matrix
+   * @return array of columns
+   */
+  public static double[][] toColumns(DoubleMatrix2D matrix) {
+    int rows = matrix.rows();
+    double[][] columns = new double[matrix.columns()][rows];
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < columns.length; j++) {
+        columns[j][i] = matrix.getQuick(i, j);
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Join columns into a matrix.
+   *
+   * @param columns array of columns
+   * @return matrix
+   */
+  public static DoubleMatrix2D toMatrix(double[][] columns) {
+    int rows = columns.length == 0 ? 0 : columns[0].length;
+    DoubleMatrix2D matrix = DENSE.make(rows, columns.length);
+    for (int j = 0; j < columns.length; j++) {
+      for (int i = 0; i < rows; i++) {
+        matrix.setQuick(i, j, columns[j][i]);
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Encode columns of equal length.
+   *
+   * @param columns array of columns
+   * @param exactColumns number of leading columns never narrowed to float32
+   * @param float32 true if the other columns may be narrowed to float32
+   * @return ByteBuffer of encoded columns, ready to read
+   */
+  public static ByteBuffer encode(double[][] columns, int exactColumns, boolean float32) {
+    int rows = columns.length == 0 ? 0 : columns[0].length;
+    byte[] kinds = new byte[columns.length];
+    int size = 9;
+    for (int j = 0; j < columns.length; j++) {
+      double[] column = columns[j];
+      kinds[j] = RAW;
+      int best = 8 * rows;
+      if ((float32 && j >= exactColumns) || isFloat(column)) {
+        if (4 * rows < best) {
+          kinds[j] = FLOAT;
+          best = 4 * rows;
+        }
+      }
+      int runs = runsSize(column);
+      if (runs < best) {
+        kinds[j] = RUNS;
+        best = runs;
+      }
+      if (rows > 2 && isRegular(column) && 16 < best) {
+        kinds[j] = REGULAR;
+        best = 16;
+      }
+      if (rows > 0) {
+        int xor = xorSize(column);
+        if (xor < best) {
+          kinds[j] = XOR;
+          best = xor;
+        }
+      }
+      size += 1 + best;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.put(VERSION);
+    buffer.putInt(rows);
+    buffer.putInt(columns.length);
+    for (int j = 0; j < columns.length; j++) {
+      double[] column = columns[j];
+      buffer.put(kinds[j]);
+      switch (kinds[j]) {
+        case FLOAT:
+          for (int i = 0; i < rows; i++) {
+            buffer.putFloat((float) column[i]);
+          }
+          break;
+        case RUNS:
+          int start = 0;
+          buffer.putInt(countRuns(column));
+          for (int i = 1; i <= rows; i++) {
+            if (i == rows || !same(column[i], column[start])) {
+              putVarint(buffer, i - start);
+              buffer.putDouble(column[start]);
+              start = i;
+            }
+          }
+          break;
+        case REGULAR:
+          buffer.putDouble(column[0]);
+          buffer.putDouble(column[1] - column[0]);
+          break;
+        case XOR:
+          buffer.putDouble(column[0]);
+          for (int i = 1; i < rows; i++) {
+            putVarint(buffer, bits(column[i]) ^ bits(column[i - 1]));
+          }
+          break;
+        default:
+          for (int i = 0; i < rows; i++) {
+            buffer.putDouble(column[i]);
+          }
+          break;
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Decode columns written by {@link #encode(double[][], int, boolean)}. The buffer is left
+   * positioned after the columns.
+   *
+   * @param bb ByteBuffer to parse
+   * @return array of columns
+   */
+  public static double[][] decode(ByteBuffer bb) {
+    byte version = bb.get();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unknown columnar encoding version " + version);
+    }
+    int rows = bb.getInt();
+    double[][] columns = new double[bb.getInt()][rows];
+    for (int j = 0; j < columns.length; j++) {
+      double[] column = columns[j];
+      byte kind = bb.get();
+      switch (kind) {
+        case RAW:
+          for (int i = 0; i < rows; i++) {
+            column[i] = bb.getDouble();
+          }
+          break;
+        case FLOAT:
+          for (int i = 0; i < rows; i++) {
+            column[i] = bb.getFloat();
+          }
+          break;
+        case RUNS:
+          int runs = bb.getInt();
+          int i = 0;
+          for (int r = 0; r < runs; r++) {
+            int length = (int) getVarint(bb);
+            double value = bb.getDouble();
+            for (int k = 0; k < length; k++) {
+              column[i++] = value;
+            }
+          }
+          break;
+        case REGULAR:
+          double first = bb.getDouble();
+          double step = bb.getDouble();
+          for (int k = 0; k < rows; k++) {
+            column[k] = first + k * step;
+          }
+          break;
+        case XOR:
+          long prev = Double.doubleToRawLongBits(bb.getDouble());
+          column[0] = Double.longBitsToDouble(prev);
+          for (int k = 1; k < rows; k++) {
+            prev ^= getVarint(bb);
+            column[k] = Double.longBitsToDouble(prev);
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown column encoding " + kind);
+      }
+    }
+    return columns;
+  }
+
+  private static long bits(double value) {
+    return Double.doubleToRawLongBits(value);
+  }
+
+  private static boolean same(double a, double b) {
+    return bits(a) == bits(b);
+  }
+
+  private static boolean isFloat(double[] column) {
+    for (double value : column) {
+      if (!same((double) (float) value, value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isRegular(double[] column) {
+    double step = column[1] - column[0];
+    for (int i = 2; i < column.length; i++) {
+      if (!same(column[0] + i * step, column[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int countRuns(double[] column) {
+    int runs = column.length == 0 ? 0 : 1;
+    for (int i = 1; i < column.length; i++) {
+      if (!same(column[i], column[i - 1])) {
+        runs++;
+      }
+    }
+    return runs;
+  }
+
+  private static int runsSize(double[] column) {
+    int size = 4;
+    int start = 0;
+    for (int i = 1; i <= column.length; i++) {
+      if (i == column.length || !same(column[i], column[start])) {
+        size += varintSize(i - start) + 8;
+        start = i;
+      }
+    }
+    return size;
+  }
+
+  private static int xorSize(double[] column) {
+    int size = 8;
+    for (int i = 1; i < column.length; i++) {
+      size += varintSize(bits(column[i]) ^ bits(column[i - 1]));
+    }
+    return size;
+  }
+
+  private static int varintSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static void putVarint(ByteBuffer bb, long value) {
+    while ((value & ~0x7FL) != 0) {
+      bb.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    bb.put((byte) value);
+  }
+
+  private static long getVarint(ByteBuffer bb) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = bb.get();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+}
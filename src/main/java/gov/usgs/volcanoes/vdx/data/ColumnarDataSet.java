@@ -0,0 +1,28 @@
+package gov.usgs.volcanoes.vdx.data;
+
+import gov.usgs.volcanoes.core.data.BinaryDataSet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BinaryDataSet that can also be sent in the columnar encoding.
+ *
+ * @see ColumnarCodec
+ */
+public interface ColumnarDataSet extends BinaryDataSet {
+
+  /**
+   * Dump object content into ByteBuffer using the columnar encoding.
+   *
+   * @param float32 true if data columns may be narrowed to float32
+   * @return ByteBuffer of content
+   */
+  public ByteBuffer toColumnar(boolean float32);
+
+  /**
+   * Parse ByteBuffer written by {@link #toColumnar(boolean)}.
+   *
+   * @param bb ByteBuffer to parse
+   */
+  public void fromColumnar(ByteBuffer bb);
+}
@@ -0,0 +1,185 @@
+package gov.usgs.volcanoes.vdx.data;
+
+import gov.usgs.volcanoes.core.data.BinaryDataSet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data for several channels of one source, returned in a single reply. Channels are keyed by
+ * channel id and kept in the order they were requested. All channels hold the same type of data
+ * set, whose class name is carried in the payload so the client can unpack it.
+ */
+public class MultiChannelData implements ColumnarDataSet {
+
+  public static final String TYPE = "multichannel";
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private Map<Integer, BinaryDataSet> channels;
+
+  /**
+   * Default constructor.
+   */
+  public MultiChannelData() {
+    channels = new LinkedHashMap<Integer, BinaryDataSet>();
+  }
+
+  /**
+   * Add data for a channel.
+   *
+   * @param cid channel id
+   * @param data channel data
+   */
+  public void put(int cid, BinaryDataSet data) {
+    channels.put(cid, data);
+  }
+
+  /**
+   * Get data for a channel.
+   *
+   * @param cid channel id
+   * @return channel data, or null if the channel isn't present
+   */
+  public BinaryDataSet get(int cid) {
+    return channels.get(cid);
+  }
+
+  /**
+   * Yield channel data keyed by channel id, in request order.
+   *
+   * @return map of channel ids to data
+   */
+  public Map<Integer, BinaryDataSet> getChannels() {
+    return channels;
+  }
+
+  /**
+   * Get number of channels.
+   *
+   * @return number of channels
+   */
+  public int size() {
+    return channels.size();
+  }
+
+  /**
+   * Dump object content into ByteBuffer.
+   *
+   * @return ByteBuffer of content
+   */
+  public ByteBuffer toBinary() {
+    return toBinary(false, false);
+  }
+
+  /**
+   * Dump object content into ByteBuffer using the columnar encoding for each channel.
+   *
+   * @param float32 true if data columns may be narrowed to float32
+   * @return ByteBuffer of content, or null if the channel data has no columnar form
+   */
+  public ByteBuffer toColumnar(boolean float32) {
+    return toBinary(true, float32);
+  }
+
+  /**
+   * Dump object content into ByteBuffer.
+   *
+   * @param columnar true to use the columnar encoding for each channel
+   * @param float32 true if data columns may be narrowed to float32
+   * @return ByteBuffer of content, or null if columnar and not supported by the channel data
+   */
+  private ByteBuffer toBinary(boolean columnar, boolean float32) {
+    byte[] className = new byte[0];
+    List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(channels.size());
+    int size = 8;
+    for (BinaryDataSet data : channels.values()) {
+      className = data.getClass().getName().getBytes(UTF8);
+      ByteBuffer bb = columnar ? ColumnarCodec.toColumnar(data, float32) : data.toBinary();
+      if (bb == null) {
+        return null;
+      }
+      buffers.add(bb);
+      size += 8 + bb.remaining();
+    }
+    size += className.length;
+
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(channels.size());
+    buffer.putInt(className.length);
+    buffer.put(className);
+    int i = 0;
+    for (int cid : channels.keySet()) {
+      ByteBuffer bb = buffers.get(i++);
+      buffer.putInt(cid);
+      buffer.putInt(bb.remaining());
+      buffer.put(bb);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Parse ByteBuffer and fill the channel map.
+   *
+   * @param bb ByteBuffer to parse
+   * @see #toBinary()
+   */
+  public void fromBinary(ByteBuffer bb) {
+    fromBinary(bb, false);
+  }
+
+  /**
+   * Parse ByteBuffer written by {@link #toColumnar(boolean)} and fill the channel map.
+   *
+   * @param bb ByteBuffer to parse
+   */
+  public void fromColumnar(ByteBuffer bb) {
+    fromBinary(bb, true);
+  }
+
+  /**
+   * Parse ByteBuffer and fill the channel map.
+   *
+   * @param bb ByteBuffer to parse
+   * @param columnar true if channel data uses the columnar encoding
+   */
+  private void fromBinary(ByteBuffer bb, boolean columnar) {
+    int count = bb.getInt();
+    byte[] className = new byte[bb.getInt()];
+    bb.get(className);
+    channels = new LinkedHashMap<Integer, BinaryDataSet>();
+    for (int i = 0; i < count; i++) {
+      int cid = bb.getInt();
+      int length = bb.getInt();
+      ByteBuffer slice = bb.slice();
+      slice.limit(length);
+      bb.position(bb.position() + length);
+      BinaryDataSet data;
+      try {
+        data = (BinaryDataSet) Class.forName(new String(className, UTF8)).newInstance();
+      } catch (Exception e) {
+        throw new IllegalArgumentException("Can't unpack channel data: " + e.getMessage());
+      }
+      if (columnar) {
+        ColumnarCodec.fromColumnar(data, slice);
+      } else {
+        data.fromBinary(slice);
+      }
+      channels.put(cid, data);
+    }
+  }
+
+  /**
+   * Get string representation.
+   *
+   * @return string representation
+   */
+  public String toString() {
+    return "MultiChannelData: " + channels.size() + " channels";
+  }
+}
@@ -0,0 +1,160 @@
+package gov.usgs.volcanoes.vdx.data;
+
+import gov.usgs.volcanoes.core.data.GenericDataMatrix;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * GenericDataMatrix with time and rank columns followed by a fixed set of data columns, of which
+ * only a requested subset may be present. When a subset is held, the names of its data columns
+ * follow the matrix in the binary form; a full matrix is written exactly as a GenericDataMatrix.
+ * Methods working on the full column layout must not be used on a subset.
+ */
+public abstract class ProjectedDataMatrix extends GenericDataMatrix implements ColumnarDataSet {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private String[] dataColumns;
+
+  /**
+   * Default constructor.
+   */
+  public ProjectedDataMatrix() {
+    super();
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param pts list of rows
+   * @param dataColumns names of the data columns held, null if all of them
+   */
+  public ProjectedDataMatrix(List<double[]> pts, String[] dataColumns) {
+    super(pts);
+    setDataColumns(dataColumns);
+  }
+
+  /**
+   * Get names of all data columns, in column order, as found in a full matrix.
+   *
+   * @return data column names
+   */
+  protected abstract String[] getDefaultDataColumns();
+
+  /**
+   * Set names of the data columns held.
+   *
+   * @param dataColumns names of the data columns, null if all of them
+   */
+  public void setDataColumns(String[] dataColumns) {
+    this.dataColumns = dataColumns;
+    columnMap.clear();
+    setColumnNames();
+  }
+
+  /**
+   * Check if the matrix holds all data columns.
+   *
+   * @return true if no subset was requested
+   */
+  public boolean isFull() {
+    return dataColumns == null;
+  }
+
+  /**
+   * Set column names: time, rank and the data columns held.
+   */
+  public void setColumnNames() {
+    String[] names = dataColumns == null ? getDefaultDataColumns() : dataColumns;
+    columnMap.put("time", 0);
+    columnMap.put("rank", 1);
+    for (int i = 0; i < names.length; i++) {
+      columnMap.put(names[i], i + 2);
+    }
+  }
+
+  /**
+   * Dump object content into ByteBuffer.
+   *
+   * @return ByteBuffer of content
+   */
+  public ByteBuffer toBinary() {
+    return appendDataColumns(super.toBinary());
+  }
+
+  /**
+   * Parse ByteBuffer, including data column names if present.
+   *
+   * @param bb ByteBuffer to parse
+   * @see #toBinary()
+   */
+  public void fromBinary(ByteBuffer bb) {
+    super.fromBinary(bb);
+    readDataColumns(bb);
+  }
+
+  /**
+   * Dump object content into ByteBuffer using the columnar encoding.
+   *
+   * @param float32 true if data columns may be narrowed to float32
+   * @return ByteBuffer of content
+   */
+  public ByteBuffer toColumnar(boolean float32) {
+    return appendDataColumns(ColumnarCodec.encode(ColumnarCodec.toColumns(getData()), 1, float32));
+  }
+
+  /**
+   * Parse ByteBuffer written by {@link #toColumnar(boolean)}.
+   *
+   * @param bb ByteBuffer to parse
+   */
+  public void fromColumnar(ByteBuffer bb) {
+    setData(ColumnarCodec.toMatrix(ColumnarCodec.decode(bb)));
+    readDataColumns(bb);
+  }
+
+  /**
+   * Append names of the data columns held, if a subset, to an encoded matrix.
+   *
+   * @param matrix encoded matrix
+   * @return ByteBuffer of matrix and names
+   */
+  private ByteBuffer appendDataColumns(ByteBuffer matrix) {
+    if (dataColumns == null) {
+      return matrix;
+    }
+
+    StringBuilder names = new StringBuilder();
+    for (int i = 0; i < dataColumns.length; i++) {
+      if (i > 0) {
+        names.append(",");
+      }
+      names.append(dataColumns[i]);
+    }
+    byte[] matrixBytes = matrix.array();
+    byte[] nameBytes = names.toString().getBytes(UTF8);
+    ByteBuffer buffer = ByteBuffer.allocate(matrixBytes.length + 4 + nameBytes.length);
+    buffer.put(matrixBytes);
+    buffer.putInt(nameBytes.length);
+    buffer.put(nameBytes);
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Read names of the data columns, if present, following an encoded matrix.
+   *
+   * @param bb ByteBuffer positioned after the matrix
+   */
+  private void readDataColumns(ByteBuffer bb) {
+    String[] names = null;
+    if (bb.remaining() >= 4) {
+      byte[] nameBytes = new byte[bb.getInt()];
+      bb.get(nameBytes);
+      names = new String(nameBytes, UTF8).split(",");
+    }
+    setDataColumns(names);
+  }
+}
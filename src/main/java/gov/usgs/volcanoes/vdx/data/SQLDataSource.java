@@ -1,5 +1,6 @@
 package gov.usgs.volcanoes.vdx.data;
 
+import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix2D;
 
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
@@ -9,19 +10,37 @@ import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.vdx.db.VDXDatabase;
+import gov.usgs.volcanoes.vdx.server.BinaryResult;
 import gov.usgs.volcanoes.vdx.server.RequestResult;
 import gov.usgs.volcanoes.vdx.server.TextResult;
 
+import java.io.IOException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +56,7 @@ import org.slf4j.LoggerFactory;
 public abstract class SQLDataSource implements DataSource {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(SQLDataSource.class);
+  private static final long TABLE_STATS_TTL = 60000;
   protected VDXDatabase database;
   protected String vdxName;
   protected String dbName;
@@ -47,6 +67,22 @@ public abstract class SQLDataSource implements DataSource {
   protected String sql;
   protected String sqlCount;
   private int maxrows = 0;
+  private int splitRows = 0;
+  private int splitThreads = 4;
+  private ThreadPoolExecutor splitExecutor;
+  private final ArrayDeque<VDXDatabase> splitDatabases = new ArrayDeque<VDXDatabase>();
+  private int queryTimeout = 0;
+  private int batchSize = 1000;
+  private int insertFailures;
+  private boolean bulkLoad;
+  private final Map<String, PendingInsert> pendingInserts =
+      new LinkedHashMap<String, PendingInsert>();
+  private PendingInsert lastPending;
+  private Map<String, Integer> knownTranslationIds;
+  private BlockCache blockCache;
+  private final Map<String, double[]> tableStats = new HashMap<String, double[]>();
+  private Map<Integer, Map<String, Double>> translationCache =
+      new HashMap<Integer, Map<String, Double>>();
 
   /**
    * Initialize the data source. Concrete realization see in the inherited classes
@@ -102,6 +138,36 @@ public abstract class SQLDataSource implements DataSource {
     return maxrows;
   }
 
+  /**
+   * Getter for query timeout.
+   * 
+   * @return query timeout in seconds, 0 if queries may run as long as they need
+   */
+  public int getQueryTimeout() {
+    return queryTimeout;
+  }
+
+  /**
+   * Cancel the query running for the current request, if any. May be called from another thread.
+   */
+  public void cancel() {
+    database.cancel();
+  }
+
+  /**
+   * Drop cached blocks of a table overlapping a time range. Writers call this after inserting
+   * data that may be older than the block cache cutoff.
+   * 
+   * @param table table written to
+   * @param st earliest time written
+   * @param et latest time written
+   */
+  protected void invalidateBlocks(String table, double st, double et) {
+    if (blockCache != null) {
+      blockCache.invalidate(dbName, table, st, et);
+    }
+  }
+
   /**
    * Setter for maxrows.
    * 
@@ -202,6 +268,434 @@ public abstract class SQLDataSource implements DataSource {
     }
   }
 
+  /**
+   * Get SQL for best available rank resolution. The returned clause joins the outer query against a
+   * derived table holding the highest rank for each key, so that only one row per key is returned
+   * by the database. The derived table repeats the FROM and WHERE clauses passed in, so their
+   * parameters must be bound ahead of the ones used by the outer query.
+   *
+   * @param fromWhereClause FROM and WHERE clauses selecting the candidate rows, using the same
+   *        table aliases as the outer query
+   * @param rankColumn rank value column, e.g. c.rank
+   * @param keyColumns columns identifying a single observation, e.g. a.j2ksec
+   * @return INNER JOIN clause to be appended to the FROM clause of the outer query
+   */
+  public static String getBestRankSQL(String fromWhereClause, String rankColumn,
+      String... keyColumns) {
+    StringBuilder select = new StringBuilder("SELECT ");
+    StringBuilder groupBy = new StringBuilder("GROUP BY ");
+    StringBuilder on = new StringBuilder("ON ");
+    for (int i = 0; i < keyColumns.length; i++) {
+      if (i > 0) {
+        groupBy.append(", ");
+      }
+      select.append(keyColumns[i]).append(" AS k").append(i).append(", ");
+      groupBy.append(keyColumns[i]);
+      on.append(keyColumns[i]).append(" = best.k").append(i).append(" AND ");
+    }
+    select.append("MAX(").append(rankColumn).append(") AS maxrank ");
+    on.append(rankColumn).append(" = best.maxrank ");
+
+    return "INNER JOIN (" + select + fromWhereClause + " " + groupBy + ") best " + on;
+  }
+
+  /**
+   * Bind values to consecutive parameters of a prepared statement.
+   *
+   * @param ps prepared statement to bind to
+   * @param index index of the last parameter already bound, 0 if none
+   * @param values values to bind, in order
+   * @return index of the last parameter bound
+   * @throws SQLException if a value can't be bound
+   */
+  public static int setParameters(PreparedStatement ps, int index, Object... values)
+      throws SQLException {
+    for (Object value : values) {
+      ps.setObject(++index, value);
+    }
+    return index;
+  }
+
+  /**
+   * Plan how to read a time range of a channel table. Ranges expected to hold more than
+   * 'splitrows' rows are cut into up to 'splitthreads' consecutive sub-ranges of roughly equal row
+   * counts, estimated from the table's row count and time extent, so they can be read in parallel
+   * by {@link #getSplitData}. Sub-ranges don't overlap and together cover st..et. For mean
+   * downsampling the cuts fall on interval boundaries counted from st, so no interval is split;
+   * without a positive interval the range isn't split. Decimation numbers rows across the whole
+   * range and is never split.
+   *
+   * @param table channel table name
+   * @param st start time
+   * @param et end time
+   * @param ds type of downsampling the query applies, NONE if the requested downsampling is
+   *     dropped
+   * @param dsInt downsampling argument
+   * @return list of {start, end} pairs, a single pair if the range isn't worth splitting
+   */
+  public List<double[]> getTimeRanges(String table, double st, double et, DownsamplingType ds,
+      int dsInt) {
+    List<double[]> ranges = new ArrayList<double[]>();
+    ranges.add(new double[] {st, et});
+    if (splitRows <= 0 || splitThreads <= 1 || ds.equals(DownsamplingType.DECIMATE)
+        || (ds.equals(DownsamplingType.MEAN) && dsInt <= 0)) {
+      return ranges;
+    }
+
+    try {
+      double[] stats = getTableStats(table);
+      if (stats == null || stats[0] <= splitRows) {
+        return ranges;
+      }
+      double tableRows = stats[0];
+      double first = stats[2];
+      double last = stats[3];
+
+      double lo = Math.max(st, first);
+      double hi = Math.min(et, last);
+      if (hi <= lo || last <= first) {
+        return ranges;
+      }
+      double estimatedRows = tableRows * (hi - lo) / (last - first);
+      int pieces = (int) Math.min(splitThreads, Math.ceil(estimatedRows / splitRows));
+      if (pieces <= 1) {
+        return ranges;
+      }
+
+      ranges.clear();
+      double start = st;
+      for (int i = 1; i < pieces; i++) {
+        double cut = lo + i * (hi - lo) / pieces;
+        if (ds.equals(DownsamplingType.MEAN)) {
+          cut = st + Math.floor((cut - st) / dsInt) * dsInt;
+        }
+        if (cut <= start) {
+          continue;
+        }
+        ranges.add(new double[] {start, Math.nextAfter(cut, Double.NEGATIVE_INFINITY)});
+        start = cut;
+      }
+      ranges.add(new double[] {start, et});
+
+    } catch (SQLException e) {
+      LOGGER.error("SQLDataSource.getTimeRanges() failed. ({}_{})",
+          database.getDatabasePrefix(), dbName, e);
+    }
+    return ranges;
+  }
+
+  /**
+   * Get statistics of a data table: the server's estimate of its row count, its number of
+   * columns and its time extent. Statistics are kept for a minute, so looking them up for every
+   * request costs little.
+   *
+   * @param table table name
+   * @return {rows, columns, first j2ksec, last j2ksec}, or null if the table doesn't exist
+   * @throws SQLException if the lookup fails
+   */
+  protected double[] getTableStats(String table) throws SQLException {
+    long now = System.currentTimeMillis();
+    double[] stats = tableStats.get(table);
+    if (stats != null && now - stats[4] < TABLE_STATS_TTL) {
+      return stats;
+    }
+
+    // the table row count is an estimate kept by the server, so this costs no scan
+    ps = database.getPreparedStatement("SELECT t.table_rows, (SELECT COUNT(*) "
+        + "FROM information_schema.columns c WHERE c.table_schema = t.table_schema "
+        + "AND c.table_name = t.table_name) FROM information_schema.tables t "
+        + "WHERE t.table_schema = ? AND t.table_name = ?");
+    ps.setString(1, database.getDatabasePrefix() + "_" + dbName);
+    ps.setString(2, table);
+    rs = ps.executeQuery();
+    if (!rs.next()) {
+      rs.close();
+      return null;
+    }
+    stats = new double[] {rs.getLong(1), rs.getInt(2), 0, 0, now};
+    rs.close();
+
+    rs = database.getPreparedStatement("SELECT MIN(j2ksec), MAX(j2ksec) FROM " + table)
+        .executeQuery();
+    if (rs.next()) {
+      stats[2] = rs.getDouble(1);
+      stats[3] = rs.getDouble(2);
+    }
+    rs.close();
+    tableStats.put(table, stats);
+    return stats;
+  }
+
+  /**
+   * Get tables a data request reads, for estimating its size. By default these are the tables of
+   * the channels in the 'ch' parameter; sources keeping data elsewhere override this.
+   *
+   * @param params request parameters
+   * @return table names
+   */
+  protected List<String> getDataTables(Map<String, String> params) {
+    List<String> tables = new ArrayList<String>();
+    String ch = params.get("ch");
+    if (ch != null) {
+      for (int cid : parseChannelIds(ch)) {
+        Channel channel = defaultGetChannel(cid, false);
+        if (channel != null) {
+          tables.add(channel.getCode());
+        }
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Estimate heap needed to serve a data request, before running it. Rows are estimated from
+   * table statistics, the requested time range, downsampling and maxrows; each row is charged for
+   * the row arrays, the result matrix and its serialized form.
+   *
+   * @param params request parameters
+   * @return estimated bytes, 0 if the request isn't a time range request or can't be estimated
+   */
+  public long estimateRequestBytes(Map<String, String> params) {
+    double st;
+    double et;
+    try {
+      st = Double.parseDouble(params.get("st"));
+      et = Double.parseDouble(params.get("et"));
+    } catch (Exception e) {
+      return 0;
+    }
+    DownsamplingType ds = DownsamplingType.NONE;
+    int dsInt = 0;
+    if (params.get("ds") != null) {
+      ds = DownsamplingType.fromString(params.get("ds"));
+      dsInt = StringUtils.stringToInt(params.get("dsInt"), 0);
+    }
+
+    long bytes = 0;
+    try {
+      database.useDatabase(dbName);
+      for (String table : getDataTables(params)) {
+        double[] stats = getTableStats(table);
+        if (stats == null) {
+          continue;
+        }
+        double rows = stats[0];
+        double first = stats[2];
+        double last = stats[3];
+        if (last > first) {
+          double overlap = Math.min(et, last) - Math.max(st, first);
+          rows = overlap <= 0 ? 0 : rows * overlap / (last - first);
+        }
+        if (DownsamplingType.MEAN.equals(ds) && dsInt > 0) {
+          rows = Math.min(rows, Math.ceil((et - st) / dsInt));
+        } else if (DownsamplingType.DECIMATE.equals(ds) && dsInt > 1) {
+          rows = rows / dsInt;
+        }
+        if (maxrows > 0) {
+          rows = Math.min(rows, maxrows);
+        }
+        bytes += (long) (rows * (40 + 32 * stats[1]));
+      }
+    } catch (Exception e) {
+      LOGGER.warn("SQLDataSource.estimateRequestBytes() failed. ({}_{}): {}",
+          database.getDatabasePrefix(), dbName, e.getMessage());
+      return 0;
+    }
+    return bytes;
+  }
+
+  /**
+   * Run a query once per parameter set, each on its own connection in parallel, and concatenate
+   * the rows in parameter set order. Used to read the sub-ranges planned by
+   * {@link #getTimeRanges}. The threads and connections are kept by the data source for the next
+   * split query, up to 'splitthreads' of each; idle threads end after a minute.
+   *
+   * @param query sql to execute
+   * @param parameters one parameter set per sub-range, in time order
+   * @param columns number of columns to read from each row
+   * @return rows of all sub-ranges, SQL nulls converted to NaN
+   * @throws UtilException if any of the queries fail
+   */
+  public List<double[]> getSplitData(final String query, List<Object[]> parameters,
+      final int columns) throws UtilException {
+    ExecutorService executor = getSplitExecutor();
+    List<Future<List<double[]>>> futures = new ArrayList<Future<List<double[]>>>();
+    for (final Object[] args : parameters) {
+      futures.add(executor.submit(new Callable<List<double[]>>() {
+        public List<double[]> call() throws SQLException {
+          VDXDatabase db = acquireSplitDatabase();
+          boolean reusable = false;
+          try {
+            db.useDatabase(dbName);
+            PreparedStatement statement = db.getPreparedStatement(query);
+            setParameters(statement, 0, args);
+            ResultSet results = statement.executeQuery();
+            List<double[]> rows = new ArrayList<double[]>();
+            while (results.next()) {
+              double[] row = new double[columns];
+              for (int i = 0; i < columns; i++) {
+                row[i] = getDoubleNullCheck(results, i + 1);
+              }
+              rows.add(row);
+            }
+            results.close();
+            reusable = true;
+            return rows;
+          } finally {
+            releaseSplitDatabase(db, reusable);
+          }
+        }
+      }));
+    }
+
+    List<double[]> pts = new ArrayList<double[]>();
+    try {
+      for (Future<List<double[]>> future : futures) {
+        pts.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UtilException("Split query for source '" + vdxName + "' interrupted.");
+    } catch (ExecutionException e) {
+      LOGGER.error("SQLDataSource.getSplitData() failed. ({}_{})",
+          database.getDatabasePrefix(), dbName, e.getCause());
+      throw new UtilException("Split query for source '" + vdxName + "' failed.");
+    } finally {
+      for (Future<List<double[]>> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return pts;
+  }
+
+  /**
+   * Get the executor of split queries, creating it on first use. The executor and the kept
+   * connections live as long as the data source, not just until the next disconnect(), which
+   * the server calls after every request; they are closed when the JVM shuts down.
+   *
+   * @return executor running up to 'splitthreads' queries at once
+   */
+  private synchronized ThreadPoolExecutor getSplitExecutor() {
+    if (splitExecutor == null) {
+      Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+        public void run() {
+          closeSplitResources();
+        }
+      }, "VDX/SplitShutdown-" + dbName));
+      splitExecutor = new ThreadPoolExecutor(splitThreads, splitThreads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "VDX/Split-" + dbName);
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      splitExecutor.allowCoreThreadTimeOut(true);
+    }
+    return splitExecutor;
+  }
+
+  /**
+   * Take a kept connection for a split query, or open one if none is free.
+   *
+   * @return connection
+   */
+  private VDXDatabase acquireSplitDatabase() {
+    synchronized (splitDatabases) {
+      VDXDatabase db = splitDatabases.poll();
+      if (db != null) {
+        return db;
+      }
+    }
+    return database.duplicate();
+  }
+
+  /**
+   * Keep a connection for the next split query, or close it.
+   *
+   * @param db connection
+   * @param reusable false if the query failed, so the connection's state is unknown
+   */
+  private void releaseSplitDatabase(VDXDatabase db, boolean reusable) {
+    if (reusable) {
+      synchronized (splitDatabases) {
+        if (splitDatabases.size() < splitThreads) {
+          splitDatabases.add(db);
+          return;
+        }
+      }
+    }
+    db.close();
+  }
+
+  /**
+   * Parse the 'ch' parameter of a data request, which is either a single channel id or a comma
+   * separated list of them.
+   *
+   * @param ch parameter value
+   * @return channel ids, in request order
+   */
+  public static int[] parseChannelIds(String ch) {
+    String[] tokens = ch.split(",");
+    int[] cids = new int[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      cids[i] = Integer.parseInt(tokens[i].trim());
+    }
+    return cids;
+  }
+
+  /**
+   * Parse the 'cols' parameter of a data request, a comma separated list of column names.
+   *
+   * @param cols parameter value, may be null
+   * @return requested column names in request order, null if all columns are wanted
+   */
+  public static Set<String> parseColumnNames(String cols) {
+    if (cols == null || cols.trim().length() == 0) {
+      return null;
+    }
+    Set<String> names = new LinkedHashSet<String>();
+    for (String name : cols.split(",")) {
+      names.add(name.trim());
+    }
+    return names;
+  }
+
+  /**
+   * Check the names of a 'cols' parameter against the columns of the source.
+   *
+   * @param cols requested column names, null for all columns
+   * @param known names of the columns the source can return
+   * @throws UtilException naming the first requested column the source doesn't have
+   */
+  public void checkColumnNames(Set<String> cols, List<String> known) throws UtilException {
+    if (cols == null) {
+      return;
+    }
+    for (String name : cols) {
+      if (!known.contains(name)) {
+        throw new UtilException("Unknown column '" + name + "' for source '" + vdxName + "'.");
+      }
+    }
+  }
+
+  /**
+   * Pack per channel data into a request result. A single channel is returned as is, so
+   * single channel requests see no change; several channels share one payload keyed by channel
+   * id.
+   *
+   * @param data channel data, in request order
+   * @return request result
+   */
+  public static RequestResult getChannelDataResult(MultiChannelData data) {
+    if (data.size() == 1) {
+      return new BinaryResult(data.getChannels().values().iterator().next());
+    }
+    BinaryResult result = new BinaryResult(data);
+    result.set("type", MultiChannelData.TYPE);
+    return result;
+  }
+
   /**
    * Insert data. Concrete realization see in the inherited classes
    * 
@@ -227,10 +721,40 @@ public abstract class SQLDataSource implements DataSource {
     // dbName is an additional parameter that VDX classes uses, unlike Winston or Earthworm
     dbName = vdxName + "$" + getType();
     maxrows = StringUtils.stringToInt(params.getString("maxrows"), 0);
+    splitRows = StringUtils.stringToInt(params.getString("splitrows"), 0);
+    splitThreads = StringUtils.stringToInt(params.getString("splitthreads"), 4);
+    queryTimeout = StringUtils.stringToInt(params.getString("querytimeout"), 0);
+    database.setQueryTimeout(queryTimeout);
+    batchSize = Math.max(1, StringUtils.stringToInt(params.getString("batchsize"), 1000));
+    bulkLoad = StringUtils.stringToBoolean(params.getString("bulkload"), false);
+    String cacheDir = params.getString("blockcache");
+    if (cacheDir != null) {
+      long cacheSize = StringUtils.stringToInt(params.getString("blockcachesize"), 1024);
+      double cacheDays = StringUtils.stringToDouble(params.getString("blockcachedays"), 7);
+      blockCache = BlockCache.getShared(cacheDir, cacheSize * 1024 * 1024, cacheDays * 86400);
+    }
+  }
+
+  /**
+   * Stop the split query threads and close the kept connections.
+   */
+  private void closeSplitResources() {
+    synchronized (this) {
+      if (splitExecutor != null) {
+        splitExecutor.shutdownNow();
+      }
+    }
+    synchronized (splitDatabases) {
+      for (VDXDatabase db : splitDatabases) {
+        db.close();
+      }
+      splitDatabases.clear();
+    }
   }
 
   /**
-   * Close database connection.
+   * Close database connection. The split query threads and connections are kept for the next
+   * request.
    */
   public void defaultDisconnect() {
     database.close();
@@ -1225,6 +1749,122 @@ public abstract class SQLDataSource implements DataSource {
     return result;
   }
 
+  /**
+   * Get the translation ids of all channels.
+   * 
+   * @return map of channel codes to translation ids
+   */
+  public Map<String, Integer> defaultGetChannelTranslationIds() {
+    Map<String, Integer> result = new HashMap<String, Integer>();
+
+    try {
+      database.useDatabase(dbName);
+      rs = database.getPreparedStatement("SELECT code, tid FROM channels").executeQuery();
+      while (rs.next()) {
+        result.put(rs.getString(1), rs.getInt(2));
+      }
+      rs.close();
+
+    } catch (Exception e) {
+      LOGGER.error("SQLDataSource.defaultGetChannelTranslationIds() failed. ({}_{})",
+          database.getDatabasePrefix(), dbName, e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Use known translation ids of channels when inserting data, instead of looking them up for
+   * each insert. Channels missing from the map are still looked up. The map is kept up to date
+   * by the caller, which owns the channels it holds.
+   * 
+   * @param translationIds map of channel codes to translation ids, null to always look them up
+   */
+  public void setKnownTranslationIds(Map<String, Integer> translationIds) {
+    knownTranslationIds = translationIds;
+  }
+
+  /**
+   * Get a row of the translations table. Rows are cached; the whole table is read again when an
+   * unknown tid is asked for, which picks up translations added since.
+   *
+   * @param tid translation id
+   * @return map of translation column names to values, SQL nulls as NaN. null if tid is unknown
+   */
+  public Map<String, Double> defaultGetTranslation(int tid) {
+    Map<String, Double> translation = translationCache.get(tid);
+    if (translation != null) {
+      return translation;
+    }
+
+    try {
+      database.useDatabase(dbName);
+      ResultSet translations = database.getPreparedStatement("SELECT * FROM translations")
+          .executeQuery();
+      ResultSetMetaData metaData = translations.getMetaData();
+      translationCache.clear();
+      while (translations.next()) {
+        translation = new HashMap<String, Double>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+          String name = metaData.getColumnName(i);
+          if (!name.equals("tid") && !name.equals("name")) {
+            translation.put(name, getDoubleNullCheck(translations, i));
+          }
+        }
+        translationCache.put(translations.getInt("tid"), translation);
+      }
+      translations.close();
+
+    } catch (Exception e) {
+      LOGGER.error("SQLDataSource.defaultGetTranslation() failed. ({}_{})",
+          database.getDatabasePrefix(), dbName, e);
+    }
+
+    return translationCache.get(tid);
+  }
+
+  /**
+   * Apply translations to raw data rows. Each row holds the translation id in its last column;
+   * the named columns, starting at index first, become value * c[name] + d[name] and the
+   * translation id is dropped. Rows with an unknown translation id are left out, as the
+   * translations join did.
+   *
+   * @param pts raw data rows
+   * @param first index of the first translated column
+   * @param names names of the translated columns
+   * @return translated rows
+   */
+  public List<double[]> applyTranslations(List<double[]> pts, int first, String[] names) {
+    List<double[]> result = new ArrayList<double[]>(pts.size());
+    double[] multipliers = new double[names.length];
+    double[] offsets = new double[names.length];
+    int lastTid = -1;
+    boolean known = false;
+
+    for (double[] row : pts) {
+      int tid = (int) row[row.length - 1];
+      if (tid != lastTid) {
+        Map<String, Double> translation = defaultGetTranslation(tid);
+        known = translation != null;
+        for (int i = 0; known && i < names.length; i++) {
+          Double multiplier = translation.get("c" + names[i]);
+          Double offset = translation.get("d" + names[i]);
+          multipliers[i] = multiplier == null ? 1 : multiplier;
+          offsets[i] = offset == null ? 0 : offset;
+        }
+        lastTid = tid;
+      }
+      if (known) {
+        double[] translated = Arrays.copyOf(row, row.length - 1);
+        for (int i = 0; i < names.length; i++) {
+          translated[first + i] = translated[first + i] * multipliers[i] + offsets[i];
+        }
+        result.add(translated);
+      }
+    }
+    return result;
+  }
+
   /**
    * Get List of columns from the database param menuColumns flag to retrieve database columns or
    * plottable columns.
@@ -1489,6 +2129,30 @@ public abstract class SQLDataSource implements DataSource {
   public GenericDataMatrix defaultGetData(int cid, int rid, double st, double et,
       boolean translations, boolean ranks, int maxrows, DownsamplingType ds, int dsInt)
       throws UtilException {
+    return defaultGetData(cid, rid, st, et, translations, ranks, maxrows, ds, dsInt, null);
+  }
+
+  /**
+   * Get data for some of the columns from database. The matrix holds j2ksec, the rid if the
+   * database has ranks, then the requested columns in request order, as the matrix carries no
+   * column names.
+   * 
+   * @param cid channel id
+   * @param rid rank id
+   * @param st start time
+   * @param et end time
+   * @param translations if the database has translations
+   * @param ranks if the database has ranks
+   * @param maxrows limit on number of rows returned
+   * @param ds Downsampling type
+   * @param dsInt argument for downsampling
+   * @param cols names of the columns to return, null for all columns
+   * @return GenericDataMatrix containing the data
+   * @throws UtilException if a column is unknown, or downsampling fails or returns too many rows
+   */
+  public GenericDataMatrix defaultGetData(int cid, int rid, double st, double et,
+      boolean translations, boolean ranks, int maxrows, DownsamplingType ds, int dsInt,
+      Set<String> cols) throws UtilException {
 
     double[] dataRow;
     List<double[]> pts = new ArrayList<double[]>();
@@ -1504,13 +2168,17 @@ public abstract class SQLDataSource implements DataSource {
       // the channel name
       final Channel channel = defaultGetChannel(cid, false);
       List<Column> columns  = defaultGetColumns(false, false);
-
-      // calculate the num of rows to limit the query to
-      int tempmaxrows;
-      if (rid != 0) {
-        tempmaxrows = maxrows;
-      } else {
-        tempmaxrows = maxrows * defaultGetNumberOfRanks();
+      if (cols != null) {
+        Map<String, Column> byName = new HashMap<String, Column>();
+        for (Column c : columns) {
+          byName.put(c.name, c);
+        }
+        checkColumnNames(cols, new ArrayList<String>(byName.keySet()));
+        List<Column> requested = new ArrayList<Column>();
+        for (String name : cols) {
+          requested.add(byName.get(name));
+        }
+        columns = requested;
       }
 
       // if we are getting ranked data back, then we need to include the rid, otherwise, just add in
@@ -1521,6 +2189,17 @@ public abstract class SQLDataSource implements DataSource {
         columnsReturned = columns.size() + 1;
       }
 
+      // best available data is resolved by the database, one row per j2ksec
+      boolean bestRank = ranks && rid == 0;
+
+      // translations are applied to the raw rows from the cached translations table, except for
+      // mean downsampling, which has to average translated values
+      boolean sqlTranslations = translations && ranks && rid != 0
+          && ds.equals(DownsamplingType.MEAN);
+      boolean javaTranslations = translations && !sqlTranslations;
+      int columnsRead = javaTranslations ? columnsReturned + 1 : columnsReturned;
+      String[] columnNames = new String[columns.size()];
+
       // SELECT sql
       sql = "SELECT j2ksec";
 
@@ -1530,7 +2209,8 @@ public abstract class SQLDataSource implements DataSource {
 
       for (int i = 0; i < columns.size(); i++) {
         column = columns.get(i);
-        if (translations) {
+        columnNames[i] = column.name;
+        if (sqlTranslations) {
           sql += ",a." + column.name + " * b.c" + column.name + " + b.d" + column.name + " as "
               + column.name + " ";
         } else {
@@ -1538,21 +2218,30 @@ public abstract class SQLDataSource implements DataSource {
         }
       }
 
+      if (javaTranslations) {
+        sql += ",a.tid ";
+      }
+
       // FROM sql
       sql += "FROM " + channel.getCode() + " a ";
-      if (translations) {
+      if (sqlTranslations) {
         sql += "INNER JOIN translations b on a.tid = b.tid ";
       }
       if (ranks) {
         sql += "INNER JOIN ranks        c on a.rid = c.rid ";
       }
+      if (bestRank) {
+        sql += getBestRankSQL("FROM " + channel.getCode() + " a "
+            + "INNER JOIN ranks c ON a.rid = c.rid WHERE j2ksec >= ? AND j2ksec <= ?",
+            "c.rank", "a.j2ksec");
+      }
 
       // WHERE sql
       sql += "WHERE j2ksec >= ? ";
       sql += "AND   j2ksec <= ? ";
 
-      sqlCount = "SELECT COUNT(*) FROM (SELECT 1 FROM " + channel.getCode()
-               + " a INNER JOIN ranks c ON a.rid=c.rid ";
+      sqlCount = "SELECT COUNT(*) FROM (SELECT " + (bestRank ? "DISTINCT a.j2ksec" : "1")
+               + " FROM " + channel.getCode() + " a INNER JOIN ranks c ON a.rid=c.rid ";
       sqlCount += "WHERE j2ksec >= ? AND j2ksec <= ? ";
 
       // BEST AVAILABLE DATA query
@@ -1564,86 +2253,110 @@ public abstract class SQLDataSource implements DataSource {
       sql += "ORDER BY a.j2ksec ASC";
       sqlCount += "ORDER BY a.j2ksec ASC";
 
-      if (ranks && rid == 0) {
-        sql += ", c.rank DESC";
-        sqlCount += ", c.rank DESC";
-      }
-
+      // downsampling is only applied to a single rank
       if (ranks && rid != 0) {
         try {
           sql = getDownsamplingSQL(sql, "j2ksec", ds, dsInt);
         } catch (UtilException e) {
           throw new UtilException("Can't downsample dataset: " + e.getMessage());
         }
+      } else {
+        ds = DownsamplingType.NONE;
       }
 
+      String rawQuery = sql;
       if (maxrows != 0) {
-        sql += " LIMIT " + (tempmaxrows + 1);
+        sql += " LIMIT " + (maxrows + 1);
 
         // If the dataset has a maxrows paramater, check that the number of requested rows doesn't
         // exceed that number prior to running the full query. This can save a decent amount of time
         // for large queries. Note that this only applies for non-downsampled queries. This is done
         // for two reasons: 1) If the user is downsampling, they already know they're dealing with 
         // a lot of data and 2) the way MySQL handles the multiple nested queries that would result 
-        // makes it slower than just doing the full query to begin with.
+        // makes it slower than just doing the full query to begin with. Checking before the block
+        // cache is filled also keeps oversized requests from reading and caching every block.
         if (ds.equals(DownsamplingType.NONE)) {
-          ps = database.getPreparedStatement(sqlCount + " LIMIT " + (tempmaxrows + 1) + ") as T");
+          ps = database.getPreparedStatement(sqlCount + " LIMIT " + (maxrows + 1) + ") as T");
           ps.setDouble(1, st);
           ps.setDouble(2, et);
           if (ranks && rid != 0) {
             ps.setInt(3, rid);
           }
           rs = ps.executeQuery();
-          if (rs.next() && rs.getInt(1) > tempmaxrows) {
+          if (rs.next() && rs.getInt(1) > maxrows) {
             throw new UtilException("Max rows (" + maxrows + " rows) for source '" + dbName
                 + "' exceeded. Please use downsampling.");
           }
         }
       }
 
-      ps = database.getPreparedStatement(sql);
-      if (ds.equals(DownsamplingType.MEAN)) {
-        ps.setDouble(1, st);
-        ps.setInt(2, dsInt);
-        ps.setDouble(3, st);
-        ps.setDouble(4, et);
-        if (ranks && rid != 0) {
-          ps.setInt(5, rid);
-        }
-      } else {
-        ps.setDouble(1, st);
-        ps.setDouble(2, et);
-        if (ranks && rid != 0) {
-          ps.setInt(3, rid);
+      // raw rows of historical blocks come from the block cache, later rows from the database
+      List<double[]> cached = null;
+      double liveStart = st;
+      if (blockCache != null && ds.equals(DownsamplingType.NONE)) {
+        double cutoff = blockCache.getCutoff();
+        if (st < cutoff) {
+          cached = getCachedRows(channel.getCode(), rid, rawQuery, columnsRead, bestRank,
+              ranks && rid != 0, st, et, cutoff);
+          liveStart = cutoff;
         }
       }
-      rs = ps.executeQuery();
 
-      // Check for the amount of data returned in a downsampled query. Non-downsampled queries are
-      // checked above.
-      if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && getResultSetSize(rs) > tempmaxrows) {
-        throw new UtilException("Max rows (" + maxrows + " rows) for source '" + dbName
-            + "' exceeded. Please downsample further.");
+      // one parameter set per sub-range; mean intervals are always counted from st. ds is NONE
+      // here unless the query downsamples, so only downsampled queries get interval-aligned cuts
+      List<Object[]> parameters = new ArrayList<Object[]>();
+      if (liveStart <= et) {
+        for (double[] range : getTimeRanges(channel.getCode(), liveStart, et, ds, dsInt)) {
+          List<Object> args = new ArrayList<Object>();
+          if (ds.equals(DownsamplingType.MEAN)) {
+            args.add(st);
+            args.add(dsInt);
+          } else if (bestRank) {
+            args.add(range[0]);
+            args.add(range[1]);
+          }
+          args.add(range[0]);
+          args.add(range[1]);
+          if (ranks && rid != 0) {
+            args.add(rid);
+          }
+          parameters.add(args.toArray());
+        }
       }
 
-      double tempJ2ksec = Double.MAX_VALUE;
+      if (parameters.size() > 1) {
+        pts = getSplitData(sql, parameters, columnsRead);
+        if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && pts.size() > maxrows) {
+          throw new UtilException("Max rows (" + maxrows + " rows) for source '" + dbName
+              + "' exceeded. Please downsample further.");
+        }
 
-      // loop through each result and add to the list
-      while (rs.next()) {
+      } else if (parameters.size() == 1) {
+        ps = database.getPreparedStatement(sql);
+        setParameters(ps, 0, parameters.get(0));
+        rs = ps.executeQuery();
 
-        // if this is a new j2ksec, then save this data, as it contains the highest rank
-        if (Double.compare(tempJ2ksec, rs.getDouble(1)) != 0) {
+        // Check for the amount of data returned in a downsampled query. Non-downsampled queries
+        // are checked above.
+        if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && getResultSetSize(rs) > maxrows) {
+          throw new UtilException("Max rows (" + maxrows + " rows) for source '" + dbName
+              + "' exceeded. Please downsample further.");
+        }
+        pts = readRows(rs, columnsRead);
+      }
 
-          // loop through each of the columns and convert to Double.NaN if it was null in the DB
-          dataRow = new double[columnsReturned];
-          for (int i = 0; i < columnsReturned; i++) {
-            dataRow[i] = getDoubleNullCheck(rs, i + 1);
-          }
-          pts.add(dataRow);
+      if (cached != null) {
+        cached.addAll(pts);
+        pts = cached;
+        if (maxrows != 0 && pts.size() > maxrows) {
+          throw new UtilException("Max rows (" + maxrows + " rows) for source '" + dbName
+              + "' exceeded. Please use downsampling.");
         }
-        tempJ2ksec = rs.getDouble(1);
       }
-      rs.close();
+
+      if (javaTranslations) {
+        pts = applyTranslations(pts, ranks ? 2 : 1, columnNames);
+      }
 
       // if no data rows were returned, instantiate a data matrix with a single row with all null
       // values
@@ -1665,6 +2378,108 @@ public abstract class SQLDataSource implements DataSource {
     return result;
   }
 
+  /**
+   * Read rows of j2ksec and values, keeping the first row of each j2ksec, which holds the highest
+   * rank. The result set is closed.
+   * 
+   * @param rs result set ordered by j2ksec
+   * @param columnsRead number of columns to read
+   * @return list of rows
+   * @throws SQLException if there's a problem with the ResultSet
+   */
+  private List<double[]> readRows(ResultSet rs, int columnsRead) throws SQLException {
+    List<double[]> pts = new ArrayList<double[]>();
+    double tempJ2ksec = Double.MAX_VALUE;
+
+    // loop through each result and add to the list
+    while (rs.next()) {
+
+      // if this is a new j2ksec, then save this data, as it contains the highest rank
+      if (Double.compare(tempJ2ksec, rs.getDouble(1)) != 0) {
+
+        // loop through each of the columns and convert to Double.NaN if it was null in the DB
+        double[] dataRow = new double[columnsRead];
+        for (int i = 0; i < columnsRead; i++) {
+          dataRow[i] = getDoubleNullCheck(rs, i + 1);
+        }
+        pts.add(dataRow);
+      }
+      tempJ2ksec = rs.getDouble(1);
+    }
+    rs.close();
+    return pts;
+  }
+
+  /**
+   * Get raw rows of a channel from st to et and before cutoff out of the block cache. Blocks not
+   * cached yet are read whole from the database and cached.
+   * 
+   * @param table channel table
+   * @param rid rank id
+   * @param query data query, without limit
+   * @param columnsRead number of columns read by the query
+   * @param bestRank if the query resolves the best rank
+   * @param oneRank if the query takes the rank id
+   * @param st start time
+   * @param et end time
+   * @param cutoff block cache cutoff
+   * @return list of rows
+   * @throws SQLException if a block can't be read from the database
+   */
+  private List<double[]> getCachedRows(String table, int rid, String query, int columnsRead,
+      boolean bestRank, boolean oneRank, double st, double et, double cutoff)
+      throws SQLException {
+    List<double[]> rows = new ArrayList<double[]>();
+    String key = query + " -- rid " + rid;
+    for (long block = BlockCache.getBlock(st); block * BlockCache.BLOCK_SECONDS <= et
+        && block * BlockCache.BLOCK_SECONDS < cutoff; block++) {
+      double[][] columns = blockCache.get(dbName, table, block, key);
+      if (columns == null) {
+        long readAt = System.currentTimeMillis();
+        double bst = block * BlockCache.BLOCK_SECONDS;
+        double bet = bst + BlockCache.BLOCK_SECONDS;
+        List<Object> args = new ArrayList<Object>();
+        if (bestRank) {
+          args.add(bst);
+          args.add(bet);
+        }
+        args.add(bst);
+        args.add(bet);
+        if (oneRank) {
+          args.add(rid);
+        }
+        ps = database.getPreparedStatement(query);
+        setParameters(ps, 0, args.toArray());
+        rs = ps.executeQuery();
+        List<double[]> blockRows = readRows(rs, columnsRead);
+
+        // the end time is inclusive, so the query may return the first row of the next block
+        if (!blockRows.isEmpty() && blockRows.get(blockRows.size() - 1)[0] >= bet) {
+          blockRows.remove(blockRows.size() - 1);
+        }
+        columns = new double[columnsRead][blockRows.size()];
+        for (int i = 0; i < blockRows.size(); i++) {
+          for (int j = 0; j < columnsRead; j++) {
+            columns[j][i] = blockRows.get(i)[j];
+          }
+        }
+        blockCache.put(dbName, table, block, key, columns, readAt);
+      }
+
+      for (int i = 0; i < columns[0].length; i++) {
+        double t = columns[0][i];
+        if (t >= st && t <= et && t < cutoff) {
+          double[] row = new double[columns.length];
+          for (int j = 0; j < columns.length; j++) {
+            row[j] = columns[j][i];
+          }
+          rows.add(row);
+        }
+      }
+    }
+    return rows;
+  }
+
   /**
    * Retrieves the value of the designated column in the current row of <code>ResultSet</code>
    * object as a <code>double</code> in the Java programming language.
@@ -1702,7 +2517,8 @@ public abstract class SQLDataSource implements DataSource {
   }
 
   /**
-   * Insert data.
+   * Insert data. Rows are sent in batches of 'batchsize' rows, each batch in a transaction of its
+   * own.
    * 
    * @param channelCode table name
    * @param gdm 2d matrix of data
@@ -1720,8 +2536,7 @@ public abstract class SQLDataSource implements DataSource {
     StringBuffer columnBuffer = new StringBuffer();
     StringBuffer valuesBuffer = new StringBuffer();
     StringBuffer dupsBuffer = new StringBuffer();
-    StringBuilder output;
-    String base;
+    Connection connection = null;
 
     try {
       database.useDatabase(dbName);
@@ -1746,7 +2561,9 @@ public abstract class SQLDataSource implements DataSource {
 
       // add in translation related information
       if (translations) {
-        tid = defaultGetChannelTranslationId(channelCode);
+        Integer known =
+            knownTranslationIds == null ? null : knownTranslationIds.get(channelCode);
+        tid = known != null ? known : defaultGetChannelTranslationId(channelCode);
         columnBuffer.append(",tid");
         valuesBuffer.append("," + tid);
       }
@@ -1761,13 +2578,22 @@ public abstract class SQLDataSource implements DataSource {
           + valuesBuffer.toString() + ") ";
       sql += "ON DUPLICATE KEY UPDATE "
           + dupsBuffer.toString().substring(0, dupsBuffer.toString().length() - 1);
-      base = channelCode + "(";
 
       ps = database.getPreparedStatement(sql);
+      connection = database.getConnection();
+      connection.setAutoCommit(false);
+
+      int timeColumn = -1;
+      for (int j = 0; j < columnNames.length; j++) {
+        if (columnNames[j].equals("j2ksec")) {
+          timeColumn = j;
+        }
+      }
+      double min = Double.MAX_VALUE;
+      double max = -Double.MAX_VALUE;
 
-      // loop through each of the rows and insert data
+      // loop through each of the rows and add them to the batch
       for (int i = 0; i < gdm.rows(); i++) {
-        output = new StringBuilder(base);
 
         // loop through each of the columns and set it
         for (int j = 0; j < columnNames.length; j++) {
@@ -1779,22 +2605,293 @@ public abstract class SQLDataSource implements DataSource {
           } else {
             ps.setDouble(j + 1, value);
           }
-          output.append(value).append(",");
         }
-        ps.execute();
-        if (translations) {
-          output.append(tid).append(",");
+        ps.addBatch();
+        if (timeColumn != -1) {
+          min = Math.min(min, data.getQuick(i, timeColumn));
+          max = Math.max(max, data.getQuick(i, timeColumn));
         }
-        
-        if (ranks) {
-          output.append(rid).append(",");
+
+        // send and commit a full batch, or the last one, and drop the cached blocks it was
+        // written into, so readers don't keep stale blocks while later batches go in
+        if ((i + 1) % batchSize == 0 || i == gdm.rows() - 1) {
+          ps.executeBatch();
+          connection.commit();
+          if (timeColumn != -1) {
+            invalidateBlocks(channelCode, min, max);
+            min = Double.MAX_VALUE;
+            max = -Double.MAX_VALUE;
+          }
         }
       }
 
     } catch (Exception e) {
+      try {
+        if (ps != null) {
+          ps.clearBatch();
+        }
+        if (connection != null) {
+          connection.rollback();
+        }
+      } catch (SQLException e2) {
+        // the batch is lost either way
+      }
+      insertFailures++;
       LOGGER.error("SQLDataSource.defaultInsertData() failed. ({}_{})",
           database.getDatabasePrefix(), dbName, e);
+    } finally {
+      if (connection != null) {
+        try {
+          connection.setAutoCommit(true);
+        } catch (SQLException e) {
+          LOGGER.warn("Could not restore auto commit: {}", e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Queue data for insertion. Rows are kept per table, rank and columns, and inserted by
+   * {@link #defaultInsertData} once 'batchsize' rows are queued for a table, or when
+   * {@link #flushInsertData()} is called. Importers call this per line and flush when they are
+   * done with a file or a poll.
+   * 
+   * @param channelCode table name
+   * @param gdm 2d matrix of data
+   * @param translations if the database uses translations
+   * @param ranks if the database uses ranks
+   * @param rid rank id
+   */
+  public void defaultBufferData(String channelCode, GenericDataMatrix gdm, boolean translations,
+      boolean ranks, int rid) {
+    PendingInsert pending =
+        getPending(channelCode, gdm.getColumnNames(), translations, ranks, rid);
+    DoubleMatrix2D data = gdm.getData();
+    for (int i = 0; i < gdm.rows(); i++) {
+      double[] row = data.viewRow(i).toArray();
+      if (!bulkLoad || !writeBulkRow(pending, row)) {
+        pending.rows.add(row);
+      }
+    }
+    if (pending.rows.size() >= batchSize) {
+      insertPending(pending);
+    }
+  }
+
+  /**
+   * Queue one row for insertion, as {@link #defaultBufferData} does. The row is kept, so callers
+   * pass a new array each time; passing the same column names array for a table skips the
+   * lookup of its queue.
+   * 
+   * @param channelCode table name
+   * @param columnNames names of the row's columns
+   * @param row values of the row
+   * @param translations if the database uses translations
+   * @param ranks if the database uses ranks
+   * @param rid rank id
+   */
+  public void defaultBufferRow(String channelCode, String[] columnNames, double[] row,
+      boolean translations, boolean ranks, int rid) {
+    PendingInsert pending = lastPending;
+    if (pending == null || pending.columnNames != columnNames || pending.rid != rid
+        || pending.translations != translations || pending.ranks != ranks
+        || !pending.channelCode.equals(channelCode)) {
+      pending = getPending(channelCode, columnNames, translations, ranks, rid);
+    }
+    if (bulkLoad && writeBulkRow(pending, row)) {
+      return;
+    }
+    pending.rows.add(row);
+    if (pending.rows.size() >= batchSize) {
+      insertPending(pending);
+    }
+  }
+
+  /**
+   * Get the number of calls to {@link #defaultInsertData} that failed, including those flushing
+   * queued rows. Importers compare it before and after a file to tell whether all of it was
+   * committed.
+   * 
+   * @return number of failed inserts since the data source was created
+   */
+  public int getInsertFailures() {
+    return insertFailures;
+  }
+
+  /**
+   * Set whether queued rows are bulk loaded. In bulk load mode, {@link #defaultBufferData} and
+   * {@link #defaultBufferRow} write rows to a temporary file per table, rank and set of columns,
+   * which {@link #flushInsertData()} loads with LOAD DATA LOCAL INFILE. Meant for backfills,
+   * where a file holds far more rows than a batch.
+   * 
+   * @param bulkLoad true to bulk load
+   */
+  public void setBulkLoad(boolean bulkLoad) {
+    this.bulkLoad = bulkLoad;
+  }
+
+  /**
+   * Get whether queued rows are bulk loaded, from the 'bulkload' parameter or
+   * {@link #setBulkLoad(boolean)}.
+   * 
+   * @return true if bulk loading
+   */
+  public boolean getBulkLoad() {
+    return bulkLoad;
+  }
+
+  /**
+   * Insert all data queued by {@link #defaultBufferData}.
+   */
+  public void flushInsertData() {
+    for (PendingInsert pending : pendingInserts.values()) {
+      insertPending(pending);
+      loadPending(pending);
+    }
+  }
+
+  /**
+   * Get the queue of rows for a table, rank and set of columns, creating it if needed.
+   * 
+   * @param channelCode table name
+   * @param columnNames names of the columns
+   * @param translations if the database uses translations
+   * @param ranks if the database uses ranks
+   * @param rid rank id
+   * @return queued rows
+   */
+  private PendingInsert getPending(String channelCode, String[] columnNames,
+      boolean translations, boolean ranks, int rid) {
+    String key = channelCode + ":" + translations + ":" + ranks + ":" + rid + ":"
+        + Arrays.toString(columnNames);
+    PendingInsert pending = pendingInserts.get(key);
+    if (pending == null) {
+      pending = new PendingInsert(channelCode, columnNames, translations, ranks, rid);
+      pendingInserts.put(key, pending);
     }
+    lastPending = pending;
+    return pending;
+  }
+
+  /**
+   * Write a row to the bulk load file of a queue, creating it if needed.
+   * 
+   * @param pending queued rows of one table, rank and set of columns
+   * @param row values of the row
+   * @return false if the file could not be written, so the row is to be inserted
+   */
+  private boolean writeBulkRow(PendingInsert pending, double[] row) {
+    try {
+      if (pending.bulkFile == null) {
+        pending.bulkFile = new BulkLoadFile(pending.channelCode);
+      }
+      for (int j = 0; j < row.length; j++) {
+        pending.bulkFile.add(row[j]);
+        if (j == pending.timeIndex) {
+          pending.minTime = Math.min(pending.minTime, row[j]);
+          pending.maxTime = Math.max(pending.maxTime, row[j]);
+        }
+      }
+      pending.bulkFile.endRow();
+      return true;
+    } catch (IOException e) {
+      LOGGER.error("Could not write bulk load file for {}, inserting instead: {}",
+          pending.channelCode, e.getMessage());
+      if (pending.bulkFile != null) {
+        insertFailures++;
+        pending.bulkFile.close();
+        pending.bulkFile = null;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Load the bulk load file of a queue and delete it. The rows are loaded into a temporary copy
+   * of the table, replacing duplicates within the file, then copied into the table with the same
+   * ON DUPLICATE KEY UPDATE clause as {@link #defaultInsertData}, so the outcome is the same as
+   * inserting them.
+   * 
+   * @param pending queued rows of one table, rank and set of columns
+   */
+  private void loadPending(PendingInsert pending) {
+    BulkLoadFile bulkFile = pending.bulkFile;
+    if (bulkFile == null) {
+      return;
+    }
+    pending.bulkFile = null;
+    String channelCode = pending.channelCode;
+    String staging = channelCode + "_load";
+    try {
+      database.useDatabase(dbName);
+      StringBuffer columnBuffer = new StringBuffer();
+      StringBuffer dupsBuffer = new StringBuffer();
+      for (String columnName : pending.columnNames) {
+        columnBuffer.append(columnBuffer.length() == 0 ? "" : ",").append(columnName);
+        if (!columnName.equals("j2ksec")) {
+          dupsBuffer.append(dupsBuffer.length() == 0 ? "" : ",")
+              .append(columnName + "=VALUES(" + columnName + ")");
+        }
+      }
+      String loadColumns = columnBuffer.toString();
+      StringBuffer setBuffer = new StringBuffer();
+      if (pending.translations) {
+        Integer known =
+            knownTranslationIds == null ? null : knownTranslationIds.get(channelCode);
+        int tid = known != null ? known : defaultGetChannelTranslationId(channelCode);
+        columnBuffer.append(",tid");
+        setBuffer.append("tid=" + tid);
+      }
+      if (pending.ranks) {
+        columnBuffer.append(",rid");
+        setBuffer.append(setBuffer.length() == 0 ? "" : ",").append("rid=" + pending.rid);
+      }
+
+      Statement statement = database.getStatement();
+      statement.execute("DROP TEMPORARY TABLE IF EXISTS " + staging);
+      statement.execute("CREATE TEMPORARY TABLE " + staging + " LIKE " + channelCode);
+      bulkFile.load(database, "REPLACE", staging, loadColumns,
+          setBuffer.length() == 0 ? null : setBuffer.toString());
+      statement.executeUpdate("INSERT INTO " + channelCode + " ("
+          + columnBuffer + ") SELECT " + columnBuffer + " FROM " + staging
+          + (dupsBuffer.length() == 0 ? "" : " ON DUPLICATE KEY UPDATE " + dupsBuffer));
+      bulkFile.logRate(channelCode);
+
+      // drop cached blocks the rows were written into
+      if (pending.timeIndex != -1) {
+        invalidateBlocks(channelCode, pending.minTime, pending.maxTime);
+      }
+    } catch (Exception e) {
+      insertFailures++;
+      LOGGER.error("SQLDataSource.loadPending() failed. ({}_{}.{})",
+          database.getDatabasePrefix(), dbName, channelCode, e);
+    } finally {
+      try {
+        database.getStatement().execute("DROP TEMPORARY TABLE IF EXISTS " + staging);
+      } catch (SQLException e) {
+        LOGGER.warn("Could not drop {}: {}", staging, e.getMessage());
+      }
+      pending.minTime = Double.MAX_VALUE;
+      pending.maxTime = -Double.MAX_VALUE;
+      bulkFile.close();
+    }
+  }
+
+  /**
+   * Insert and clear queued rows.
+   * 
+   * @param pending queued rows of one table, rank and set of columns
+   */
+  private void insertPending(PendingInsert pending) {
+    if (pending.rows.isEmpty()) {
+      return;
+    }
+    GenericDataMatrix gdm = new GenericDataMatrix(DoubleFactory2D.dense.make(
+        pending.rows.toArray(new double[pending.rows.size()][])));
+    gdm.setColumnNames(pending.columnNames);
+    pending.rows.clear();
+    defaultInsertData(pending.channelCode, gdm, pending.translations, pending.ranks,
+        pending.rid);
   }
 
   /**
@@ -2451,4 +3548,30 @@ public abstract class SQLDataSource implements DataSource {
 
     return new TextResult(result);
   }
+
+  /**
+   * Rows queued for insertion into one table, with one rank and set of columns.
+   */
+  private static class PendingInsert {
+    private final String channelCode;
+    private final String[] columnNames;
+    private final boolean translations;
+    private final boolean ranks;
+    private final int rid;
+    private final List<double[]> rows = new ArrayList<double[]>();
+    private final int timeIndex;
+    private BulkLoadFile bulkFile;
+    private double minTime = Double.MAX_VALUE;
+    private double maxTime = -Double.MAX_VALUE;
+
+    private PendingInsert(String channelCode, String[] columnNames, boolean translations,
+        boolean ranks, int rid) {
+      this.channelCode = channelCode;
+      this.columnNames = columnNames;
+      this.translations = translations;
+      this.ranks = ranks;
+      this.rid = rid;
+      this.timeIndex = Arrays.asList(columnNames).indexOf("j2ksec");
+    }
+  }
 }
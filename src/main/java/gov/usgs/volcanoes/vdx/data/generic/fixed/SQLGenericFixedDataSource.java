@@ -5,14 +5,15 @@ import gov.usgs.volcanoes.core.data.GenericDataMatrix;
 import gov.usgs.volcanoes.core.math.DownsamplingType;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.vdx.data.DataSource;
+import gov.usgs.volcanoes.vdx.data.MultiChannelData;
 import gov.usgs.volcanoes.vdx.data.SQLDataSource;
-import gov.usgs.volcanoes.vdx.server.BinaryResult;
 import gov.usgs.volcanoes.vdx.server.RequestResult;
 import gov.usgs.volcanoes.vdx.server.TextResult;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -191,21 +192,27 @@ public class SQLGenericFixedDataSource extends SQLDataSource implements DataSour
       return new TextResult(defaultGetRanks());
 
     } else if (action.equals("data")) {
-      int cid = Integer.parseInt(params.get("ch"));
+      int[] cids = parseChannelIds(params.get("ch"));
       int rid = Integer.parseInt(params.get("rk"));
       double st = Double.parseDouble(params.get("st"));
       double et = Double.parseDouble(params.get("et"));
       DownsamplingType ds = DownsamplingType.fromString(params.get("ds"));
       int dsInt = Integer.parseInt(params.get("dsInt"));
-      GenericDataMatrix data = null;
+      Set<String> cols = parseColumnNames(params.get("cols"));
+      MultiChannelData data = new MultiChannelData();
       try {
-        data = getGenericFixedData(cid, rid, st, et, getMaxRows(), ds, dsInt);
+        for (int cid : cids) {
+          GenericDataMatrix gdm =
+              getGenericFixedData(cid, rid, st, et, getMaxRows(), ds, dsInt, cols);
+          if (gdm == null) {
+            return null;
+          }
+          data.put(cid, gdm);
+        }
       } catch (UtilException e) {
         return getErrorResult(e.getMessage());
       }
-      if (data != null) {
-        return new BinaryResult(data);
-      }
+      return getChannelDataResult(data);
 
     } else if (action.equals("genericMenu")) {
       return new TextResult(getGenericMenu());
@@ -244,7 +251,22 @@ public class SQLGenericFixedDataSource extends SQLDataSource implements DataSour
    */
   public GenericDataMatrix getGenericFixedData(int cid, int rid, double st, double et, int maxrows,
       DownsamplingType ds, int dsInt) throws UtilException {
-    return defaultGetData(cid, rid, st, et, translations, ranks, maxrows, ds, dsInt);
+    return getGenericFixedData(cid, rid, st, et, maxrows, ds, dsInt, null);
+  }
+
+  /**
+   * Get Generic Fixed data for some of the columns.
+   *
+   * @param cid channel id
+   * @param rid rank id
+   * @param st start time
+   * @param et end time
+   * @param cols names of the columns to return, null for all columns
+   * @return GenericDataMatrix
+   */
+  public GenericDataMatrix getGenericFixedData(int cid, int rid, double st, double et, int maxrows,
+      DownsamplingType ds, int dsInt, Set<String> cols) throws UtilException {
+    return defaultGetData(cid, rid, st, et, translations, ranks, maxrows, ds, dsInt, cols);
   }
 
   /**
@@ -376,6 +376,7 @@ public class SQLGenericVariableDataSource extends SQLDataSource implements DataS
       ps.setInt(2, dt.getId());
       ps.setDouble(3, dd);
       ps.execute();
+      invalidateBlocks(stationTable, J2kSec.fromDate(d), J2kSec.fromDate(d));
 
       st = database.getStatement();
       st.execute("INSERT IGNORE INTO channel_data_types (sid, channel, type) "
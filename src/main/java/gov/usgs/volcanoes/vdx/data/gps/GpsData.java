@@ -3,7 +3,8 @@ package gov.usgs.volcanoes.vdx.data.gps;
 import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix2D;
 
-import gov.usgs.volcanoes.core.data.BinaryDataSet;
+import gov.usgs.volcanoes.vdx.data.ColumnarCodec;
+import gov.usgs.volcanoes.vdx.data.ColumnarDataSet;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -19,7 +20,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author Dan Cervelli
  */
-public class GpsData implements BinaryDataSet {
+public class GpsData implements ColumnarDataSet {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(GpsData.class);
   private static final DoubleFactory2D DENSE = DoubleFactory2D.dense;
@@ -161,6 +162,33 @@ public class GpsData implements BinaryDataSet {
     }
   }
 
+  /**
+   * Get columnar GpsData representation.
+   *
+   * @param float32 true if data columns may be narrowed to float32
+   * @return ByteBuffer of columnar GpsData
+   */
+  public ByteBuffer toColumnar(boolean float32) {
+    DoubleMatrix2D all = DENSE.appendColumns(DENSE.appendColumns(tdata, rdata),
+        DENSE.appendColumns(DENSE.appendColumns(xyzData, covData), lenData));
+    return ColumnarCodec.encode(ColumnarCodec.toColumns(all), 1, float32);
+  }
+
+  /**
+   * Initialize GpsData from columnar representation.
+   *
+   * @param bb ByteBuffer of columnar GpsData
+   */
+  public void fromColumnar(ByteBuffer bb) {
+    DoubleMatrix2D all = ColumnarCodec.toMatrix(ColumnarCodec.decode(bb));
+    int rows = all.rows();
+    tdata = all.viewPart(0, 0, rows, 1).copy();
+    rdata = all.viewPart(0, 1, rows, 1).copy();
+    xyzData = all.viewPart(0, 2, rows, 3).copy();
+    covData = all.viewPart(0, 5, rows, 6).copy();
+    lenData = all.viewPart(0, 11, rows, 1).copy();
+  }
+
   /**
    * Sets the data matrices.
    *
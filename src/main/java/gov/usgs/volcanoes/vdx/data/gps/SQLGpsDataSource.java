@@ -3,15 +3,17 @@ package gov.usgs.volcanoes.vdx.data.gps;
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.math.DownsamplingType;
 import gov.usgs.volcanoes.core.util.UtilException;
+import gov.usgs.volcanoes.vdx.data.BulkLoadFile;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.Column;
 import gov.usgs.volcanoes.vdx.data.DataSource;
+import gov.usgs.volcanoes.vdx.data.MultiChannelData;
 import gov.usgs.volcanoes.vdx.data.Rank;
 import gov.usgs.volcanoes.vdx.data.SQLDataSource;
-import gov.usgs.volcanoes.vdx.server.BinaryResult;
 import gov.usgs.volcanoes.vdx.server.RequestResult;
 import gov.usgs.volcanoes.vdx.server.TextResult;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -45,6 +47,8 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
       new Column(3, "up", "Up", "meters", true, false, false),
       new Column(4, "length", "Length", "meters", false, false, false)};
 
+  private BulkLoadFile bulkFile;
+
   /**
    * Get database type, generic in this case.
    *
@@ -218,21 +222,25 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
       return new TextResult(defaultGetMenuColumns(menuColumns));
 
     } else if (action.equals("data")) {
-      int cid = Integer.parseInt(params.get("ch"));
+      int[] cids = parseChannelIds(params.get("ch"));
       int rid = Integer.parseInt(params.get("rk"));
       double st = Double.parseDouble(params.get("st"));
       double et = Double.parseDouble(params.get("et"));
       DownsamplingType ds = DownsamplingType.fromString(params.get("ds"));
       int dsInt = Integer.parseInt(params.get("dsInt"));
-      GpsData data = null;
+      MultiChannelData data = new MultiChannelData();
       try {
-        data = getGpsData(cid, rid, st, et, getMaxRows(), ds, dsInt);
+        for (int cid : cids) {
+          GpsData gd = getGpsData(cid, rid, st, et, getMaxRows(), ds, dsInt);
+          if (gd == null) {
+            return null;
+          }
+          data.put(cid, gd);
+        }
       } catch (UtilException e) {
         return getErrorResult(e.getMessage());
       }
-      if (data != null) {
-        return new BinaryResult(data);
-      }
+      return getChannelDataResult(data);
 
     } else if (action.equals("supptypes")) {
       return getSuppTypes(true);
@@ -286,24 +294,25 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
       database.useDatabase(dbName);
       List<DataPoint> dataPoints = new ArrayList<DataPoint>();
 
-      // calculate the num of rows to limit the query to
-      int tempmaxrows;
-      if (rid != 0) {
-        tempmaxrows = maxrows;
-      } else {
-        tempmaxrows = maxrows * defaultGetNumberOfRanks();
-      }
+      // best available data is resolved by the database, one row per solution time
+      boolean bestRank = ranks && rid == 0;
 
       sql = "SELECT (j2ksec0 + j2ksec1) / 2, d.rid, x, y, z, sxx, syy, szz, sxy, sxz, syz ";
       sql += "FROM   solutions a "
           + "INNER JOIN channels b ON a.cid = b.cid "
           + "INNER JOIN sources  c ON a.sid = c.sid "
           + "INNER JOIN ranks    d ON c.rid = d.rid "
+          + (bestRank ? getBestRankSQL("FROM solutions a "
+              + "INNER JOIN sources c ON a.sid = c.sid INNER JOIN ranks d ON c.rid = d.rid "
+              + "WHERE a.cid = ? AND (c.j2ksec0 + c.j2ksec1) / 2 >= ? "
+              + "AND (c.j2ksec0 + c.j2ksec1) / 2 <= ?", "d.rank", "(c.j2ksec0 + c.j2ksec1) / 2")
+              : "")
           + "WHERE  b.cid    = ? "
           + "AND    (c.j2ksec0 + c.j2ksec1) / 2 >= ? "
           + "AND    (c.j2ksec0 + c.j2ksec1) / 2 <= ? ";
 
-      sqlCount = "SELECT COUNT(*) FROM (SELECT 1 FROM solutions a "
+      sqlCount = "SELECT COUNT(*) FROM (SELECT "
+          + (bestRank ? "DISTINCT (c.j2ksec0 + c.j2ksec1) / 2" : "1") + " FROM solutions a "
           + "INNER JOIN channels b ON a.cid = b.cid "
           + "INNER JOIN sources c ON a.sid = c.sid "
           + "INNER JOIN ranks d ON c.rid = d.rid "
@@ -316,8 +325,8 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
         sqlCount += "AND d.rid = ? ";
       }
 
-      sql += "ORDER BY 1 ASC, d.rank DESC";
-      sqlCount += "ORDER BY 1 ASC, d.rank DESC";
+      sql += "ORDER BY 1 ASC";
+      sqlCount += "ORDER BY 1 ASC";
 
       if (rid != 0) {
         try {
@@ -328,7 +337,7 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
       }
 
       if (maxrows != 0) {
-        sql += " LIMIT " + (tempmaxrows + 1);
+        sql += " LIMIT " + (maxrows + 1);
 
         // If the dataset has a maxrows paramater, check that the number of requested rows doesn't
         // exceed that number prior to running the full query. This can save a decent amount of time
@@ -337,7 +346,7 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
         // a lot of data and 2) the way MySQL handles the multiple nested queries that would result
         // makes it slower than just doing the full query to begin with.
         if (ds.equals(DownsamplingType.NONE)) {
-          ps = database.getPreparedStatement(sqlCount + " LIMIT " + (tempmaxrows + 1) + ") as T");
+          ps = database.getPreparedStatement(sqlCount + " LIMIT " + (maxrows + 1) + ") as T");
           ps.setInt(1, cid);
           ps.setDouble(2, st);
           ps.setDouble(3, et);
@@ -345,7 +354,7 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
             ps.setInt(4, rid);
           }
           rs = ps.executeQuery();
-          if (rs.next() && rs.getInt(1) > tempmaxrows) {
+          if (rs.next() && rs.getInt(1) > maxrows) {
             throw new UtilException("Max rows (" + maxrows + " rows) for data source '" + vdxName
                 + "' exceeded. Please use downsampling.");
           }
@@ -362,6 +371,13 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
         if (rid != 0) {
           ps.setInt(6, rid);
         }
+      } else if (bestRank) {
+        ps.setInt(1, cid);
+        ps.setDouble(2, st);
+        ps.setDouble(3, et);
+        ps.setInt(4, cid);
+        ps.setDouble(5, st);
+        ps.setDouble(6, et);
       } else {
         ps.setInt(1, cid);
         ps.setDouble(2, st);
@@ -374,7 +390,7 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
 
       // Check for the amount of data returned in a downsampled query.
       // Non-downsampled queries are checked above.
-      if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && getResultSetSize(rs) > tempmaxrows) {
+      if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && getResultSetSize(rs) > maxrows) {
         throw new UtilException("Max rows (" + maxrows + " rows) for source '" + vdxName
             + "' exceeded. Please downsample further.");
       }
@@ -578,6 +594,10 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
    */
   public void insertSolution(int sid, int cid, DataPoint dp) {
 
+    if (getBulkLoad() && writeBulkSolution(sid, cid, dp)) {
+      return;
+    }
+
     try {
       database.useDatabase(dbName);
       ps = database.getPreparedStatement("INSERT INTO solutions VALUES (?,?,?,?,?,?,?,?,?,?,?)");
@@ -598,4 +618,61 @@ public class SQLGpsDataSource extends SQLDataSource implements DataSource {
       LOGGER.error("SQLGpsDataSource.insertSolution() failed.", e);
     }
   }
+
+  /**
+   * Load the solutions written in bulk load mode. Solutions already in the database are kept, as
+   * inserting them again fails.
+   */
+  public void flushInsertData() {
+    super.flushInsertData();
+    if (bulkFile == null) {
+      return;
+    }
+    try {
+      database.useDatabase(dbName);
+      bulkFile.load(database, "IGNORE", "solutions", null, null);
+      bulkFile.logRate("solutions");
+    } catch (Exception e) {
+      LOGGER.error("SQLGpsDataSource.flushInsertData() failed.", e);
+    } finally {
+      bulkFile.close();
+      bulkFile = null;
+    }
+  }
+
+  /**
+   * Write a GPS solution to the bulk load file, creating it if needed.
+   *
+   * @param sid source id
+   * @param cid channel id
+   * @param dp data point
+   * @return false if the file could not be written, so the solution is to be inserted
+   */
+  private boolean writeBulkSolution(int sid, int cid, DataPoint dp) {
+    try {
+      if (bulkFile == null) {
+        bulkFile = new BulkLoadFile("solutions");
+      }
+      bulkFile.add(Integer.valueOf(sid));
+      bulkFile.add(Integer.valueOf(cid));
+      bulkFile.add(dp.xcoord);
+      bulkFile.add(dp.ycoord);
+      bulkFile.add(dp.zcoord);
+      bulkFile.add(dp.sxx);
+      bulkFile.add(dp.syy);
+      bulkFile.add(dp.szz);
+      bulkFile.add(dp.sxy);
+      bulkFile.add(dp.sxz);
+      bulkFile.add(dp.syz);
+      bulkFile.endRow();
+      return true;
+    } catch (IOException e) {
+      LOGGER.error("Could not write bulk load file, inserting instead: {}", e.getMessage());
+      if (bulkFile != null) {
+        bulkFile.close();
+        bulkFile = null;
+      }
+      return false;
+    }
+  }
 }
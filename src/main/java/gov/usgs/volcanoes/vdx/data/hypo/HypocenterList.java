@@ -3,10 +3,11 @@ package gov.usgs.volcanoes.vdx.data.hypo;
 import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix2D;
 
-import gov.usgs.volcanoes.core.data.BinaryDataSet;
 import gov.usgs.volcanoes.core.math.proj.Projection;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
+import gov.usgs.volcanoes.vdx.data.ColumnarCodec;
+import gov.usgs.volcanoes.vdx.data.ColumnarDataSet;
 
 import hep.aida.IAxis;
 import hep.aida.ref.FixedAxis;
@@ -24,7 +25,7 @@ import java.util.List;
  *
  * @author Dan Cervelli
  */
-public class HypocenterList implements BinaryDataSet {
+public class HypocenterList implements ColumnarDataSet {
 
   private static final int MAX_BINS = 1000000;
 
@@ -237,6 +238,58 @@ public class HypocenterList implements BinaryDataSet {
     }
   }
 
+  /**
+   * Dump list content into ByteBuffer using the columnar encoding.
+   *
+   * @param float32 true if data columns may be narrowed to float32
+   * @return ByteBuffer of content
+   */
+  public ByteBuffer toColumnar(boolean float32) {
+    int rows = hypocenters.size();
+    double[][] columns = new double[17][rows];
+    for (int i = 0; i < rows; i++) {
+      Hypocenter hc = hypocenters.get(i);
+      columns[0][i] = hc.j2ksec;
+      columns[1][i] = hc.rid;
+      columns[2][i] = hc.lat;
+      columns[3][i] = hc.lon;
+      columns[4][i] = hc.depth;
+      columns[5][i] = hc.prefmag;
+      columns[6][i] = hc.ampmag;
+      columns[7][i] = hc.codamag;
+      columns[8][i] = hc.nphases;
+      columns[9][i] = hc.azgap;
+      columns[10][i] = hc.dmin;
+      columns[11][i] = hc.rms;
+      columns[12][i] = hc.nstimes;
+      columns[13][i] = hc.herr;
+      columns[14][i] = hc.verr;
+      columns[15][i] = hc.magtype != null && hc.magtype.length() > 0 ? hc.magtype.charAt(0) : -1;
+      columns[16][i] = hc.rmk != null && hc.rmk.length() > 0 ? hc.rmk.charAt(0) : -1;
+    }
+    return ColumnarCodec.encode(columns, 1, float32);
+  }
+
+  /**
+   * Parse ByteBuffer written by {@link #toColumnar(boolean)} and fill list.
+   *
+   * @param bb ByteBuffer to parse
+   */
+  public void fromColumnar(ByteBuffer bb) {
+    double[][] columns = ColumnarCodec.decode(bb);
+    int rows = columns[0].length;
+    hypocenters = new ArrayList<Hypocenter>(rows);
+    for (int i = 0; i < rows; i++) {
+      Hypocenter hc = new Hypocenter(columns[0][i], (String) null, (int) columns[1][i],
+          columns[2][i], columns[3][i], columns[4][i], columns[5][i], columns[6][i],
+          columns[7][i], (int) columns[8][i], (int) columns[9][i], columns[10][i],
+          columns[11][i], (int) columns[12][i], columns[13][i], columns[14][i],
+          Character.toString((char) (int) columns[15][i]),
+          Character.toString((char) (int) columns[16][i]));
+      hypocenters.add(hc);
+    }
+  }
+
   /**
    * Get string representation of hypocenters list.
    *
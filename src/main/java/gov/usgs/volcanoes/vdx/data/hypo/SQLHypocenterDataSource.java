@@ -2,6 +2,7 @@ package gov.usgs.volcanoes.vdx.data.hypo;
 
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.util.UtilException;
+import gov.usgs.volcanoes.vdx.data.BulkLoadFile;
 import gov.usgs.volcanoes.vdx.data.DataSource;
 import gov.usgs.volcanoes.vdx.data.SQLDataSource;
 import gov.usgs.volcanoes.vdx.data.SelectOption;
@@ -9,6 +10,7 @@ import gov.usgs.volcanoes.vdx.server.BinaryResult;
 import gov.usgs.volcanoes.vdx.server.RequestResult;
 import gov.usgs.volcanoes.vdx.server.TextResult;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -37,6 +39,8 @@ public class SQLHypocenterDataSource extends SQLDataSource implements DataSource
   public static final boolean columns = false;
   public static final boolean menuColumns = false;
 
+  private BulkLoadFile bulkFile;
+
   /**
    * Get database type, generic in this case.
    *
@@ -221,6 +225,16 @@ public class SQLHypocenterDataSource extends SQLDataSource implements DataSource
     return false;
   }
 
+  /**
+   * Get tables a data request reads, for estimating its size.
+   *
+   * @param params request parameters
+   * @return table names
+   */
+  protected List<String> getDataTables(Map<String, String> params) {
+    return Collections.singletonList("hypocenters");
+  }
+
   /**
    * Getter for data. Search value of 'action' parameter and retrieve corresponding data.
    *
@@ -447,121 +461,79 @@ public class SQLHypocenterDataSource extends SQLDataSource implements DataSource
 
       database.useDatabase(dbName);
 
-      // calculate the num of rows to limit the query to
-      int tempmaxrows;
-      if (rid != 0) {
-        tempmaxrows = maxrows;
-      } else {
-        tempmaxrows = maxrows * defaultGetNumberOfRanks();
-      }
+      // BEST AVAILABLE DATA query resolves the highest rank per event in the database
+      boolean bestRank = ranks && rid == 0;
 
-      sqlCount = "SELECT COUNT(*) FROM (SELECT 1 ";
-
-      // build the sql
-      sql = "SELECT a.j2ksec, a.rid, a.lat, a.lon, a.depth, a.prefmag, ";
-      sql += "       a.ampmag, a.codamag, a.nphases, a.azgap, a.dmin, a.rms, ";
-      sql += "       a.nstimes, a.herr, a.verr, a.magtype, a.rmk, a.eid ";
-      sql += "FROM   hypocenters a, ranks c ";
-      sql += "WHERE  a.rid = c.rid ";
-      sql += "AND    a.j2ksec  >= ? AND a.j2ksec  <= ? ";
+      String from = "FROM   hypocenters a INNER JOIN ranks c ON a.rid = c.rid ";
+      String where = "WHERE  a.j2ksec  >= ? AND a.j2ksec  <= ? ";
 
       if (west <= east) {
-        sql += "AND a.lon >= ? AND a.lon <= ? ";
+        where += "AND a.lon >= ? AND a.lon <= ? ";
       } else {
         // wrap around date line
-        sql += "AND (a.lon >= ? OR a.lon <= ?) ";
+        where += "AND (a.lon >= ? OR a.lon <= ?) ";
       }
 
-      sql += "AND    a.lat     >= ? AND a.lat     <= ? ";
-      sql += "AND    a.depth   >= ? AND a.depth   <= ? ";
-      sql += "AND    a.prefmag >= ? AND a.prefmag <= ? ";
-      sql += "AND    a.nphases >= ? AND a.nphases <= ? ";
-      sql += "AND    a.rms     >= ? AND a.rms     <= ? ";
-      sql += "AND    a.herr    >= ? AND a.herr    <= ? ";
-      sql += "AND    a.verr    >= ? AND a.verr    <= ? ";
-      sql += "AND    a.dmin    >= ? AND a.dmin    <= ? ";
-      sql += "AND    a.azgap   <= ? ";
-      sql += "AND    a.prefmag IS NOT NULL ";
+      where += "AND    a.lat     >= ? AND a.lat     <= ? ";
+      where += "AND    a.depth   >= ? AND a.depth   <= ? ";
+      where += "AND    a.prefmag >= ? AND a.prefmag <= ? ";
+      where += "AND    a.nphases >= ? AND a.nphases <= ? ";
+      where += "AND    a.rms     >= ? AND a.rms     <= ? ";
+      where += "AND    a.herr    >= ? AND a.herr    <= ? ";
+      where += "AND    a.verr    >= ? AND a.verr    <= ? ";
+      where += "AND    a.dmin    >= ? AND a.dmin    <= ? ";
+      where += "AND    a.azgap   <= ? ";
+      where += "AND    a.prefmag IS NOT NULL ";
 
       // remarks filtering options
       if (!rmk.equals("")) {
-        sql += "AND    a.rmk = '" + rmk + "' ";
+        where += "AND    a.rmk = '" + rmk + "' ";
       }
 
-      // BEST AVAILABLE DATA query
+      Object[] args = {st, et, west, east, south, north, minDepth, maxDepth, minMag, maxMag,
+          minNPhases, maxNPhases, minRms, maxRms, minHerr, maxHerr, minVerr, maxVerr, minStDst,
+          maxStDst, maxGap};
+
+      // build the sql
+      sql = "SELECT a.j2ksec, a.rid, a.lat, a.lon, a.depth, a.prefmag, ";
+      sql += "       a.ampmag, a.codamag, a.nphases, a.azgap, a.dmin, a.rms, ";
+      sql += "       a.nstimes, a.herr, a.verr, a.magtype, a.rmk, a.eid ";
+      sql += from;
+      if (bestRank) {
+        sql += getBestRankSQL(from + where, "c.rank", "a.eid");
+      }
+      sql += where;
+
       if (ranks && rid != 0) {
         sql += "AND    c.rid  = ? ";
       }
 
-      sql += "ORDER BY eid ASC";
-
-      if (ranks && rid == 0) {
-        sql = sql + ", c.rank DESC";
-      }
+      sql += "ORDER BY a.eid ASC";
 
       if (maxrows != 0) {
-        sql += " LIMIT " + (tempmaxrows + 1);
+        sql += " LIMIT " + (maxrows + 1);
 
         // If the dataset has a maxrows paramater, check that the number of requested rows doesn't
         // exceed that number prior to running the full query. This can save a decent amount of time
         // for large queries.
-        ps = database
-            .getPreparedStatement(sqlCount + sql.substring(sql.indexOf("FROM")) + ") as T");
-        ps.setDouble(1, st);
-        ps.setDouble(2, et);
-        ps.setDouble(3, west);
-        ps.setDouble(4, east);
-        ps.setDouble(5, south);
-        ps.setDouble(6, north);
-        ps.setDouble(7, minDepth);
-        ps.setDouble(8, maxDepth);
-        ps.setDouble(9, minMag);
-        ps.setDouble(10, maxMag);
-        ps.setInt(11, minNPhases);
-        ps.setInt(12, maxNPhases);
-        ps.setDouble(13, minRms);
-        ps.setDouble(14, maxRms);
-        ps.setDouble(15, minHerr);
-        ps.setDouble(16, maxHerr);
-        ps.setDouble(17, minVerr);
-        ps.setDouble(18, maxVerr);
-        ps.setDouble(19, minStDst);
-        ps.setDouble(20, maxStDst);
-        ps.setDouble(21, maxGap);
+        ps = database.getPreparedStatement("SELECT COUNT(*) FROM (" + sql + ") as T");
+        int index = bestRank ? setParameters(ps, 0, args) : 0;
+        index = setParameters(ps, index, args);
         if (ranks && rid != 0) {
-          ps.setInt(22, rid);
+          ps.setInt(index + 1, rid);
         }
         rs = ps.executeQuery();
-        if (rs.next() && rs.getInt(1) > tempmaxrows) {
+        if (rs.next() && rs.getInt(1) > maxrows) {
           throw new UtilException(
               "Max rows (" + maxrows + " rows) for data source '" + vdxName + "' exceeded.");
         }
       }
 
       ps = database.getPreparedStatement(sql);
-      ps.setDouble(1, st);
-      ps.setDouble(2, et);
-      ps.setDouble(3, west);
-      ps.setDouble(4, east);
-      ps.setDouble(5, south);
-      ps.setDouble(6, north);
-      ps.setDouble(7, minDepth);
-      ps.setDouble(8, maxDepth);
-      ps.setDouble(9, minMag);
-      ps.setDouble(10, maxMag);
-      ps.setInt(11, minNPhases);
-      ps.setInt(12, maxNPhases);
-      ps.setDouble(13, minRms);
-      ps.setDouble(14, maxRms);
-      ps.setDouble(15, minHerr);
-      ps.setDouble(16, maxHerr);
-      ps.setDouble(17, minVerr);
-      ps.setDouble(18, maxVerr);
-      ps.setDouble(19, minStDst);
-      ps.setDouble(20, maxStDst);
-      ps.setDouble(21, maxGap);
+      int index = bestRank ? setParameters(ps, 0, args) : 0;
+      index = setParameters(ps, index, args);
       if (ranks && rid != 0) {
-        ps.setInt(22, rid);
+        ps.setInt(index + 1, rid);
       }
       rs = ps.executeQuery();
 
@@ -608,124 +580,88 @@ public class SQLHypocenterDataSource extends SQLDataSource implements DataSource
 
       database.useDatabase(dbName);
 
-      // calculate the num of rows to limit the query to
-      int tempmaxrows;
-      if (rid != 0) {
-        tempmaxrows = maxrows;
-      } else {
-        tempmaxrows = maxrows * defaultGetNumberOfRanks();
+      // BEST AVAILABLE DATA query resolves the highest rank per event in the database
+      boolean bestRank = ranks && rid == 0;
+
+      String distance = "(6371 * acos ( ";
+      distance += "            cos(radians(?))";
+      distance += "            * cos(radians(a.lat))";
+      distance += "            * cos(radians(a.lon) - radians(?))";
+      distance += "            + sin(radians(?))";
+      distance += "            * sin(radians(a.lat))";
+      distance += "       )) ";
+
+      String from = "FROM   hypocenters a INNER JOIN ranks c ON a.rid = c.rid ";
+      String where = "WHERE  a.j2ksec  >= ? AND a.j2ksec  <= ? ";
+      where += "AND    a.depth   >= ? AND a.depth   <= ? ";
+      where += "AND    a.prefmag >= ? AND a.prefmag <= ? ";
+      where += "AND    a.nphases >= ? AND a.nphases <= ? ";
+      where += "AND    a.rms     >= ? AND a.rms     <= ? ";
+      where += "AND    a.herr    >= ? AND a.herr    <= ? ";
+      where += "AND    a.verr    >= ? AND a.verr    <= ? ";
+      where += "AND    a.dmin    >= ? AND a.dmin    <= ? ";
+      where += "AND    a.azgap   <= ? ";
+      where += "AND    a.prefmag IS NOT NULL ";
+
+      // remarks filtering options
+      if (!rmk.equals("")) {
+        where += "AND    a.rmk = '" + rmk + "' ";
       }
 
-      sqlCount = "SELECT COUNT(*) FROM (SELECT 1 ";
+      where += "AND    " + distance + "<= ? ";
+
+      Object[] center = {centerLat, centerLon, centerLat};
+      Object[] args = {st, et, minDepth, maxDepth, minMag, maxMag, minNPhases, maxNPhases,
+          minRms, maxRms, minHerr, maxHerr, minVerr, maxVerr, minStDst, maxStDst, maxGap,
+          centerLat, centerLon, centerLat, radius};
 
       // build the sql
       sql = "SELECT a.j2ksec, a.rid, a.lat, a.lon, a.depth, a.prefmag, ";
       sql += "       a.ampmag, a.codamag, a.nphases, a.azgap, a.dmin, a.rms, ";
       sql += "       a.nstimes, a.herr, a.verr, a.magtype, a.rmk, a.eid, ";
-      sql += "       (6371 * acos ( ";
-      sql += "            cos(radians(?))";
-      sql += "            * cos(radians(a.lat))";
-      sql += "            * cos(radians(a.lon) - radians(?))";
-      sql += "            + sin(radians(?))";
-      sql += "            * sin(radians(a.lat))";
-      sql += "       )) AS distance ";
-      sql += "FROM   hypocenters a, ranks c ";
-      sql += "WHERE  a.rid = c.rid ";
-      sql += "AND    a.j2ksec  >= ? AND a.j2ksec  <= ? ";
-      sql += "AND    a.depth   >= ? AND a.depth   <= ? ";
-      sql += "AND    a.prefmag >= ? AND a.prefmag <= ? ";
-      sql += "AND    a.nphases >= ? AND a.nphases <= ? ";
-      sql += "AND    a.rms     >= ? AND a.rms     <= ? ";
-      sql += "AND    a.herr    >= ? AND a.herr    <= ? ";
-      sql += "AND    a.verr    >= ? AND a.verr    <= ? ";
-      sql += "AND    a.dmin    >= ? AND a.dmin    <= ? ";
-      sql += "AND    a.azgap   <= ? ";
-      sql += "AND    a.prefmag IS NOT NULL ";
-
-      // remarks filtering options
-      if (!rmk.equals("")) {
-        sql += "AND    a.rmk = '" + rmk + "' ";
+      sql += "       " + distance + "AS distance ";
+      sql += from;
+      if (bestRank) {
+        sql += getBestRankSQL(from + where, "c.rank", "a.eid");
       }
+      sql += where;
 
-      // BEST AVAILABLE DATA query
       if (ranks && rid != 0) {
         sql += "AND    c.rid  = ? ";
       }
 
-      sql += "HAVING distance <= ? ";
-      sql += "ORDER BY eid ASC";
-
-      if (ranks && rid == 0) {
-        sql = sql + ", c.rank DESC";
-      }
+      sql += "ORDER BY a.eid ASC";
 
       if (maxrows != 0) {
-        sql += " LIMIT " + (tempmaxrows + 1);
+        sql += " LIMIT " + (maxrows + 1);
 
         // If the dataset has a maxrows paramater, check that the number of requested rows doesn't
         // exceed that number prior to running the full query. This can save a decent amount of time
         // for large queries.
-        ps = database
-            .getPreparedStatement(sqlCount + sql.substring(sql.indexOf("FROM")) + ") as T");
-        ps.setDouble(1, centerLat);
-        ps.setDouble(2, centerLon);
-        ps.setDouble(3, centerLat);
-        ps.setDouble(4, st);
-        ps.setDouble(5, et);
-        ps.setDouble(6, minDepth);
-        ps.setDouble(7, maxDepth);
-        ps.setDouble(8, minMag);
-        ps.setDouble(9, maxMag);
-        ps.setInt(10, minNPhases);
-        ps.setInt(11, maxNPhases);
-        ps.setDouble(12, minRms);
-        ps.setDouble(13, maxRms);
-        ps.setDouble(14, minHerr);
-        ps.setDouble(15, maxHerr);
-        ps.setDouble(16, minVerr);
-        ps.setDouble(17, maxVerr);
-        ps.setDouble(18, minStDst);
-        ps.setDouble(19, maxStDst);
-        ps.setDouble(20, maxGap);
+        ps = database.getPreparedStatement("SELECT COUNT(*) FROM (" + sql + ") as T");
+        int index = setParameters(ps, 0, center);
+        if (bestRank) {
+          index = setParameters(ps, index, args);
+        }
+        index = setParameters(ps, index, args);
         if (ranks && rid != 0) {
-          ps.setInt(21, rid);
-          ps.setDouble(22, radius);
-        } else {
-          ps.setDouble(21, radius);
+          ps.setInt(index + 1, rid);
         }
         rs = ps.executeQuery();
-        if (rs.next() && rs.getInt(1) > tempmaxrows) {
+        if (rs.next() && rs.getInt(1) > maxrows) {
           throw new UtilException(
               "Max rows (" + maxrows + " rows) for data source '" + vdxName + "' exceeded.");
         }
       }
 
       ps = database.getPreparedStatement(sql);
-      ps.setDouble(1, centerLat);
-      ps.setDouble(2, centerLon);
-      ps.setDouble(3, centerLat);
-      ps.setDouble(4, st);
-      ps.setDouble(5, et);
-      ps.setDouble(6, minDepth);
-      ps.setDouble(7, maxDepth);
-      ps.setDouble(8, minMag);
-      ps.setDouble(9, maxMag);
-      ps.setInt(10, minNPhases);
-      ps.setInt(11, maxNPhases);
-      ps.setDouble(12, minRms);
-      ps.setDouble(13, maxRms);
-      ps.setDouble(14, minHerr);
-      ps.setDouble(15, maxHerr);
-      ps.setDouble(16, minVerr);
-      ps.setDouble(17, maxVerr);
-      ps.setDouble(18, minStDst);
-      ps.setDouble(19, maxStDst);
-      ps.setDouble(20, maxGap);
+      int index = setParameters(ps, 0, center);
+      if (bestRank) {
+        index = setParameters(ps, index, args);
+      }
+      index = setParameters(ps, index, args);
       if (ranks && rid != 0) {
-        ps.setInt(21, rid);
-        ps.setDouble(22, radius);
-      } else {
-        ps.setDouble(21, radius);
+        ps.setInt(index + 1, rid);
       }
       rs = ps.executeQuery();
 
@@ -735,7 +671,8 @@ public class SQLHypocenterDataSource extends SQLDataSource implements DataSource
   }
 
   /**
-   * Insert data.
+   * Insert data. In bulk load mode the hypocenter is written to a file loaded by
+   * {@link #flushInsertData()}.
    *
    * @param hc Hypocenter
    */
@@ -743,6 +680,10 @@ public class SQLHypocenterDataSource extends SQLDataSource implements DataSource
 
     int result = -1;
 
+    if (getBulkLoad() && writeBulkHypocenter(hc)) {
+      return 1;
+    }
+
     try {
       database.useDatabase(dbName);
       sql = "REPLACE INTO hypocenters "
@@ -829,4 +770,71 @@ public class SQLHypocenterDataSource extends SQLDataSource implements DataSource
     }
     return result;
   }
+
+  /**
+   * Load the hypocenters written in bulk load mode, replacing existing ones as
+   * {@link #insertHypocenter(Hypocenter)} does.
+   */
+  public void flushInsertData() {
+    super.flushInsertData();
+    if (bulkFile == null) {
+      return;
+    }
+    try {
+      database.useDatabase(dbName);
+      bulkFile.load(database, "REPLACE", "hypocenters",
+          "j2ksec, eid, rid, @lat, @lon, @depth, @prefmag, @ampmag, @codamag, "
+              + "nphases, azgap, dmin, rms, nstimes, herr, verr, magtype, rmk",
+          "lat = round(@lat, 4), lon = round(@lon, 4), depth = round(@depth, 2), "
+              + "prefmag = round(@prefmag, 2), ampmag = round(@ampmag, 2), "
+              + "codamag = round(@codamag, 2)");
+      bulkFile.logRate("hypocenters");
+    } catch (Exception e) {
+      LOGGER.error("SQLHypocenterDataSource.flushInsertData() failed.", e);
+    } finally {
+      bulkFile.close();
+      bulkFile = null;
+    }
+  }
+
+  /**
+   * Write a hypocenter to the bulk load file, creating it if needed.
+   *
+   * @param hc Hypocenter
+   * @return false if the file could not be written, so the hypocenter is to be inserted
+   */
+  private boolean writeBulkHypocenter(Hypocenter hc) {
+    try {
+      if (bulkFile == null) {
+        bulkFile = new BulkLoadFile("hypocenters");
+      }
+      bulkFile.add(hc.j2ksec);
+      bulkFile.add(hc.eid);
+      bulkFile.add(hc.rid);
+      bulkFile.add(hc.lat);
+      bulkFile.add(hc.lon);
+      bulkFile.add(hc.depth);
+      bulkFile.add(hc.prefmag);
+      bulkFile.add(hc.ampmag);
+      bulkFile.add(hc.codamag);
+      bulkFile.add(hc.nphases);
+      bulkFile.add(hc.azgap);
+      bulkFile.add(hc.dmin);
+      bulkFile.add(hc.rms);
+      bulkFile.add(hc.nstimes);
+      bulkFile.add(hc.herr);
+      bulkFile.add(hc.verr);
+      bulkFile.add(hc.magtype);
+      bulkFile.add(hc.rmk);
+      bulkFile.endRow();
+      return true;
+    } catch (IOException e) {
+      LOGGER.error("Could not write bulk load file, inserting instead: {}", e.getMessage());
+      if (bulkFile != null) {
+        bulkFile.close();
+        bulkFile = null;
+      }
+      return false;
+    }
+  }
 }
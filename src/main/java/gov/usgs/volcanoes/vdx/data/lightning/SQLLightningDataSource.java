@@ -160,6 +160,16 @@ public class SQLLightningDataSource extends SQLDataSource implements DataSource
     return false;
   }
 
+  /**
+   * Get tables a data request reads, for estimating its size.
+   *
+   * @param params request parameters
+   * @return table names
+   */
+  protected List<String> getDataTables(Map<String, String> params) {
+    return Collections.singletonList("strokes");
+  }
+
   /**
    * Getter for data. Search value of 'action' parameter and retrieve corresponding data.
    *
@@ -223,77 +233,63 @@ public class SQLLightningDataSource extends SQLDataSource implements DataSource
 
       database.useDatabase(dbName);
 
-      // calculate the num of rows to limit the query to
-      int tempmaxrows;
-      if (rid != 0) {
-        tempmaxrows = maxrows;
-      } else {
-        tempmaxrows = maxrows * defaultGetNumberOfRanks();
-      }
+      // BEST AVAILABLE DATA query resolves the highest rank per stroke in the database
+      boolean bestRank = ranks && rid == 0;
 
-      sqlCount = "SELECT COUNT(*) FROM (SELECT 1 ";
-
-      // build the sql
-      sql = "SELECT a.j2ksec, a.rid, a.lat, a.lon, a.stationsDetected, a.residual";
-      sql += " FROM   strokes a, ranks c ";
-      sql += " WHERE  a.rid = c.rid ";
-      sql += " AND    a.j2ksec  >= ? AND a.j2ksec  <= ? ";
+      String from = " FROM   strokes a INNER JOIN ranks c ON a.rid = c.rid ";
+      String where = " WHERE  a.j2ksec  >= ? AND a.j2ksec  <= ? ";
 
       if (west <= east) {
-        sql += " AND a.lon >= ? AND a.lon <= ? ";
+        where += " AND a.lon >= ? AND a.lon <= ? ";
       } else {
         // wrap around date line
-        sql += " AND (a.lon >= ? OR a.lon <= ?) ";
+        where += " AND (a.lon >= ? OR a.lon <= ?) ";
       }
 
-      sql += " AND    a.lat     >= ? AND a.lat     <= ? ";
+      where += " AND    a.lat     >= ? AND a.lat     <= ? ";
+
+      Object[] args = {st, et, west, east, south, north};
+
+      // build the sql
+      sql = "SELECT a.j2ksec, a.rid, a.lat, a.lon, a.stationsDetected, a.residual";
+      sql += from;
+      if (bestRank) {
+        sql += getBestRankSQL(from + where, "c.rank", "a.j2ksec", "a.lat", "a.lon");
+      }
+      sql += where;
 
-      // BEST AVAILABLE DATA query
       if (ranks && rid != 0) {
         sql += " AND    c.rid  = ? ";
       }
 
       sql += " ORDER BY a.j2ksec ASC";
 
-      if (ranks && rid == 0) {
-        sql = sql + ", c.rank DESC";
-      }
-
       if (maxrows != 0) {
-        sql += " LIMIT " + (tempmaxrows + 1);
+        sql += " LIMIT " + (maxrows + 1);
 
         // If the dataset has a maxrows paramater, check that the number
         // of requested rows doesn't
         // exceed that number prior to running the full query. This can
         // save a decent amount of time
         // for large queries.
-        ps = database
-            .getPreparedStatement(sqlCount + sql.substring(sql.indexOf("FROM")) + ") as T");
-        ps.setDouble(1, st);
-        ps.setDouble(2, et);
-        ps.setDouble(3, west);
-        ps.setDouble(4, east);
-        ps.setDouble(5, south);
-        ps.setDouble(6, north);
+        ps = database.getPreparedStatement("SELECT COUNT(*) FROM (" + sql + ") as T");
+        int index = bestRank ? setParameters(ps, 0, args) : 0;
+        index = setParameters(ps, index, args);
         if (ranks && rid != 0) {
-          ps.setInt(7, rid);
+          ps.setInt(index + 1, rid);
         }
         rs = ps.executeQuery();
-        if (rs.next() && rs.getInt(1) > tempmaxrows) {
+        if (rs.next() && rs.getInt(1) > maxrows) {
           throw new UtilException(
               "Max rows (" + maxrows + " rows) for data source '" + vdxName + "' exceeded.");
         }
       }
 
       ps = database.getPreparedStatement(sql);
-      ps.setDouble(1, st);
-      ps.setDouble(2, et);
-      ps.setDouble(3, west);
-      ps.setDouble(4, east);
-      ps.setDouble(5, south);
-      ps.setDouble(6, north);
+      int index = bestRank ? setParameters(ps, 0, args) : 0;
+      index = setParameters(ps, index, args);
       if (ranks && rid != 0) {
-        ps.setInt(7, rid);
+        ps.setInt(index + 1, rid);
       }
 
       rs = ps.executeQuery();
@@ -3,10 +3,11 @@ package gov.usgs.volcanoes.vdx.data.lightning;
 import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix2D;
 
-import gov.usgs.volcanoes.core.data.BinaryDataSet;
 import gov.usgs.volcanoes.core.math.proj.Projection;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
+import gov.usgs.volcanoes.vdx.data.ColumnarCodec;
+import gov.usgs.volcanoes.vdx.data.ColumnarDataSet;
 
 import hep.aida.IAxis;
 import hep.aida.ref.FixedAxis;
@@ -24,7 +25,7 @@ import java.util.List;
  *
  * @author Tom Parker
  */
-public class StrokeList implements BinaryDataSet {
+public class StrokeList implements ColumnarDataSet {
 
   private static final int MAX_BINS = 1000000;
 
@@ -203,6 +204,42 @@ public class StrokeList implements BinaryDataSet {
 
   }
 
+  /**
+   * Dump list content into ByteBuffer using the columnar encoding.
+   *
+   * @param float32 true if data columns may be narrowed to float32
+   * @return ByteBuffer of content
+   */
+  public ByteBuffer toColumnar(boolean float32) {
+    int rows = strokes.size();
+    double[][] columns = new double[6][rows];
+    for (int i = 0; i < rows; i++) {
+      Stroke stroke = strokes.get(i);
+      columns[0][i] = stroke.j2ksec;
+      columns[1][i] = stroke.rid;
+      columns[2][i] = stroke.lat;
+      columns[3][i] = stroke.lon;
+      columns[4][i] = stroke.stationsDetected;
+      columns[5][i] = stroke.residual;
+    }
+    return ColumnarCodec.encode(columns, 1, float32);
+  }
+
+  /**
+   * Parse ByteBuffer written by {@link #toColumnar(boolean)} and fill list.
+   *
+   * @param bb ByteBuffer to parse
+   */
+  public void fromColumnar(ByteBuffer bb) {
+    double[][] columns = ColumnarCodec.decode(bb);
+    int rows = columns[0].length;
+    strokes = new ArrayList<Stroke>(rows);
+    for (int i = 0; i < rows; i++) {
+      strokes.add(new Stroke(columns[0][i], (int) columns[1][i], columns[2][i], columns[3][i],
+          (int) columns[4][i], columns[5][i]));
+    }
+  }
+
 
   /**
    * Get string representation of stroke list.
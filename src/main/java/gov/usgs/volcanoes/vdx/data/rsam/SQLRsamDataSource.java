@@ -7,6 +7,7 @@ import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.Column;
 import gov.usgs.volcanoes.vdx.data.DataSource;
+import gov.usgs.volcanoes.vdx.data.MultiChannelData;
 import gov.usgs.volcanoes.vdx.data.SQLDataSource;
 import gov.usgs.volcanoes.vdx.server.BinaryResult;
 import gov.usgs.volcanoes.vdx.server.RequestResult;
@@ -207,20 +208,24 @@ public class SQLRsamDataSource extends SQLDataSource implements DataSource {
       return new TextResult(defaultGetChannels(channelTypes));
 
     } else if (action.equals("data")) {
-      int cid = Integer.parseInt(params.get("ch"));
+      int[] cids = parseChannelIds(params.get("ch"));
       double st = Double.parseDouble(params.get("st"));
       double et = Double.parseDouble(params.get("et"));
       DownsamplingType ds = DownsamplingType.fromString(params.get("ds"));
       int dsInt = Integer.parseInt(params.get("dsInt"));
-      RSAMData data = null;
+      MultiChannelData data = new MultiChannelData();
       try {
-        data = getRsamData(cid, st, et, getMaxRows(), ds, dsInt);
+        for (int cid : cids) {
+          RSAMData rd = getRsamData(cid, st, et, getMaxRows(), ds, dsInt);
+          if (rd == null) {
+            return null;
+          }
+          data.put(cid, rd);
+        }
       } catch (UtilException e) {
         return getErrorResult(e.getMessage());
       }
-      if (data != null) {
-        return new BinaryResult(data);
-      }
+      return getChannelDataResult(data);
 
     } else if (action.equals("ratdata")) {
       String cids = params.get("ch");
@@ -311,34 +316,45 @@ public class SQLRsamDataSource extends SQLDataSource implements DataSource {
         }
       }
 
-      ps = database.getPreparedStatement(sql);
-      if (ds.equals(DownsamplingType.MEAN)) {
-        ps.setDouble(1, st);
-        ps.setInt(2, dsInt);
-        ps.setDouble(3, st);
-        ps.setDouble(4, et);
-      } else {
-        ps.setDouble(1, st);
-        ps.setDouble(2, et);
+      // one parameter set per sub-range; mean intervals are always counted from st
+      List<Object[]> parameters = new ArrayList<Object[]>();
+      for (double[] range : getTimeRanges(ch.getCode(), st, et, ds, dsInt)) {
+        if (ds.equals(DownsamplingType.MEAN)) {
+          parameters.add(new Object[] {st, dsInt, range[0], range[1]});
+        } else {
+          parameters.add(new Object[] {range[0], range[1]});
+        }
       }
-      rs = ps.executeQuery();
 
-      // Check for the amount of data returned in a downsampled query.
-      // Non-downsampled queries are checked above.
-      if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && getResultSetSize(rs) > maxrows) {
-        throw new UtilException("Max rows (" + maxrows + " rows) for source '" + vdxName
-            + "' exceeded. Please downsample further.");
-      }
+      if (parameters.size() > 1) {
+        pts = getSplitData(sql, parameters, 2);
+        if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && pts.size() > maxrows) {
+          throw new UtilException("Max rows (" + maxrows + " rows) for source '" + vdxName
+              + "' exceeded. Please downsample further.");
+        }
 
-      // iterate through all results and create a double array to store the data,
-      // index 1 is the j2ksec
-      while (rs.next()) {
-        dataRow = new double[2];
-        dataRow[0] = getDoubleNullCheck(rs, 1);
-        dataRow[1] = getDoubleNullCheck(rs, 2);
-        pts.add(dataRow);
+      } else {
+        ps = database.getPreparedStatement(sql);
+        setParameters(ps, 0, parameters.get(0));
+        rs = ps.executeQuery();
+
+        // Check for the amount of data returned in a downsampled query.
+        // Non-downsampled queries are checked above.
+        if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && getResultSetSize(rs) > maxrows) {
+          throw new UtilException("Max rows (" + maxrows + " rows) for source '" + vdxName
+              + "' exceeded. Please downsample further.");
+        }
+
+        // iterate through all results and create a double array to store the data,
+        // index 1 is the j2ksec
+        while (rs.next()) {
+          dataRow = new double[2];
+          dataRow[0] = getDoubleNullCheck(rs, 1);
+          dataRow[1] = getDoubleNullCheck(rs, 2);
+          pts.add(dataRow);
+        }
+        rs.close();
       }
-      rs.close();
 
       if (pts.size() == 0) {
         dataRow = new double[2];
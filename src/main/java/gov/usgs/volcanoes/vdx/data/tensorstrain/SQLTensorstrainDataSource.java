@@ -6,14 +6,17 @@ import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.Column;
 import gov.usgs.volcanoes.vdx.data.DataSource;
+import gov.usgs.volcanoes.vdx.data.MultiChannelData;
 import gov.usgs.volcanoes.vdx.data.SQLDataSource;
 import gov.usgs.volcanoes.vdx.server.BinaryResult;
 import gov.usgs.volcanoes.vdx.server.RequestResult;
 import gov.usgs.volcanoes.vdx.server.TextResult;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +66,11 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
       new Column(11, "rain", "rainfall", "mm", false, true, false),
       new Column(12, "pore", "pore pressure", "hPa", false, true, false)};
 
+  private static final String[] STRAIN_COLUMNS =
+      {"CH0", "CH1", "CH2", "CH3", "eEEpeNN", "eEEmeNN", "e2EN", "baro", "rain", "pore"};
+  private static final String[] STRAIN_DATA_COLUMNS = {"ch0", "ch1", "ch2", "ch3", "eEEpeNN",
+      "eEEmeNN", "e2EN", "barometer", "rainfall", "pore"};
+
   /**
    * Get database type, generic in this case return type.
    */
@@ -197,13 +205,29 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
       return new TextResult(getAzimuths());
 
     } else if (action.equals("data")) {
-      int cid = Integer.parseInt(params.get("ch"));
+      int[] cids = parseChannelIds(params.get("ch"));
       int rid = Integer.parseInt(params.get("rk"));
       double st = Double.parseDouble(params.get("st"));
       double et = Double.parseDouble(params.get("et"));
       DownsamplingType ds = DownsamplingType.fromString(params.get("ds"));
       int dsInt = Integer.parseInt(params.get("dsInt"));
-      return getTensorstrainData(cid, rid, st, et, getMaxRows(), ds, dsInt);
+      Set<String> cols = parseColumnNames(params.get("cols"));
+      try {
+        checkColumnNames(cols, Arrays.asList(STRAIN_COLUMNS));
+      } catch (UtilException e) {
+        return getErrorResult(e.getMessage());
+      }
+      MultiChannelData data = new MultiChannelData();
+      for (int cid : cids) {
+        RequestResult result =
+            getTensorstrainData(cid, rid, st, et, getMaxRows(), ds, dsInt, cols);
+        // errors and empty results end the whole request
+        if (!(result instanceof BinaryResult)) {
+          return result;
+        }
+        data.put(cid, ((BinaryResult) result).getData());
+      }
+      return getChannelDataResult(data);
 
     } else if (action.equals("supptypes")) {
       return getSuppTypes(true);
@@ -232,6 +256,24 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
    */
   public RequestResult getTensorstrainData(int cid, int rid, double st, double et, int maxrows,
       DownsamplingType ds, int dsInt) {
+    return getTensorstrainData(cid, rid, st, et, maxrows, ds, dsInt, null);
+  }
+
+  /**
+   * Get Tensorstrain Station data for some of the columns.
+   *
+   * @param cid channel id
+   * @param rid rank id
+   * @param st start time
+   * @param et end time
+   * @param maxrows maximum nbr of rows returned
+   * @param ds type of downsampling
+   * @param dsInt downsampling argument
+   * @param cols names of the columns to return, null for all columns
+   * @return requested result
+   */
+  public RequestResult getTensorstrainData(int cid, int rid, double st, double et, int maxrows,
+      DownsamplingType ds, int dsInt, Set<String> cols) {
 
     double[] dataRow;
     List<double[]> pts = new ArrayList<double[]>();
@@ -242,38 +284,52 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
 
       database.useDatabase(dbName);
 
-      columnsReturned = 12;
-
-      // calculate the num of rows to limit the query to
-      int tempmaxrows;
-      if (rid != 0) {
-        tempmaxrows = maxrows;
-      } else {
-        tempmaxrows = maxrows * defaultGetNumberOfRanks();
+      // data columns to return, and their names in TensorstrainData
+      List<String> columnList = new ArrayList<String>();
+      List<String> dataColumns = new ArrayList<String>();
+      for (int i = 0; i < STRAIN_COLUMNS.length; i++) {
+        if (cols == null || cols.contains(STRAIN_COLUMNS[i])) {
+          columnList.add(STRAIN_COLUMNS[i]);
+          dataColumns.add(STRAIN_DATA_COLUMNS[i]);
+        }
       }
+      String[] names = columnList.toArray(new String[columnList.size()]);
+      columnsReturned = names.length + 2;
+
+      // best available data is resolved by the database, one row per j2ksec
+      boolean bestRank = ranks && rid == 0;
 
       // look up the channel code from the channels table, which is the name of the table to query
       Channel channel = defaultGetChannel(cid, channelTypes);
 
+      // translations are applied to the raw rows from the cached translations table, except for
+      // mean downsampling, which has to average translated values
+      boolean sqlTranslations = ranks && rid != 0 && ds.equals(DownsamplingType.MEAN);
+      int columnsRead = sqlTranslations ? columnsReturned : columnsReturned + 1;
+
       // build the sql
-      sql = "SELECT j2ksec, c.rid, "
-          + "       CH0 * cCH0 + dCH0, "
-          + "       CH1 * cCH1 + dCH1, "
-          + "       CH2 * cCH2 + dCH2, "
-          + "       CH3 * cCH3 + dCH3, "
-          + "       eEEpeNN * ceEEpeNN + deEEpeNN, "
-          + "       eEEmeNN  * ceEEmeNN  + deEEmeNN,  "
-          + "       e2EN * ce2EN + de2EN, "
-          + "       baro * cbaro + dbaro,  "
-          + "       rain * crain + drain,  "
-          + "       pore * cpore + dpore  "
-          + "FROM " + channel.getCode() + " a "
-          + "       INNER JOIN translations  b ON a.tid = b.tid "
-          + "       INNER JOIN ranks         c ON a.rid = c.rid "
+      sql = "SELECT j2ksec, c.rid";
+      if (sqlTranslations) {
+        for (String name : names) {
+          sql += ", " + name + " * c" + name + " + d" + name;
+        }
+        sql += " FROM " + channel.getCode() + " a "
+            + "       INNER JOIN translations  b ON a.tid = b.tid ";
+      } else {
+        for (String name : names) {
+          sql += ", " + name;
+        }
+        sql += ", a.tid FROM " + channel.getCode() + " a ";
+      }
+      sql += "       INNER JOIN ranks         c ON a.rid = c.rid "
+          + (bestRank ? getBestRankSQL("FROM " + channel.getCode() + " a "
+              + "INNER JOIN ranks c ON a.rid = c.rid WHERE j2ksec >= ? AND j2ksec <= ?",
+              "c.rank", "a.j2ksec") : "")
           + "WHERE  j2ksec >= ? "
           + "AND    j2ksec <= ? ";
 
-      sqlCount = "SELECT COUNT(*) FROM (SELECT 1 FROM " + channel.getCode()
+      sqlCount = "SELECT COUNT(*) FROM (SELECT " + (bestRank ? "DISTINCT a.j2ksec" : "1")
+          + " FROM " + channel.getCode()
           + " a INNER JOIN ranks c ON a.rid = c.rid ";
       sqlCount += "WHERE j2ksec >= ? AND j2ksec <= ? ";
 
@@ -286,11 +342,6 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
       sql += "ORDER BY j2ksec ASC";
       sqlCount += "ORDER BY j2ksec ASC";
 
-      if (ranks && rid == 0) {
-        sql += ", c.rank DESC";
-        sqlCount += ", c.rank DESC";
-      }
-
       if (ranks && rid != 0) {
         try {
           sql = getDownsamplingSQL(sql, "j2ksec", ds, dsInt);
@@ -300,7 +351,7 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
       }
 
       if (maxrows != 0) {
-        sql += " LIMIT " + (tempmaxrows + 1);
+        sql += " LIMIT " + (maxrows + 1);
 
         // If the dataset has a maxrows paramater, check that the number of requested rows doesn't
         // exceed that number prior to running the full query. This can save a decent amount of time
@@ -316,7 +367,7 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
             ps.setInt(3, rid);
           }
           rs = ps.executeQuery();
-          if (rs.next() && rs.getInt(1) > tempmaxrows) {
+          if (rs.next() && rs.getInt(1) > maxrows) {
             return getErrorResult("Max rows (" + maxrows + " rows) for data source '" + vdxName
                 + "' exceeded. Please use downsampling.");
           }
@@ -332,6 +383,11 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
         if (ranks && rid != 0) {
           ps.setInt(5, rid);
         }
+      } else if (bestRank) {
+        ps.setDouble(1, st);
+        ps.setDouble(2, et);
+        ps.setDouble(3, st);
+        ps.setDouble(4, et);
       } else {
         ps.setDouble(1, st);
         ps.setDouble(2, et);
@@ -343,7 +399,7 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
 
       // This might seem like it's duplicating the COUNT(*) code above, but it's actually still here
       // to handle the case where a downsampled query is still too large.
-      if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && getResultSetSize(rs) > tempmaxrows) {
+      if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && getResultSetSize(rs) > maxrows) {
         return getErrorResult("Max rows (" + maxrows + " rows) for data source '" + vdxName
             + "' exceeded. Please use downsampling.");
       }
@@ -355,8 +411,8 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
 
         // if this is a new j2ksec, then save this data, as it contains the highest rank
         if (Double.compare(tempJ2ksec, rs.getDouble(1)) != 0) {
-          dataRow = new double[columnsReturned];
-          for (int i = 0; i < columnsReturned; i++) {
+          dataRow = new double[columnsRead];
+          for (int i = 0; i < columnsRead; i++) {
             dataRow[i] = getDoubleNullCheck(rs, i + 1);
           }
           pts.add(dataRow);
@@ -365,6 +421,10 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
       }
       rs.close();
 
+      if (!sqlTranslations) {
+        pts = applyTranslations(pts, 2, names);
+      }
+
       if (pts.size() == 0) {
         dataRow = new double[columnsReturned];
         for (int i = 0; i < columnsReturned; i++) {
@@ -373,7 +433,8 @@ public class SQLTensorstrainDataSource extends SQLDataSource implements DataSour
         pts.add(dataRow);
       }
 
-      result = new BinaryResult(new TensorstrainData(pts));
+      result = new BinaryResult(new TensorstrainData(pts,
+          cols == null ? null : dataColumns.toArray(new String[dataColumns.size()])));
 
     } catch (Exception e) {
       LOGGER.error("SQLTensorstrainDataSource.getTensorstrainData()", e);
@@ -3,7 +3,7 @@ package gov.usgs.volcanoes.vdx.data.tensorstrain;
 import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix2D;
 
-import gov.usgs.volcanoes.core.data.GenericDataMatrix;
+import gov.usgs.volcanoes.vdx.data.ProjectedDataMatrix;
 
 import java.util.List;
 
@@ -12,7 +12,10 @@ import java.util.List;
  *
  * @author Max Kokoulin
  */
-public class TensorstrainData extends GenericDataMatrix {
+public class TensorstrainData extends ProjectedDataMatrix {
+
+  private static final String[] DATA_COLUMNS = {"ch0", "ch1", "ch2", "ch3", "eEEpeNN", "eEEmeNN",
+      "e2EN", "barometer", "rainfall", "pore"};
 
   /**
    * Default constructor.
@@ -27,25 +30,26 @@ public class TensorstrainData extends GenericDataMatrix {
    * @param pts list of raws, each of them is double[3]
    */
   public TensorstrainData(List<double[]> pts) {
-    super(pts);
+    super(pts, null);
   }
 
   /**
-   * Set predefined column names: time/east/north.
+   * Constructor for a subset of the data columns.
+   *
+   * @param pts list of rows: time, rank and the data columns held
+   * @param dataColumns names of the data columns held, null if all of them
+   */
+  public TensorstrainData(List<double[]> pts, String[] dataColumns) {
+    super(pts, dataColumns);
+  }
+
+  /**
+   * Get predefined data column names.
+   *
+   * @return data column names
    */
-  public void setColumnNames() {
-    columnMap.put("time", 0);
-    columnMap.put("rank", 1);
-    columnMap.put("ch0", 2);
-    columnMap.put("ch1", 3);
-    columnMap.put("ch2", 4);
-    columnMap.put("ch3", 5);
-    columnMap.put("eEEpeNN", 6);
-    columnMap.put("eEEmeNN", 7);
-    columnMap.put("e2EN", 8);
-    columnMap.put("barometer", 9);
-    columnMap.put("rainfall", 10);
-    columnMap.put("pore", 11);
+  protected String[] getDefaultDataColumns() {
+    return DATA_COLUMNS;
   }
 
   /**
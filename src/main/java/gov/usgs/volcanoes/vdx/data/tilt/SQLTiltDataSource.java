@@ -6,14 +6,17 @@ import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.Column;
 import gov.usgs.volcanoes.vdx.data.DataSource;
+import gov.usgs.volcanoes.vdx.data.MultiChannelData;
 import gov.usgs.volcanoes.vdx.data.SQLDataSource;
 import gov.usgs.volcanoes.vdx.server.BinaryResult;
 import gov.usgs.volcanoes.vdx.server.RequestResult;
 import gov.usgs.volcanoes.vdx.server.TextResult;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,6 +61,13 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
       new Column(9, "instVolt", "Inst. Voltage", "volts", false, true, true),
       new Column(10, "rainfall", "Rainfall", "mm", false, true, true)};
 
+  private static final String[] TILT_COLUMNS =
+      {"xTilt", "yTilt", "holeTemp", "boxTemp", "instVolt", "rainfall"};
+  private static final String[] TILT_DATA_COLUMNS =
+      {"east", "north", "holeTemp", "boxTemp", "instVolt", "rainfall"};
+  private static final String[] TILT_PAIR_COLUMNS =
+      {"xTilt", "yTilt", "radial", "tangential", "magnitude", "azimuth"};
+
   /**
    * Get database type, generic in this case.
    *
@@ -230,13 +240,30 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
       return new TextResult(getAzimuths());
 
     } else if (action.equals("data")) {
-      int cid = Integer.parseInt(params.get("ch"));
+      int[] cids = parseChannelIds(params.get("ch"));
       int rid = Integer.parseInt(params.get("rk"));
       double st = Double.parseDouble(params.get("st"));
       double et = Double.parseDouble(params.get("et"));
       DownsamplingType ds = DownsamplingType.fromString(params.get("ds"));
       int dsInt = Integer.parseInt(params.get("dsInt"));
-      return getTiltData(cid, rid, st, et, getMaxRows(), ds, dsInt);
+      Set<String> cols = parseColumnNames(params.get("cols"));
+      List<String> known = new ArrayList<String>(Arrays.asList(TILT_COLUMNS));
+      known.addAll(Arrays.asList(TILT_PAIR_COLUMNS));
+      try {
+        checkColumnNames(cols, known);
+      } catch (UtilException e) {
+        return getErrorResult(e.getMessage());
+      }
+      MultiChannelData data = new MultiChannelData();
+      for (int cid : cids) {
+        RequestResult result = getTiltData(cid, rid, st, et, getMaxRows(), ds, dsInt, cols);
+        // errors and empty results end the whole request
+        if (!(result instanceof BinaryResult)) {
+          return result;
+        }
+        data.put(cid, ((BinaryResult) result).getData());
+      }
+      return getChannelDataResult(data);
 
     } else if (action.equals("supptypes")) {
       return getSuppTypes(true);
@@ -265,6 +292,25 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
    */
   public RequestResult getTiltData(int cid, int rid, double st, double et, int maxrows,
       DownsamplingType ds, int dsInt) {
+    return getTiltData(cid, rid, st, et, maxrows, ds, dsInt, null);
+  }
+
+  /**
+   * Get Tilt Station data for some of the columns. The tilt pair is rotated, so xTilt and yTilt
+   * are returned together whenever either of them or a column derived from them is requested.
+   *
+   * @param cid channel id
+   * @param rid rank id
+   * @param st start time
+   * @param et end time
+   * @param maxrows maximum number of rows returned
+   * @param ds downsampling type
+   * @param dsInt downsampling argument
+   * @param cols names of the columns to return, null for all columns
+   * @return request result
+   */
+  public RequestResult getTiltData(int cid, int rid, double st, double et, int maxrows,
+      DownsamplingType ds, int dsInt, Set<String> cols) {
 
     double[] dataRow;
     List<double[]> pts = new ArrayList<double[]>();
@@ -274,36 +320,62 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
     try {
 
       database.useDatabase(dbName);
-      columnsReturned = 8;
 
-      // calculate the num of rows to limit the query to
-      int tempmaxrows;
-      if (rid != 0) {
-        tempmaxrows = maxrows;
-      } else {
-        tempmaxrows = maxrows * defaultGetNumberOfRanks();
+      // data columns to return, and their names in TiltData
+      List<String> names = new ArrayList<String>();
+      List<String> dataColumns = new ArrayList<String>();
+      boolean tilt = cols == null;
+      for (String name : TILT_PAIR_COLUMNS) {
+        tilt |= cols != null && cols.contains(name);
       }
+      for (int i = 0; i < TILT_COLUMNS.length; i++) {
+        if (i < 2 ? tilt : cols == null || cols.contains(TILT_COLUMNS[i])) {
+          names.add(TILT_COLUMNS[i]);
+          dataColumns.add(TILT_DATA_COLUMNS[i]);
+        }
+      }
+      columnsReturned = names.size() + 2;
+
+      // best available data is resolved by the database, one row per j2ksec
+      boolean bestRank = ranks && rid == 0;
 
       // look up the channel code from the channels table, which is the name of the table to query
       Channel channel = defaultGetChannel(cid, channelTypes);
 
+      // translations are applied to the raw rows from the cached translations table, except for
+      // mean downsampling, which has to average translated values
+      boolean sqlTranslations = ranks && rid != 0 && ds.equals(DownsamplingType.MEAN);
+      int columnsRead = sqlTranslations ? columnsReturned : columnsReturned + 1;
+
       // build the sql
-      sql = "SELECT j2ksec, c.rid, "
-          + "   COS(RADIANS(b.azimuth))  * (xTilt * cxTilt + dxTilt) "
-          + "       + SIN(RADIANS(b.azimuth)) * (yTilt * cyTilt + dyTilt), "
-          + "   -SIN(RADIANS(b.azimuth)) * (xTilt * cxTilt + dxTilt) "
-          + "       + COS(RADIANS(b.azimuth)) * (yTilt * cyTilt + dyTilt), "
-          + "   holeTemp * choleTemp + dholeTemp, "
-          + "   boxTemp  * cboxTemp  + dboxTemp,  "
-          + "   instVolt * cinstVolt + dinstVolt, "
-          + "   rainfall * crainfall + drainfall  "
-          + "FROM " + channel.getCode() + " a "
-          + "   INNER JOIN translations  b ON a.tid = b.tid "
-          + "   INNER JOIN ranks         c ON a.rid = c.rid "
+      sql = "SELECT j2ksec, c.rid";
+      if (sqlTranslations) {
+        if (tilt) {
+          sql += ", COS(RADIANS(b.azimuth))  * (xTilt * cxTilt + dxTilt) "
+              + "       + SIN(RADIANS(b.azimuth)) * (yTilt * cyTilt + dyTilt), "
+              + "   -SIN(RADIANS(b.azimuth)) * (xTilt * cxTilt + dxTilt) "
+              + "       + COS(RADIANS(b.azimuth)) * (yTilt * cyTilt + dyTilt)";
+        }
+        for (String name : names.subList(tilt ? 2 : 0, names.size())) {
+          sql += ", " + name + " * c" + name + " + d" + name;
+        }
+        sql += " FROM " + channel.getCode() + " a "
+            + "   INNER JOIN translations  b ON a.tid = b.tid ";
+      } else {
+        for (String name : names) {
+          sql += ", " + name;
+        }
+        sql += ", a.tid FROM " + channel.getCode() + " a ";
+      }
+      sql += "   INNER JOIN ranks         c ON a.rid = c.rid "
+          + (bestRank ? getBestRankSQL("FROM " + channel.getCode() + " a "
+              + "INNER JOIN ranks c ON a.rid = c.rid WHERE j2ksec >= ? AND j2ksec <= ?",
+              "c.rank", "a.j2ksec") : "")
           + "WHERE  j2ksec >= ? "
           + "AND    j2ksec <= ? ";
 
-      sqlCount = "SELECT COUNT(*) FROM (SELECT 1 FROM " + channel.getCode()
+      sqlCount = "SELECT COUNT(*) FROM (SELECT " + (bestRank ? "DISTINCT a.j2ksec" : "1")
+          + " FROM " + channel.getCode()
           + " a INNER JOIN ranks c on a.rid = c.rid ";
       sqlCount += "WHERE j2ksec >= ? AND j2ksec <= ? ";
 
@@ -316,11 +388,6 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
       sql += "ORDER BY j2ksec ASC";
       sqlCount += "ORDER BY j2ksec ASC";
 
-      if (ranks && rid == 0) {
-        sql += ", c.rank DESC";
-        sqlCount += ", c.rank DESC";
-      }
-
       if (ranks && rid != 0) {
         try {
           sql = getDownsamplingSQL(sql, "j2ksec", ds, dsInt);
@@ -330,7 +397,7 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
       }
 
       if (maxrows != 0) {
-        sql += " LIMIT " + (tempmaxrows + 1);
+        sql += " LIMIT " + (maxrows + 1);
 
         // If the dataset has a maxrows paramater, check that the number of requested rows doesn't
         // exceed that number prior to running the full query. This can save a decent amount of time
@@ -339,14 +406,14 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
         // a lot of data and 2) the way MySQL handles the multiple nested queries that would result
         // makes it slower than just doing the full query to begin with.
         if (ds.equals(DownsamplingType.NONE)) {
-          ps = database.getPreparedStatement(sqlCount + " LIMIT " + (tempmaxrows + 1) + ") as T");
+          ps = database.getPreparedStatement(sqlCount + " LIMIT " + (maxrows + 1) + ") as T");
           ps.setDouble(1, st);
           ps.setDouble(2, et);
           if (ranks && rid != 0) {
             ps.setInt(3, rid);
           }
           rs = ps.executeQuery();
-          if (rs.next() && rs.getInt(1) > tempmaxrows) {
+          if (rs.next() && rs.getInt(1) > maxrows) {
             return getErrorResult("Max rows (" + maxrows + " rows) for data source '" + vdxName
                 + "' exceeded. Please use downsampling.");
           }
@@ -362,6 +429,11 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
         if (ranks && rid != 0) {
           ps.setInt(5, rid);
         }
+      } else if (bestRank) {
+        ps.setDouble(1, st);
+        ps.setDouble(2, et);
+        ps.setDouble(3, st);
+        ps.setDouble(4, et);
       } else {
         ps.setDouble(1, st);
         ps.setDouble(2, et);
@@ -373,7 +445,7 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
 
       // Check for the amount of data returned in a downsampled query.
       // Non-downsampled queries are checked above.
-      if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && getResultSetSize(rs) > tempmaxrows) {
+      if (!ds.equals(DownsamplingType.NONE) && maxrows != 0 && getResultSetSize(rs) > maxrows) {
         throw new UtilException("Max rows (" + maxrows + " rows) for source '" + vdxName
             + "' exceeded. Please downsample further.");
       }
@@ -385,8 +457,8 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
 
         // if this is a new j2ksec, then save this data, as it contains the highest rank
         if (Double.compare(tempJ2ksec, rs.getDouble(1)) != 0) {
-          dataRow = new double[columnsReturned];
-          for (int i = 0; i < columnsReturned; i++) {
+          dataRow = new double[columnsRead];
+          for (int i = 0; i < columnsRead; i++) {
             dataRow[i] = getDoubleNullCheck(rs, i + 1);
           }
           pts.add(dataRow);
@@ -395,6 +467,10 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
       }
       rs.close();
 
+      if (!sqlTranslations) {
+        pts = applyTiltTranslations(pts, names.toArray(new String[names.size()]));
+      }
+
       if (pts.size() == 0) {
         dataRow = new double[columnsReturned];
         for (int i = 0; i < columnsReturned; i++) {
@@ -403,7 +479,8 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
         pts.add(dataRow);
       }
 
-      result = new BinaryResult(new TiltData(pts));
+      result = new BinaryResult(new TiltData(pts,
+          cols == null ? null : dataColumns.toArray(new String[dataColumns.size()])));
 
     } catch (Exception e) {
       LOGGER.error("SQLTiltDataSource.getTiltData()", e);
@@ -411,6 +488,58 @@ public class SQLTiltDataSource extends SQLDataSource implements DataSource {
     return result;
   }
 
+  /**
+   * Apply translations to raw tilt rows holding the translation id in their last column, then
+   * rotate the tilt by the translation azimuth. Matches the translated query.
+   *
+   * @param pts raw rows
+   * @param names names of the data columns, after time and rank
+   * @return translated rows, without the translation id
+   */
+  private List<double[]> applyTiltTranslations(List<double[]> pts, String[] names) {
+    boolean tilt = names.length > 1 && names[0].equals(TILT_COLUMNS[0]);
+    List<double[]> result = new ArrayList<double[]>(pts.size());
+    double[] multipliers = new double[names.length];
+    double[] offsets = new double[names.length];
+    double cos = 0;
+    double sin = 0;
+    int lastTid = -1;
+    boolean known = false;
+
+    for (double[] row : pts) {
+      int tid = (int) row[row.length - 1];
+      if (tid != lastTid) {
+        Map<String, Double> translation = defaultGetTranslation(tid);
+        known = translation != null;
+        if (known) {
+          for (int i = 0; i < names.length; i++) {
+            multipliers[i] = translation.get("c" + names[i]);
+            offsets[i] = translation.get("d" + names[i]);
+          }
+          cos = Math.cos(Math.toRadians(translation.get("azimuth")));
+          sin = Math.sin(Math.toRadians(translation.get("azimuth")));
+        }
+        lastTid = tid;
+      }
+      if (known) {
+        double[] translated = new double[names.length + 2];
+        translated[0] = row[0];
+        translated[1] = row[1];
+        for (int i = 0; i < names.length; i++) {
+          translated[i + 2] = row[i + 2] * multipliers[i] + offsets[i];
+        }
+        if (tilt) {
+          double x = translated[2];
+          double y = translated[3];
+          translated[2] = cos * x + sin * y;
+          translated[3] = -sin * x + cos * y;
+        }
+        result.add(translated);
+      }
+    }
+    return result;
+  }
+
   /**
    * Get azimuths list in format "cid:azimuth" from database.
    *
@@ -6,7 +6,7 @@ import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.linalg.Algebra;
 
-import gov.usgs.volcanoes.core.data.GenericDataMatrix;
+import gov.usgs.volcanoes.vdx.data.ProjectedDataMatrix;
 
 import java.util.List;
 
@@ -16,7 +16,10 @@ import java.util.List;
  * @author Dan Cervelli
  * @author Loren Antolik
  */
-public class TiltData extends GenericDataMatrix {
+public class TiltData extends ProjectedDataMatrix {
+
+  private static final String[] DATA_COLUMNS =
+      {"east", "north", "holeTemp", "boxTemp", "instVolt", "rainfall"};
 
   /**
    * Default constructor.
@@ -31,21 +34,26 @@ public class TiltData extends GenericDataMatrix {
    * @param pts list of raws, each of them is double[3]
    */
   public TiltData(List<double[]> pts) {
-    super(pts);
+    super(pts, null);
   }
 
   /**
-   * Set predefined column names: time/east/north.
+   * Constructor for a subset of the data columns.
+   *
+   * @param pts list of rows: time, rank and the data columns held
+   * @param dataColumns names of the data columns held, null if all of them
+   */
+  public TiltData(List<double[]> pts, String[] dataColumns) {
+    super(pts, dataColumns);
+  }
+
+  /**
+   * Get predefined data column names: east/north/holeTemp/boxTemp/instVolt/rainfall.
+   *
+   * @return data column names
    */
-  public void setColumnNames() {
-    columnMap.put("time", 0);
-    columnMap.put("rank", 1);
-    columnMap.put("east", 2);
-    columnMap.put("north", 3);
-    columnMap.put("holeTemp", 4);
-    columnMap.put("boxTemp", 5);
-    columnMap.put("instVolt", 6);
-    columnMap.put("rainfall", 7);
+  protected String[] getDefaultDataColumns() {
+    return DATA_COLUMNS;
   }
 
   /**
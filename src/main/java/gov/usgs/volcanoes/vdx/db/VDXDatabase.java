@@ -21,8 +21,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,7 +33,7 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Keeps SQL database-related information needed to make connection.
- * Not thread-safe.
+ * Not thread-safe, except for {@link #cancel()}.
  * TODO: refactor so VDXDatabase and WinstonDatabase derive from a common source.
  *
  * @author Dan Cervelli
@@ -42,11 +44,14 @@ public class VDXDatabase {
   private static final String DEFAULT_CONFIG_FILE = "VDX.config";
   private static final String CURRENT_SCHEMA_VERSION = "1.0.0";
   private static final String DEFAULT_DATABASE_PREFIX = "V";
+  private static final long VALIDATE_MS = 30000;
+  private static final int VALIDATE_TIMEOUT = 3;
 
   private Connection connection;
   private Statement statement;
 
   private boolean connected;
+  private long validated;
 
   private String dbDriver;
   private String dbUrl;
@@ -55,6 +60,11 @@ public class VDXDatabase {
 
   private Map<String, PreparedStatement> preparedStatements;
 
+  private int queryTimeout;
+  private volatile Statement activeStatement;
+  private VDXDatabase parent;
+  private final List<VDXDatabase> duplicates = new ArrayList<VDXDatabase>();
+
   /**
    * Constructor.
    *
@@ -65,7 +75,7 @@ public class VDXDatabase {
   public VDXDatabase(String driver, String url, String prefix) {
     // logger.finest("New VDXDatabase: " + driver + ":" + url + ":" + prefix);
     dbDriver = driver;
-    dbUrl = url;
+    dbUrl = withBatchRewrite(url);
     if (prefix != null) {
       dbPrefix = prefix;
     }
@@ -103,6 +113,81 @@ public class VDXDatabase {
     return db;
   }
 
+  /**
+   * Let MySQL send batched inserts as multi-row statements, unless the url says otherwise.
+   *
+   * @param url database url
+   * @return url with rewriteBatchedStatements set for MySQL
+   */
+  private static String withBatchRewrite(String url) {
+    if (url == null || !url.startsWith("jdbc:mysql:") || url.contains("rewriteBatchedStatements")) {
+      return url;
+    }
+    return url + (url.indexOf('?') == -1 ? "?" : "&") + "rewriteBatchedStatements=true";
+  }
+
+  /**
+   * Open a separate connection to the same database server, for work that must run alongside
+   * this one. The caller is responsible for closing it.
+   *
+   * @return new database connection
+   */
+  public VDXDatabase duplicate() {
+    VDXDatabase db = new VDXDatabase(dbDriver, dbUrl, dbPrefix);
+    db.setQueryTimeout(queryTimeout);
+    db.parent = this;
+    synchronized (duplicates) {
+      duplicates.add(db);
+    }
+    return db;
+  }
+
+  /**
+   * Set timeout for statements handed out by this database.
+   *
+   * @param seconds timeout in seconds, 0 for no limit
+   */
+  public void setQueryTimeout(int seconds) {
+    queryTimeout = seconds;
+    applyQueryTimeout(statement);
+  }
+
+  /**
+   * Cancel the statement most recently handed out, and those of open duplicates, if they are
+   * running. Called from another thread to abort work nobody waits for any more.
+   */
+  public void cancel() {
+    Statement s = activeStatement;
+    if (s != null) {
+      try {
+        s.cancel();
+      } catch (SQLException e) {
+        LOGGER.warn("Could not cancel statement: {}", e.getMessage());
+      }
+    }
+    synchronized (duplicates) {
+      for (VDXDatabase db : duplicates) {
+        db.cancel();
+      }
+    }
+  }
+
+  /**
+   * Apply the query timeout to a statement.
+   *
+   * @param s statement, may be null
+   */
+  private void applyQueryTimeout(Statement s) {
+    if (s == null) {
+      return;
+    }
+    try {
+      s.setQueryTimeout(queryTimeout);
+    } catch (SQLException e) {
+      LOGGER.warn("Could not set query timeout: {}", e.getMessage());
+    }
+  }
+
   /**
    * Performs database connection.
    */
@@ -113,7 +198,9 @@ public class VDXDatabase {
       DriverManager.setLoginTimeout(3);
       connection = DriverManager.getConnection(dbUrl);
       statement = connection.createStatement();
+      applyQueryTimeout(statement);
       connected = true;
+      validated = System.currentTimeMillis();
       preparedStatements.clear();
     } catch (ClassNotFoundException e) {
       LOGGER.error("Could not load the database driver, check your CLASSPATH.", e);
@@ -130,7 +217,13 @@ public class VDXDatabase {
    * Close database connection.
    */
   public void close() {
-    if (!checkConnect()) {
+    if (parent != null) {
+      synchronized (parent.duplicates) {
+        parent.duplicates.remove(this);
+      }
+    }
+    activeStatement = null;
+    if (!connected) {
       return;
     }
 
@@ -153,12 +246,13 @@ public class VDXDatabase {
   }
 
   /**
-   * Make connection if it was closed.
+   * Make connection if it was closed, or if the server dropped it. Connections idle for a while
+   * are validated first, so long-lived connections survive server restarts and timeouts.
    *
    * @return true if connected
    */
   public boolean checkConnect(final boolean verbose) {
-    if (connected) {
+    if (connected && !isStale()) {
       return true;
     } else {
       try {
@@ -175,6 +269,38 @@ public class VDXDatabase {
     }
   }
 
+  /**
+   * Check whether the connection was dropped by the server. Validated at most once in
+   * VALIDATE_MS; a dropped connection is closed so it is made again.
+   *
+   * @return true if the connection was dropped
+   */
+  private boolean isStale() {
+    long now = System.currentTimeMillis();
+    if (now - validated < VALIDATE_MS) {
+      return false;
+    }
+    try {
+      if (connection.isValid(VALIDATE_TIMEOUT)) {
+        validated = now;
+        return false;
+      }
+    } catch (SQLException e) {
+      // treated as dropped
+    }
+    LOGGER.warn("Database connection was dropped, reconnecting.");
+    try {
+      statement.close();
+      connection.close();
+    } catch (Exception e) {
+      // already unusable
+    }
+    connection = null;
+    statement = null;
+    connected = false;
+    return true;
+  }
+
   /**
    * Check if connection active.
    *
@@ -199,6 +325,7 @@ public class VDXDatabase {
    * @return statement
    */
   public Statement getStatement() {
+    activeStatement = statement;
     return statement;
   }
 
@@ -219,6 +346,7 @@ public class VDXDatabase {
 
         public boolean attempt() throws UtilException {
           try {
+            activeStatement = statement;
             statement.execute(sql);
             result = Boolean.valueOf(true);
             return true;
@@ -252,6 +380,7 @@ public class VDXDatabase {
 
         public boolean attempt() {
           try {
+            activeStatement = statement;
             result = statement.executeQuery(sql);
             return true;
           } catch (SQLException e) {
@@ -400,8 +529,10 @@ public class VDXDatabase {
       PreparedStatement ps = preparedStatements.get(sql);
       if (ps == null) {
         ps = connection.prepareStatement(sql);
+        applyQueryTimeout(ps);
         preparedStatements.put(sql, ps);
       }
+      activeStatement = ps;
       return ps;
     } catch (Exception e) {
       LOGGER.error("Could not prepare statement.", e);
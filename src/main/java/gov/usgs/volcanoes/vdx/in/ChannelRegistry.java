@@ -0,0 +1,96 @@
+package gov.usgs.volcanoes.vdx.in;
+
+import gov.usgs.volcanoes.vdx.data.Channel;
+import gov.usgs.volcanoes.vdx.data.SQLDataSource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Channels known to exist in a data source, with their translation ids. Loaded once, and updated
+ * as the importer creates channels or changes their translations, so importing rows of known
+ * channels needs no metadata queries. The translation ids are handed to the data source, which
+ * uses them when inserting data.
+ */
+public class ChannelRegistry {
+
+  private final SQLDataSource sqlDataSource;
+  private final Map<String, Integer> translationIds;
+
+  /**
+   * Constructor. Reads the channels of the data source.
+   *
+   * @param sqlDataSource data source
+   */
+  public ChannelRegistry(SQLDataSource sqlDataSource) {
+    this.sqlDataSource = sqlDataSource;
+    if (sqlDataSource.getTranslationsFlag()) {
+      translationIds = sqlDataSource.defaultGetChannelTranslationIds();
+      sqlDataSource.setKnownTranslationIds(translationIds);
+    } else {
+      translationIds = new HashMap<String, Integer>();
+      List<Channel> channels =
+          sqlDataSource.defaultGetChannelsList(sqlDataSource.getChannelTypesFlag());
+      for (Channel channel : channels) {
+        translationIds.put(channel.getCode(), 1);
+      }
+    }
+  }
+
+  /**
+   * Create a channel with default settings and the default translation, unless it is known.
+   *
+   * @param channelCode channel code
+   * @return true if the channel exists
+   */
+  public boolean ensureChannel(String channelCode) {
+    if (translationIds.containsKey(channelCode)) {
+      return true;
+    }
+
+    // another importer may have created it since the channels were read
+    int tid = 1;
+    if (sqlDataSource.defaultGetChannel(channelCode, sqlDataSource.getChannelTypesFlag())
+        == null) {
+      if (!sqlDataSource.defaultCreateChannel(
+          new Channel(0, channelCode, channelCode, Double.NaN, Double.NaN, Double.NaN, 1), 1,
+          sqlDataSource.getChannelsFlag(), sqlDataSource.getTranslationsFlag(),
+          sqlDataSource.getRanksFlag(), sqlDataSource.getColumnsFlag())) {
+        return false;
+      }
+    } else if (sqlDataSource.getTranslationsFlag()) {
+      tid = sqlDataSource.defaultGetChannelTranslationId(channelCode);
+    }
+    translationIds.put(channelCode, tid);
+    return true;
+  }
+
+  /**
+   * Get the translation id of a channel.
+   *
+   * @param channelCode channel code
+   * @return translation id, 1 if not found
+   */
+  public int getTranslationId(String channelCode) {
+    Integer tid = translationIds.get(channelCode);
+    if (tid == null) {
+      tid = sqlDataSource.defaultGetChannelTranslationId(channelCode);
+    }
+    return tid;
+  }
+
+  /**
+   * Set the translation id of a channel, if it differs from the current one. The data source
+   * inserts rows with the new id from then on.
+   *
+   * @param channelCode channel code
+   * @param tid new translation id
+   */
+  public void setTranslationId(String channelCode, int tid) {
+    if (tid != getTranslationId(channelCode)
+        && sqlDataSource.defaultUpdateChannelTranslationId(channelCode, tid)) {
+      translationIds.put(channelCode, tid);
+    }
+  }
+}
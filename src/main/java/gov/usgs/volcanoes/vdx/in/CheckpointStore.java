@@ -0,0 +1,283 @@
+package gov.usgs.volcanoes.vdx.in;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent record of how far files were imported. For each file name it keeps the number of
+ * bytes committed to the database and the md5 hash of those bytes, so a file delivered again
+ * with the same contents is skipped, and a file whose import stopped part way, or that grew
+ * since, is resumed after the committed bytes. A file whose committed bytes changed is imported
+ * from the start. Records not updated for the configured number of days are dropped.
+ *
+ * <p>The store is a text file of one tab separated line per file, rewritten on each commit.
+ * Instances are thread-safe.
+ */
+public class CheckpointStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CheckpointStore.class);
+
+  private final File file;
+  private final long maxAge;
+  private final Map<String, Record> records = new LinkedHashMap<String, Record>();
+
+  /**
+   * Constructor. Reads the store, if it exists.
+   *
+   * @param file store file
+   * @param days days records are kept after their last commit
+   */
+  public CheckpointStore(File file, double days) {
+    this.file = file;
+    this.maxAge = (long) (days * 86400000);
+    if (!file.exists()) {
+      return;
+    }
+    long oldest = System.currentTimeMillis() - maxAge;
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader(
+          new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] parts = line.split("\t");
+        if (parts.length != 4) {
+          continue;
+        }
+        Record record =
+            new Record(Long.parseLong(parts[1]), parts[2], Long.parseLong(parts[3]));
+        if (record.time >= oldest) {
+          records.put(parts[0], record);
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      LOGGER.error("Could not read checkpoints {}, importing files from the start: {}", file,
+          e.getMessage());
+      records.clear();
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // nothing to do
+        }
+      }
+    }
+  }
+
+  /**
+   * Start importing a file. The file's committed bytes are hashed and compared to the record.
+   *
+   * @param importFile file to import
+   * @return checkpoint of the file
+   */
+  public Checkpoint begin(File importFile) {
+    Record record;
+    synchronized (this) {
+      record = records.get(importFile.getName());
+    }
+    Checkpoint checkpoint = new Checkpoint(importFile);
+    if (record == null || record.offset > importFile.length()) {
+      return checkpoint;
+    }
+    try {
+      int last = checkpoint.hash(record.offset);
+      if (!checkpoint.getHash().equals(record.hash)) {
+        LOGGER.info("{} changed since it was imported, importing it from the start",
+            importFile.getName());
+      } else if (record.offset == 0 || last == '\n' || record.offset == importFile.length()) {
+        checkpoint.offset = record.offset;
+        return checkpoint;
+      } else {
+        LOGGER.info("{} grew after a partial line, importing it from the start",
+            importFile.getName());
+      }
+    } catch (IOException e) {
+      LOGGER.error("Could not hash {}, importing it from the start: {}", importFile,
+          e.getMessage());
+    }
+    checkpoint.restart();
+    return checkpoint;
+  }
+
+  /**
+   * Record a commit and rewrite the store.
+   *
+   * @param name file name
+   * @param record committed bytes
+   * @throws IOException if the store can't be written
+   */
+  private synchronized void put(String name, Record record) throws IOException {
+    records.remove(name);
+    records.put(name, record);
+
+    // records are kept in commit order, so the old ones are first
+    long oldest = System.currentTimeMillis() - maxAge;
+    Iterator<Record> it = records.values().iterator();
+    while (it.hasNext() && it.next().time < oldest) {
+      it.remove();
+    }
+
+    File tmp = new File(file.getPath() + ".tmp");
+    Writer out = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+    try {
+      for (Map.Entry<String, Record> entry : records.entrySet()) {
+        Record r = entry.getValue();
+        out.write(entry.getKey() + "\t" + r.offset + "\t" + r.hash + "\t" + r.time + "\n");
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Import progress of one file. Bytes are hashed once as commits advance.
+   */
+  public class Checkpoint {
+
+    private final File importFile;
+    private MessageDigest digest;
+    private long hashed;
+    private long offset;
+
+    /**
+     * Constructor.
+     *
+     * @param importFile file to import
+     */
+    private Checkpoint(File importFile) {
+      this.importFile = importFile;
+      restart();
+    }
+
+    /**
+     * Get the offset to import the file from.
+     *
+     * @return number of bytes already imported
+     */
+    public long getOffset() {
+      return offset;
+    }
+
+    /**
+     * Check whether all of the file was imported.
+     *
+     * @return true if the file is unchanged since it was completely imported
+     */
+    public boolean isImported() {
+      return offset > 0 && offset == importFile.length();
+    }
+
+    /**
+     * Import the file from the start, for importers that can't resume.
+     */
+    public void restart() {
+      try {
+        digest = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+      hashed = 0;
+      offset = 0;
+    }
+
+    /**
+     * Record that the file's first bytes are committed to the database.
+     *
+     * @param committed number of bytes committed, from the start of the file
+     * @throws IOException if the file can't be read or the store can't be written
+     */
+    public void commit(long committed) throws IOException {
+      if (committed <= hashed && hashed > 0) {
+        return;
+      }
+      hash(committed);
+      offset = committed;
+      put(importFile.getName(), new Record(committed, getHash(), System.currentTimeMillis()));
+    }
+
+    /**
+     * Hash the file up to an offset.
+     *
+     * @param end offset to hash to
+     * @return last byte hashed, -1 if none
+     * @throws IOException if the file can't be read
+     */
+    private int hash(long end) throws IOException {
+      int last = -1;
+      RandomAccessFile in = new RandomAccessFile(importFile, "r");
+      try {
+        in.seek(hashed);
+        byte[] buffer = new byte[65536];
+        while (hashed < end) {
+          int n = in.read(buffer, 0, (int) Math.min(buffer.length, end - hashed));
+          if (n == -1) {
+            throw new IOException("file is shorter than " + end + " bytes");
+          }
+          digest.update(buffer, 0, n);
+          hashed += n;
+          last = buffer[n - 1];
+        }
+      } finally {
+        in.close();
+      }
+      return last;
+    }
+
+    /**
+     * Get the hash of the bytes hashed so far.
+     *
+     * @return md5 hash, in hexadecimal
+     */
+    private String getHash() {
+      byte[] bytes;
+      try {
+        bytes = ((MessageDigest) digest.clone()).digest();
+      } catch (CloneNotSupportedException e) {
+        throw new IllegalStateException(e);
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : bytes) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Committed bytes of a file.
+   */
+  private static class Record {
+    private final long offset;
+    private final String hash;
+    private final long time;
+
+    private Record(long offset, String hash, long time) {
+      this.offset = offset;
+      this.hash = hash;
+      this.time = time;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package gov.usgs.volcanoes.vdx.in;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a directory for files to import. Files accepted by the filter that are created, renamed
+ * into the directory or written to are settling until no event was seen for them for the debounce
+ * time; then the callback runs. File systems don't report files being closed, so a writer pausing
+ * longer than the debounce time looks like a complete file.
+ */
+public class DirectoryWatcher implements Runnable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+  private final File dir;
+  private final FileFilter filter;
+  private final long debounce;
+  private final Runnable settled;
+  private final Map<String, Long> settling = new ConcurrentHashMap<String, Long>();
+
+  /**
+   * Constructor.
+   *
+   * @param dir directory to watch
+   * @param filter files of interest
+   * @param debounce time in milliseconds without events after which a file is settled
+   * @param settled run when files settled
+   */
+  public DirectoryWatcher(File dir, FileFilter filter, long debounce, Runnable settled) {
+    this.dir = dir;
+    this.filter = filter;
+    this.debounce = debounce;
+    this.settled = settled;
+  }
+
+  /**
+   * Start watching in a daemon thread.
+   */
+  public void start() {
+    Thread t = new Thread(this, "Scheduler/Watcher");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * Check whether a file is still being written to.
+   *
+   * @param name file name, without directories
+   * @return true if events were seen for the file within the debounce time
+   */
+  public boolean isSettling(String name) {
+    return settling.containsKey(name);
+  }
+
+  /**
+   * Watch the directory until the watch is no longer valid.
+   */
+  @SuppressWarnings("unchecked")
+  public void run() {
+    WatchService watchService;
+    try {
+      watchService = dir.toPath().getFileSystem().newWatchService();
+      dir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+    } catch (IOException e) {
+      LOGGER.error("Could not watch {}, relying on the cycle: {}", dir, e.getMessage());
+      return;
+    }
+    LOGGER.info("watching {}", dir.getAbsolutePath());
+
+    boolean overflow = false;
+    long overflowTime = 0;
+    while (true) {
+      WatchKey key;
+      try {
+        if (settling.isEmpty() && !overflow) {
+          key = watchService.take();
+        } else {
+          key = watchService.poll(Math.max(1, nextDeadline(overflow, overflowTime)
+              - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+      } catch (InterruptedException e) {
+        return;
+      }
+
+      long now = System.currentTimeMillis();
+      if (key != null) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+
+          // events were lost, so let the whole directory settle
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            overflow = true;
+            overflowTime = now;
+            continue;
+          }
+          String name = ((WatchEvent<Path>) event).context().toString();
+          if (filter.accept(new File(dir, name))) {
+            settling.put(name, now);
+          }
+        }
+        if (!key.reset()) {
+          LOGGER.error("{} can no longer be watched, relying on the cycle", dir);
+          return;
+        }
+      }
+
+      // files without events for the debounce time are ready
+      boolean ready = overflow && now - overflowTime >= debounce;
+      Iterator<Map.Entry<String, Long>> it = settling.entrySet().iterator();
+      while (it.hasNext()) {
+        if (now - it.next().getValue() >= debounce) {
+          it.remove();
+          ready = true;
+        }
+      }
+      if (ready) {
+        overflow = false;
+        try {
+          settled.run();
+        } catch (Exception e) {
+          LOGGER.error("Import of watched files failed.", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the time the next settling file or overflow is due.
+   *
+   * @param overflow if events were lost
+   * @param overflowTime time events were lost
+   * @return time in milliseconds
+   */
+  private long nextDeadline(boolean overflow, long overflowTime) {
+    long first = overflow ? overflowTime : Long.MAX_VALUE;
+    for (long time : settling.values()) {
+      first = Math.min(first, time);
+    }
+    return first + debounce;
+  }
+}
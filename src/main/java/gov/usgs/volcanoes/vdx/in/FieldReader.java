@@ -0,0 +1,68 @@
+package gov.usgs.volcanoes.vdx.in;
+
+/**
+ * Reader of delimited lines, giving access to the fields of the current line. Fields are read
+ * without quotes and trimmed.
+ */
+public interface FieldReader {
+
+  /**
+   * Read and split the next line.
+   *
+   * @return false at the end of the input
+   */
+  public boolean next();
+
+  /**
+   * Get the number of fields of the current line.
+   *
+   * @return number of fields
+   */
+  public int size();
+
+  /**
+   * Check whether a field is empty.
+   *
+   * @param i field index
+   * @return true if empty
+   */
+  public boolean isEmpty(int i);
+
+  /**
+   * Get a field as a string.
+   *
+   * @param i field index
+   * @return field value
+   */
+  public String getString(int i);
+
+  /**
+   * Get a field as a number. An empty field or 'NaN' is NaN.
+   *
+   * @param i field index
+   * @return field value
+   * @throws NumberFormatException if the field is not a number
+   */
+  public double getDouble(int i);
+
+  /**
+   * Append a field to a buffer.
+   *
+   * @param i field index
+   * @param sb buffer to append to
+   */
+  public void appendTo(int i, StringBuilder sb);
+
+  /**
+   * Get the byte offset of the current line in the input, or of its end once there are no more
+   * lines.
+   *
+   * @return offset, -1 if not known
+   */
+  public long getOffset();
+
+  /**
+   * Close the input.
+   */
+  public void close();
+}
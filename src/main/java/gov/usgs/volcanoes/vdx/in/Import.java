@@ -11,6 +11,7 @@ import gov.usgs.volcanoes.vdx.data.SQLDataSourceHandler;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -42,7 +43,7 @@ public class Import {
   public String prefix;
   public String url;
 
-  public SimpleDateFormat dateIn;
+  public TimestampParser timestampParser;
   public SimpleDateFormat dateOut;
   public Double j2ksec;
   public Date date;
@@ -50,6 +51,9 @@ public class Import {
   public String filemask;
   public int headerlines;
   public String delimiter;
+  public boolean bulkLoad;
+  public int checkpointLines;
+  public CheckpointStore.Checkpoint checkpoint;
 
   public String fields;
   public String[] fieldArray;
@@ -66,6 +70,7 @@ public class Import {
   public Map<String, String> dataSourceColumnMap;
   public Map<String, String> dataSourceChannelMap;
   public Map<String, Integer> dataSourceRidMap;
+  public Map<String, ChannelRegistry> channelRegistryMap = new HashMap<String, ChannelRegistry>();
 
   public Rank rank;
   public String rankName;
@@ -110,6 +115,9 @@ public class Import {
 
   public CurrentTime currentTime = CurrentTime.getInstance();
 
+  // true if the last file processed was not completely imported
+  public boolean processFailed;
+
   static {
     flags = new HashSet<String>();
     keys = new HashSet<String>();
@@ -118,4 +126,19 @@ public class Import {
     flags.add("-v");
   }
 
+  /**
+   * Get the registry of known channels of a data source. It is read on first use, once the
+   * importer has set up the data source.
+   *
+   * @param dataSource data source name
+   * @return channel registry, null if the data source is not initialized
+   */
+  public ChannelRegistry getChannelRegistry(String dataSource) {
+    ChannelRegistry registry = channelRegistryMap.get(dataSource);
+    if (registry == null && sqlDataSourceMap.get(dataSource) != null) {
+      registry = new ChannelRegistry(sqlDataSourceMap.get(dataSource));
+      channelRegistryMap.put(dataSource, registry);
+    }
+    return registry;
+  }
 }
@@ -6,7 +6,6 @@ import cern.colt.matrix.DoubleMatrix2D;
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.data.GenericDataMatrix;
 import gov.usgs.volcanoes.core.legacy.Arguments;
-import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.ResourceReader;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.vdx.data.Channel;
@@ -15,12 +14,17 @@ import gov.usgs.volcanoes.vdx.data.Rank;
 import gov.usgs.volcanoes.vdx.data.SQLDataSource;
 import gov.usgs.volcanoes.vdx.data.SQLDataSourceHandler;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
-import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +40,11 @@ public class ImportFile extends Import implements Importer {
   private static final Logger LOGGER = LoggerFactory.getLogger(ImportFile.class);
   public ResourceReader rr;
 
+  private LineParser lineParser;
+  private FieldPlan defaultPlan;
+  private Map<String, FieldPlan> channelPlans;
+  private List<Set<String>> dataSourceChannelSets;
+
   /**
    * takes a config file as a parameter and parses it to prepare for importing.
    *
@@ -85,9 +94,8 @@ public class ImportFile extends Import implements Importer {
     prefix = vdxParams.getString("vdx.prefix");
 
     // information related to the time stamps
-    dateIn = new SimpleDateFormat(
-        StringUtils.stringToString(params.getString("timestamp"), "yyyy-MM-dd HH:mm:ss"));
-    dateIn.setTimeZone(
+    timestampParser = new TimestampParser(
+        StringUtils.stringToString(params.getString("timestamp"), "yyyy-MM-dd HH:mm:ss"),
         TimeZone.getTimeZone(StringUtils.stringToString(params.getString("timezone"), "GMT")));
 
     // ImportFile specific directives
@@ -96,6 +104,13 @@ public class ImportFile extends Import implements Importer {
     delimiter = StringUtils.stringToString(params.getString("delimiter"), ",");
     LOGGER.info("filemask:{}/headerlines:{}/delimiter:{}", filemask, headerlines, delimiter);
 
+    // load rows with LOAD DATA instead of inserting them, for backfills
+    bulkLoad = StringUtils.stringToBoolean(params.getString("bulkload"), false);
+
+    // lines between checkpoints, when the scheduler keeps them
+    checkpointLines =
+        Math.max(1, StringUtils.stringToInt(params.getString("checkpointlines"), 100000));
+
     // Import Fields
     fields = StringUtils.stringToString(params.getString("fields"), "");
     if (fields.length() == 0) {
@@ -173,6 +188,9 @@ public class ImportFile extends Import implements Importer {
       // formally get the data source from the list of descriptors.
       // this will initialize the data source which includes db creation
       sqlDataSource = sqlDataSourceDescriptor.getSQLDataSource();
+      if (bulkLoad) {
+        sqlDataSource.setBulkLoad(true);
+      }
 
       // store the reference to the initialized data source in the map of initialized data sources
       sqlDataSourceMap.put(dataSource, sqlDataSource);
@@ -320,13 +338,103 @@ public class ImportFile extends Import implements Importer {
             if (tid == 1) {
               tid = sqlDataSource.defaultInsertTranslation(channel.getCode(), gdm);
             }
-            if (tid != sqlDataSource.defaultGetChannelTranslationId(channel.getCode())) {
-              sqlDataSource.defaultUpdateChannelTranslationId(channel.getCode(), tid);
-            }
+            getChannelRegistry(dataSource).setTranslationId(channel.getCode(), tid);
+          }
+        }
+      }
+    }
+
+    // compile the field definitions, so lines are parsed by index
+    compilePlans();
+  }
+
+  /**
+   * Compile the field definitions of the import and its channels into parse plans, and the
+   * channel lists of the data sources into sets.
+   */
+  private void compilePlans() {
+    lineParser = new LineParser(delimiter);
+    Map<String, FieldPlan> byFields = new HashMap<String, FieldPlan>();
+    defaultPlan = compilePlan(fields);
+    byFields.put(fields, defaultPlan);
+    channelPlans = new HashMap<String, FieldPlan>();
+    for (Map.Entry<String, String> entry : channelFieldMap.entrySet()) {
+      FieldPlan plan = byFields.get(entry.getValue());
+      if (plan == null) {
+        plan = compilePlan(entry.getValue());
+        byFields.put(entry.getValue(), plan);
+      }
+      channelPlans.put(entry.getKey(), plan);
+    }
+
+    dataSourceChannelSets = new ArrayList<Set<String>>();
+    for (int i = 0; i < dataSourceList.size(); i++) {
+      String list = dataSourceChannelMap.get(dataSourceList.get(i));
+      if (list == null || list.length() == 0) {
+        dataSourceChannelSets.add(null);
+      } else {
+        dataSourceChannelSets.add(new HashSet<String>(Arrays.asList(list.split(","))));
+      }
+    }
+  }
+
+  /**
+   * Compile a field definition into a parse plan. Each data source gets the data fields among its
+   * columns, in field order, after the time column.
+   *
+   * @param fieldList comma separated field names
+   * @return parse plan
+   */
+  private FieldPlan compilePlan(String fieldList) {
+    String[] names = fieldList.split(",");
+    FieldPlan plan = new FieldPlan(names.length);
+    int[] timestamps = new int[names.length];
+    int[] data = new int[names.length];
+    int timestampCount = 0;
+    int dataCount = 0;
+    for (int i = 0; i < names.length; i++) {
+      names[i] = names[i].trim();
+      if (names[i].equals("IGNORE")) {
+        continue;
+      } else if (names[i].equals("CHANNEL")) {
+        if (plan.channelField == -1) {
+          plan.channelField = i;
+        }
+      } else if (names[i].equals("TIMESTAMP")) {
+        timestamps[timestampCount++] = i;
+      } else {
+        data[dataCount++] = i;
+      }
+    }
+    plan.timestampFields = Arrays.copyOf(timestamps, timestampCount);
+    plan.dataFields = Arrays.copyOf(data, dataCount);
+
+    plan.columnNames = new String[dataSourceList.size()][];
+    plan.columnFields = new int[dataSourceList.size()][];
+    for (int i = 0; i < dataSourceList.size(); i++) {
+      String dsColumns = dataSourceColumnMap.get(dataSourceList.get(i));
+      if (dsColumns == null) {
+        continue;
+      }
+      List<String> dsColumnList = Arrays.asList(dsColumns.split(","));
+      List<String> columnNames = new ArrayList<String>();
+      List<Integer> columnFields = new ArrayList<Integer>();
+      columnNames.add("j2ksec");
+      for (int j = 0; j < dataCount; j++) {
+        for (String dsColumn : dsColumnList) {
+          if (dsColumn.equals(names[data[j]])) {
+            columnNames.add(dsColumn);
+            columnFields.add(data[j]);
           }
         }
       }
+      plan.columnNames[i] = columnNames.toArray(new String[columnNames.size()]);
+      plan.columnFields[i] = new int[columnFields.size()];
+      for (int j = 0; j < columnFields.size(); j++) {
+        plan.columnFields[i][j] = columnFields.get(j);
+      }
     }
+    return plan;
   }
 
   /**
@@ -334,45 +442,51 @@ public class ImportFile extends Import implements Importer {
    */
   public void process(String filename) {
 
+    // count failed inserts, so a file is only reported as imported once all of it is committed
+    processFailed = false;
+    int failures = getInsertFailures();
+    long endOffset = -1;
+
     try {
 
       // instantiate variables used by this method
-      HashMap<Integer, ColumnValue> columnValueMap = new HashMap<Integer, ColumnValue>();
-      ColumnValue columnValue;
-      String name;
-      String line;
-      int count;
+      boolean hasLine;
       int lineNumber;
-      double value;
       boolean channelCodeFromFilename = false;
 
       // check that the file exists
-      ResourceReader rr = ResourceReader.getResourceReader(filename);
-      if (rr == null) {
+      FieldReader reader = openReader(filename);
+      if (reader == null) {
         LOGGER.error("skipping: {} (resource is invalid)", filename);
         return;
       }
 
       // make a short file name.  we'll use this later on
       String shortFilename = filename.substring(filename.lastIndexOf("/") + 1);
+      boolean resumed = checkpoint != null && checkpoint.getOffset() > 0;
 
       // move to the first line in the file
-      line = rr.nextLine();
+      hasLine = reader.next();
       lineNumber = 0;
 
       // check that the file has data
-      if (line == null) {
+      if (!hasLine) {
         LOGGER.error("skipping: {} (resource is empty)", filename);
+        reader.close();
         return;
       }
 
       LOGGER.info("");
-      LOGGER.info("importing: {}", filename);
+      if (resumed) {
+        LOGGER.info("resuming: {} at byte {}", filename, checkpoint.getOffset());
+      } else {
+        LOGGER.info("importing: {}", filename);
+      }
 
       // reset the channel code, as it will be derived from the filename,
       // and not the config file, or the contents of the file
       channelCode = "";
-      fieldMap = defaultFieldMap;
+      FieldPlan basePlan = defaultPlan;
 
       // if a filename mask is defined, then get the channel code from it
       if (filemask.length() > 0) {
@@ -380,19 +494,17 @@ public class ImportFile extends Import implements Importer {
         // filename mask can be shorter than the filename, but not longer
         if (filemask.length() > shortFilename.length()) {
           LOGGER.error("skipping: {} (bad filename mask)", filename);
+          reader.close();
           return;
         }
 
         // build up the channel code from the mask
-        for (int i = 0; i < filemask.length(); i++) {
-          if (String.valueOf(filemask.charAt(i)).equals("C")) {
-            channelCode = channelCode + String.valueOf(shortFilename.charAt(i));
-          }
-        }
+        channelCode = getChannelCode(filemask, shortFilename);
 
         // lookup custom fields for this channel if they exist
-        if (channelCode.length() == 0) {
+        if (channelCode == null) {
           LOGGER.error("skipping: {} (filename does not contain channel code)", filename);
+          reader.close();
           return;
         }
 
@@ -400,131 +512,102 @@ public class ImportFile extends Import implements Importer {
 
         // indicate the channel code came from the file name and look up it's fields if they exist
         channelCodeFromFilename = true;
-        channelFields = channelFieldMap.get(channelCode);
-        if (channelFields != null) {
-          fieldArray = channelFields.split(",");
-          fieldMap = new HashMap<Integer, String>();
-          for (int i = 0; i < fieldArray.length; i++) {
-            fieldMap.put(i, fieldArray[i].trim());
-          }
+        if (channelPlans.get(channelCode) != null) {
+          basePlan = channelPlans.get(channelCode);
         }
       }
 
-      // if any header lines are defined then skip them
-      if (headerlines > 0) {
+      // if any header lines are defined then skip them, unless they were imported before
+      if (headerlines > 0 && !resumed) {
         LOGGER.info("skipping {} header lines", headerlines);
         for (int i = 0; i < headerlines; i++) {
-          line = rr.nextLine();
+          hasLine = reader.next();
           lineNumber++;
         }
       }
 
       // we are now at the first row of data.  time to import!
       StringBuilder tsValue = new StringBuilder();
-      while (line != null) {
+      int checkpointLine = lineNumber;
+      while (hasLine) {
+
+        // now and then commit the lines before this one, so a stopped import resumes here
+        if (checkpoint != null && lineNumber - checkpointLine >= checkpointLines) {
+          commitCheckpoint(reader.getOffset(), failures);
+          checkpointLine = lineNumber;
+        }
 
         // increment the line number variable
         lineNumber++;
 
-        // split the data row into an ordered list. be sure to use the two argument split,
+        // the data row was split into fields as it was read. trailing empty fields are kept,
         // as some lines may have many trailing delimiters
-        Pattern p = Pattern.compile(delimiter);
-        String[] valueArray = p.split(line, -1);
-        HashMap<Integer, String> valueMap = new HashMap<Integer, String>();
-        for (int i = 0; i < valueArray.length; i++) {
-          valueMap.put(i, valueArray[i].replaceAll("[\'\"]", "").trim());
-        }
+        int size = reader.size();
+        FieldPlan plan = basePlan;
 
         // make sure the data row matches the defined data columns
-        if (fieldMap.size() > valueMap.size()) {
+        if (plan.size > size) {
           LOGGER.error("line {} has too few values", lineNumber);
-          line = rr.nextLine();
+          hasLine = reader.next();
           continue;
         }
 
         // if the channel code has not been defined in the filename, then it is in the line
         if (!channelCodeFromFilename) {
 
-          // default the channel code to empty
-          channelCode = "";
-
           // look up the channel code in the line
-          for (int i = 0; i < fieldMap.size(); i++) {
-            name = fieldMap.get(i);
-            if (name.equals("CHANNEL")) {
-              channelCode = valueMap.get(i);
-              break;
-            }
-          }
+          channelCode = plan.channelField == -1 ? "" : reader.getString(plan.channelField);
 
           // validate the channel code
           if (channelCode.length() == 0) {
             LOGGER.error("line {} does not contain a channel code", lineNumber);
-            line = rr.nextLine();
+            hasLine = reader.next();
             continue;
+          }
 
-          } else {
-
-            // look up the field definition for this channel code
-            channelFields = channelFieldMap.get(channelCode);
-            if (channelFields != null) {
-              fieldArray = channelFields.split(",");
-              fieldMap = new HashMap<Integer, String>();
-              for (int i = 0; i < fieldArray.length; i++) {
-                fieldMap.put(i, fieldArray[i].trim());
-              }
-            } else {
-              fieldMap = defaultFieldMap;
-            }
+          // look up the field definition for this channel code
+          plan = channelPlans.get(channelCode);
+          if (plan == null) {
+            plan = defaultPlan;
           }
+          if (plan.size > size) {
+            LOGGER.error("line {} has too few values", lineNumber);
+            hasLine = reader.next();
+            continue;
+          }
+        }
+
+        // a CHANNEL field of the line's own definition overrides the code found so far
+        if (plan.channelField != -1
+            && (channelCodeFromFilename || plan.channelField != basePlan.channelField)) {
+          channelCode = reader.getString(plan.channelField);
         }
 
         // try to parse the values from this data line
-        count = 0;
-        tsValue.setLength(0);
         try {
-          for (int i = 0; i < fieldMap.size(); i++) {
-            name = fieldMap.get(i);
-
-            // skip IGNORE columns
-            if (name.equals("IGNORE")) {
-              continue;
-
-              // parse out the CHANNEL
-            } else if (name.equals("CHANNEL")) {
-              channelCode = valueMap.get(i);
-              continue;
-
-              // parse out the TIMESTAMP
-            } else if (name.equals("TIMESTAMP")) {
-              tsValue.append(valueMap.get(i)).append(" ");
-              continue;
-
-              // elements that are neither IGNORE nor CHANNELS nor TIMESTAMPS are DATA
-            } else {
-              if (valueMap.get(i).length() == 0 || valueMap.get(i).equalsIgnoreCase("NAN")) {
-                value = Double.NaN;
-              } else {
-                value = Double.parseDouble(valueMap.get(i));
-              }
-              columnValue = new ColumnValue(name, value);
-              columnValueMap.put(count, columnValue);
-              count++;
-            }
+          for (int i = 0; i < plan.dataFields.length; i++) {
+            plan.values[plan.dataFields[i]] = reader.getDouble(plan.dataFields[i]);
           }
 
           // any problems with parsing the values for this line should be caught here
         } catch (Exception e) {
           LOGGER.error("line {} parse error", lineNumber);
           LOGGER.error("{}", e.getMessage());
-          line = rr.nextLine();
+          hasLine = reader.next();
           continue;
         }
 
+        // join the TIMESTAMP fields
+        tsValue.setLength(0);
+        for (int i = 0; i < plan.timestampFields.length; i++) {
+          reader.appendTo(plan.timestampFields[i], tsValue);
+          tsValue.append(' ');
+        }
+
         // make sure that the channel code has something in it
         if (channelCode.length() == 0) {
           LOGGER.error("line {} channel code not found", lineNumber);
-          line = rr.nextLine();
+          hasLine = reader.next();
           continue;
 
           // convert bad sql characters to dollar signs
@@ -537,46 +620,32 @@ public class ImportFile extends Import implements Importer {
         // make sure that the timestamp has something in it
         if (tsValue.length() == 0) {
           LOGGER.error("line {} timestamp not found", lineNumber);
-          line = rr.nextLine();
+          hasLine = reader.next();
           continue;
         }
 
         // convert the time zone of the input date and convert to j2ksec
         try {
-          String timestamp = tsValue.toString().trim();
-          date = dateIn.parse(timestamp);
-          j2ksec = J2kSec.fromDate(date);
+          j2ksec = timestampParser.parse(tsValue);
         } catch (ParseException e) {
           LOGGER.error("line {} timestamp parse error", lineNumber);
-          line = rr.nextLine();
+          hasLine = reader.next();
           continue;
         }
 
         // log the line to the log file that is being imported,
         // now that all potential errors have been caught
 
-        ColumnValue tsColumn = new ColumnValue("j2ksec", j2ksec);
-
         // iterate through each data source that was defined and assign data from this line to it
         for (int i = 0; i < dataSourceList.size(); i++) {
 
           // get the data source name and it's associated sql data source
           dataSource = dataSourceList.get(i);
-          channels = dataSourceChannelMap.get(dataSource);
-
-          // lookup in the channels map to see if we are filtering on stations
-          boolean channelMemberOfDataSource = false;
-          if (channels.length() > 0) {
-            dsChannelArray = channels.split(",");
-            for (int j = 0; j < dsChannelArray.length; j++) {
-              if (dsChannelArray[j].equals(channelCode)) {
-                channelMemberOfDataSource = true;
-                continue;
-              }
-            }
-            if (!channelMemberOfDataSource) {
-              continue;
-            }
+
+          // lookup in the channels set to see if we are filtering on stations
+          Set<String> channelSet = dataSourceChannelSets.get(i);
+          if (channelSet != null && !channelSet.contains(channelCode)) {
+            continue;
           }
 
           // check that the sql data source was initialized properly above
@@ -586,24 +655,17 @@ public class ImportFile extends Import implements Importer {
             continue;
           }
 
-          // channel for this data source.  create it if it doesn't exist
-          if (sqlDataSource.getChannelsFlag()) {
-            if (sqlDataSource.defaultGetChannel(channelCode, sqlDataSource.getChannelTypesFlag())
-                == null) {
-              sqlDataSource.defaultCreateChannel(
-                  new Channel(0, channelCode, channelCode, Double.NaN, Double.NaN, Double.NaN, 1),
-                  1,
-                  sqlDataSource.getChannelsFlag(), sqlDataSource.getTranslationsFlag(),
-                  sqlDataSource.getRanksFlag(), sqlDataSource.getColumnsFlag());
-            }
+          // columns for this data source
+          int[] columnFields = plan.columnFields[i];
+          if (columnFields == null) {
+            continue;
           }
 
-          // columns for this data source
-          columns = dataSourceColumnMap.get(dataSource);
-          columnArray = columns.split(",");
-          HashMap<Integer, String> dsColumnMap = new HashMap<Integer, String>();
-          for (int j = 0; j < columnArray.length; j++) {
-            dsColumnMap.put(j, columnArray[j]);
+          // channel for this data source.  create it if it isn't known to exist
+          // the registry also supplies the translation id when the data is inserted
+          ChannelRegistry registry = getChannelRegistry(dataSource);
+          if (sqlDataSource.getChannelsFlag()) {
+            registry.ensureChannel(channelCode);
           }
 
           // rank for this data source.  this should already exist in the database
@@ -613,58 +675,127 @@ public class ImportFile extends Import implements Importer {
             rid = 1;
           }
 
-          // create a data entry map for this data source, with the columns that it wants
-          HashMap<Integer, ColumnValue> dataSourceEntryMap = new HashMap<Integer, ColumnValue>();
-          count = 0;
-          dataSourceEntryMap.put(count, tsColumn);
-          count++;
-
-          // store the remaining data columns
-          for (int j = 0; j < columnValueMap.size(); j++) {
-            columnValue = columnValueMap.get(j);
-            name = columnValue.columnName;
-            value = columnValue.columnValue;
-            for (int k = 0; k < dsColumnMap.size(); k++) {
-              if (name.equals(dsColumnMap.get(k))) {
-                dataSourceEntryMap.put(count, columnValue);
-                count++;
-              }
-            }
-          }
-
-          // put the list of entries a double matrix and create a column names array
-          DoubleMatrix2D dm = DoubleFactory2D.dense.make(1, dataSourceEntryMap.size());
-          String[] columnNames = new String[dataSourceEntryMap.size()];
-          for (int j = 0; j < dataSourceEntryMap.size(); j++) {
-            columnValue = dataSourceEntryMap.get(j);
-            name = columnValue.columnName;
-            value = columnValue.columnValue;
-            columnNames[j] = name;
-            dm.setQuick(0, j, value);
+          // the row is kept until it is inserted, so each data source gets a new one
+          double[] row = new double[columnFields.length + 1];
+          row[0] = j2ksec;
+          for (int j = 0; j < columnFields.length; j++) {
+            row[j + 1] = plan.values[columnFields[j]];
           }
 
-          // assign the double matrix and column names to a generic data matrix
-          GenericDataMatrix gdm = new GenericDataMatrix(dm);
-          gdm.setColumnNames(columnNames);
-
-          // insert the data to the database
-          sqlDataSource.defaultInsertData(channelCode, gdm, sqlDataSource.getTranslationsFlag(),
-              sqlDataSource.getRanksFlag(), rid);
+          // queue the data for insertion to the database
+          sqlDataSource.defaultBufferRow(channelCode, plan.columnNames[i], row,
+              sqlDataSource.getTranslationsFlag(), sqlDataSource.getRanksFlag(), rid);
         }
 
         // go to the next line
-        line = rr.nextLine();
+        hasLine = reader.next();
       }
 
       // close the resource
-      rr.close();
+      endOffset = reader.getOffset();
+      reader.close();
 
       // catch exceptions
     } catch (Exception e) {
       LOGGER.error("ImportFile.process({}) failed.", filename, e);
+      processFailed = true;
+    }
+
+    // insert the rows still queued, including those parsed before any failure
+    for (SQLDataSource sds : sqlDataSourceMap.values()) {
+      sds.flushInsertData();
+    }
+    if (getInsertFailures() != failures) {
+      processFailed = true;
+    } else if (!processFailed) {
+      commitCheckpoint(endOffset, failures);
     }
   }
 
+  /**
+   * Insert the queued rows and record in the checkpoint that the file is imported up to an
+   * offset, unless an insert of the file failed.
+   *
+   * @param offset offset of the first line not imported, -1 if not known
+   * @param failures number of failed inserts before the file
+   */
+  private void commitCheckpoint(long offset, int failures) {
+    if (checkpoint == null || offset < 0) {
+      return;
+    }
+    for (SQLDataSource sds : sqlDataSourceMap.values()) {
+      sds.flushInsertData();
+    }
+    if (getInsertFailures() != failures) {
+      return;
+    }
+    try {
+      checkpoint.commit(offset);
+    } catch (IOException e) {
+      LOGGER.warn("Could not record a checkpoint: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Open a file for reading its fields, from the checkpoint if there is one. Local files with a
+   * single character delimiter are memory mapped and parsed from their bytes, other resources
+   * are read line by line, from the start.
+   *
+   * @param filename file name or resource locator
+   * @return field reader, or null if the resource is invalid
+   */
+  private FieldReader openReader(String filename) {
+    File file = new File(filename);
+    long offset = checkpoint == null ? 0 : checkpoint.getOffset();
+    if (file.isFile() && LineParser.isLiteral(delimiter) && delimiter.charAt(0) < 128) {
+      try {
+        return new MappedFieldReader(file, delimiter.charAt(0), offset);
+      } catch (IOException e) {
+        LOGGER.warn("could not map {}, reading it by line: {}", filename, e.getMessage());
+      }
+    }
+    if (offset > 0) {
+      LOGGER.info("{} can only be read from the start", filename);
+      checkpoint.restart();
+    }
+    ResourceReader rr = ResourceReader.getResourceReader(filename);
+    return rr == null ? null : new ResourceFieldReader(rr, lineParser);
+  }
+
+  /**
+   * Get the number of failed inserts of all data sources.
+   *
+   * @return number of failed inserts
+   */
+  private int getInsertFailures() {
+    int failures = 0;
+    for (SQLDataSource sds : sqlDataSourceMap.values()) {
+      failures += sds.getInsertFailures();
+    }
+    return failures;
+  }
+
+  /**
+   * Get the channel code of a file from its name: the characters at the positions of 'C' in the
+   * filename mask.
+   *
+   * @param filemask filename mask
+   * @param filename file name, without directories
+   * @return channel code, or null if the channel isn't part of the file name
+   */
+  public static String getChannelCode(String filemask, String filename) {
+    if (filemask == null || filemask.length() == 0 || filemask.length() > filename.length()) {
+      return null;
+    }
+    StringBuilder code = new StringBuilder();
+    for (int i = 0; i < filemask.length(); i++) {
+      if (filemask.charAt(i) == 'C') {
+        code.append(filename.charAt(i));
+      }
+    }
+    return code.length() == 0 ? null : code.toString();
+  }
+
   /**
    * Output help to command line.
    *
@@ -710,5 +841,22 @@ public class ImportFile extends Import implements Importer {
 
     importer.deinitialize();
   }
-}
 
+  /**
+   * Parse plan of a field definition, by field index.
+   */
+  private static class FieldPlan {
+    private final int size;
+    private final double[] values;
+    private int channelField = -1;
+    private int[] timestampFields;
+    private int[] dataFields;
+    private String[][] columnNames;
+    private int[][] columnFields;
+
+    private FieldPlan(int size) {
+      this.size = size;
+      this.values = new double[size];
+    }
+  }
+}
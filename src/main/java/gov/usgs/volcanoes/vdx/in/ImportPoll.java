@@ -410,9 +410,7 @@ public class ImportPoll extends Import implements Importer {
             if (tid == 1) {
               tid = sqlDataSource.defaultInsertTranslation(channel.getCode(), gdm);
             }
-            if (tid != sqlDataSource.defaultGetChannelTranslationId(channel.getCode())) {
-              sqlDataSource.defaultUpdateChannelTranslationId(channel.getCode(), tid);
-            }
+            getChannelRegistry(dataSource).setTranslationId(channel.getCode(), tid);
           }
         }
       }
@@ -465,8 +463,8 @@ public class ImportPoll extends Import implements Importer {
         lastDataTime = stationLastDataTimeMap.get(stationCode);
 
         // initialize data objects related to this device
-        dateIn = new SimpleDateFormat(device.getTimestamp());
-        dateIn.setTimeZone(TimeZone.getTimeZone(device.getTimezone()));
+        timestampParser = new TimestampParser(device.getTimestamp(),
+            TimeZone.getTimeZone(device.getTimezone()));
 
         // default some variables used in the loop
         tries = 0;
@@ -657,9 +655,7 @@ public class ImportPoll extends Import implements Importer {
 
             // convert the time zone of the input date and convert to j2ksec
             try {
-              String timestamp = tsValue.toString().trim();
-              date = dateIn.parse(timestamp);
-              j2ksec = J2kSec.fromDate(date);
+              j2ksec = timestampParser.parse(tsValue.toString().trim());
             } catch (ParseException e) {
               LOGGER.error("line {} timestamp parse error", lineNumber);
               continue;
@@ -700,16 +696,11 @@ public class ImportPoll extends Import implements Importer {
                 continue;
               }
 
-              // channel for this data source. create it if it doesn't exist
+              // channel for this data source. create it if it isn't known to exist
+              // the registry also supplies the translation id when the data is inserted
+              ChannelRegistry registry = getChannelRegistry(dataSource);
               if (sqlDataSource.getChannelsFlag()) {
-                if (sqlDataSource.defaultGetChannel(channelCode,
-                    sqlDataSource.getChannelTypesFlag()) == null) {
-                  sqlDataSource.defaultCreateChannel(
-                      new Channel(0, channelCode, channelCode, Double.NaN, Double.NaN, Double.NaN,
-                          1),
-                      1, sqlDataSource.getChannelsFlag(), sqlDataSource.getTranslationsFlag(),
-                      sqlDataSource.getRanksFlag(), sqlDataSource.getColumnsFlag());
-                }
+                registry.ensureChannel(channelCode);
               }
 
               // columns for this data source
@@ -766,11 +757,16 @@ public class ImportPoll extends Import implements Importer {
               GenericDataMatrix gdm = new GenericDataMatrix(dm);
               gdm.setColumnNames(columnNames);
 
-              // insert the data to the database
-              sqlDataSource.defaultInsertData(channelCode, gdm, sqlDataSource.getTranslationsFlag(),
+              // queue the data for insertion to the database
+              sqlDataSource.defaultBufferData(channelCode, gdm, sqlDataSource.getTranslationsFlag(),
                   sqlDataSource.getRanksFlag(), rid);
             }
 
+            // insert this poll's data before the next poll asks for the last data time
+            for (SQLDataSource sds : sqlDataSourceMap.values()) {
+              sds.flushInsertData();
+            }
+
             // if we made it here then no exceptions were thrown, then we got the data
             done = true;
           }
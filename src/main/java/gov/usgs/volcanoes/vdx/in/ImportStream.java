@@ -6,7 +6,6 @@ import cern.colt.matrix.DoubleMatrix2D;
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.data.GenericDataMatrix;
 import gov.usgs.volcanoes.core.legacy.Arguments;
-import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.Column;
@@ -408,9 +407,7 @@ public class ImportStream extends Import implements Importer {
             if (tid == 1) {
               tid = sqlDataSource.defaultInsertTranslation(channel.getCode(), gdm);
             }
-            if (tid != sqlDataSource.defaultGetChannelTranslationId(channel.getCode())) {
-              sqlDataSource.defaultUpdateChannelTranslationId(channel.getCode(), tid);
-            }
+            getChannelRegistry(dataSource).setTranslationId(channel.getCode(), tid);
           }
         }
       }
@@ -456,8 +453,8 @@ public class ImportStream extends Import implements Importer {
     LOGGER.info("Streaming {} [lastDataTime: {}]", stationCode, dateOut.format(lastDataTime));
 
     // initialize data objects related to this device
-    dateIn = new SimpleDateFormat(device.getTimestamp());
-    dateIn.setTimeZone(TimeZone.getTimeZone(device.getTimezone()));
+    timestampParser = new TimestampParser(device.getTimestamp(),
+        TimeZone.getTimeZone(device.getTimezone()));
 
     // create a connection to the station
     try {
@@ -630,9 +627,7 @@ public class ImportStream extends Import implements Importer {
 
         // convert the timezone of the input date and convert to j2ksec
         try {
-          String timestamp = tsValue.toString().trim();
-          date = dateIn.parse(timestamp);
-          j2ksec = J2kSec.fromDate(date);
+          j2ksec = timestampParser.parse(tsValue.toString().trim());
         } catch (ParseException e) {
           LOGGER.error("line {} timestamp parse error", lineNumber);
           continue;
@@ -667,16 +662,11 @@ public class ImportStream extends Import implements Importer {
             continue;
           }
 
-          // channel for this data source.  create it if it doesn't exist
+          // channel for this data source.  create it if it isn't known to exist
+          // the registry also supplies the translation id when the data is inserted
+          ChannelRegistry registry = getChannelRegistry(dataSource);
           if (sqlDataSource.getChannelsFlag()) {
-            if (sqlDataSource.defaultGetChannel(channelCode, sqlDataSource.getChannelTypesFlag())
-                == null) {
-              sqlDataSource.defaultCreateChannel(
-                  new Channel(0, channelCode, channelCode, Double.NaN, Double.NaN, Double.NaN, 1),
-                  1,
-                  sqlDataSource.getChannelsFlag(), sqlDataSource.getTranslationsFlag(),
-                  sqlDataSource.getRanksFlag(), sqlDataSource.getColumnsFlag());
-            }
+            registry.ensureChannel(channelCode);
           }
 
           // columns for this data source
@@ -728,11 +718,16 @@ public class ImportStream extends Import implements Importer {
           GenericDataMatrix gdm = new GenericDataMatrix(dm);
           gdm.setColumnNames(columnNames);
 
-          // insert the data to the database
-          sqlDataSource.defaultInsertData(channelCode, gdm, sqlDataSource.getTranslationsFlag(),
+          // queue the data for insertion to the database
+          sqlDataSource.defaultBufferData(channelCode, gdm, sqlDataSource.getTranslationsFlag(),
               sqlDataSource.getRanksFlag(), rid);
         }
       }
+
+      // insert the data of this response
+      for (SQLDataSource sds : sqlDataSourceMap.values()) {
+        sds.flushInsertData();
+      }
     }
   }
 
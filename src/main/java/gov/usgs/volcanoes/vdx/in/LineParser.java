@@ -0,0 +1,178 @@
+package gov.usgs.volcanoes.vdx.in;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reusable tokenizer for delimited lines. Splitting a line records the bounds of its fields
+ * instead of building strings; quotes are dropped and surrounding white space is trimmed when a
+ * field is read. A delimiter of one plain character is scanned for directly, anything else is
+ * treated as a regular expression compiled once. Like String.split(line, -1), trailing empty
+ * fields are kept.
+ */
+public class LineParser {
+
+  private static final String REGEX_CHARS = ".$|()[{^?*+\\";
+
+  private final char delimiter;
+  private final Matcher matcher;
+  private final StringBuilder buffer = new StringBuilder();
+  private String line;
+  private int[] starts = new int[16];
+  private int[] ends = new int[16];
+  private int count;
+
+  /**
+   * Constructor.
+   *
+   * @param delimiter field delimiter, a regular expression
+   */
+  public LineParser(String delimiter) {
+    if (isLiteral(delimiter)) {
+      this.delimiter = delimiter.charAt(0);
+      this.matcher = null;
+    } else {
+      this.delimiter = 0;
+      this.matcher = Pattern.compile(delimiter).matcher("");
+    }
+  }
+
+  /**
+   * Check whether a delimiter is a single character matching itself.
+   *
+   * @param delimiter field delimiter, a regular expression
+   * @return true if the delimiter is one plain character
+   */
+  public static boolean isLiteral(String delimiter) {
+    return delimiter.length() == 1 && REGEX_CHARS.indexOf(delimiter.charAt(0)) == -1;
+  }
+
+  /**
+   * Split a line into fields.
+   *
+   * @param line line to split
+   * @return number of fields
+   */
+  public int split(String line) {
+    this.line = line;
+    count = 0;
+    int start = 0;
+    if (matcher == null) {
+      int end;
+      while ((end = line.indexOf(delimiter, start)) != -1) {
+        add(start, end);
+        start = end + 1;
+      }
+    } else {
+      matcher.reset(line);
+      while (matcher.find()) {
+        // a zero width match at the start yields no leading empty field, as in String.split
+        if (matcher.end() == 0) {
+          continue;
+        }
+        add(start, matcher.start());
+        start = matcher.end();
+      }
+    }
+    add(start, line.length());
+    return count;
+  }
+
+  /**
+   * Get the number of fields of the last line split.
+   *
+   * @return number of fields
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Check whether a field is empty once trimmed and unquoted.
+   *
+   * @param i field index
+   * @return true if empty
+   */
+  public boolean isEmpty(int i) {
+    for (int j = starts[i]; j < ends[i]; j++) {
+      char c = line.charAt(j);
+      if (c > ' ' && c != '\'' && c != '"') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get a field as a string, without quotes and trimmed.
+   *
+   * @param i field index
+   * @return field value
+   */
+  public String getString(int i) {
+    buffer.setLength(0);
+    appendTo(i, buffer);
+    return buffer.toString();
+  }
+
+  /**
+   * Get a field as a number. An empty field or 'NaN' is NaN.
+   *
+   * @param i field index
+   * @return field value
+   * @throws NumberFormatException if the field is not a number
+   */
+  public double getDouble(int i) {
+    if (isEmpty(i)) {
+      return Double.NaN;
+    }
+    String value = getString(i);
+    if (value.equalsIgnoreCase("NAN")) {
+      return Double.NaN;
+    }
+    return Double.parseDouble(value);
+  }
+
+  /**
+   * Append a field, without quotes and trimmed, to a buffer.
+   *
+   * @param i field index
+   * @param sb buffer to append to
+   */
+  public void appendTo(int i, StringBuilder sb) {
+    int start = starts[i];
+    int end = ends[i];
+    int mark = sb.length();
+    for (int j = start; j < end; j++) {
+      char c = line.charAt(j);
+      if (c != '\'' && c != '"' && (c > ' ' || sb.length() > mark)) {
+        sb.append(c);
+      }
+    }
+    int last = sb.length();
+    while (last > mark && sb.charAt(last - 1) <= ' ') {
+      last--;
+    }
+    sb.setLength(last);
+  }
+
+  /**
+   * Record the bounds of a field.
+   *
+   * @param start index of the field's first character
+   * @param end index after the field's last character
+   */
+  private void add(int start, int end) {
+    if (count == starts.length) {
+      int[] s = new int[count * 2];
+      int[] e = new int[count * 2];
+      System.arraycopy(starts, 0, s, 0, count);
+      System.arraycopy(ends, 0, e, 0, count);
+      starts = s;
+      ends = e;
+    }
+    starts[count] = start;
+    ends[count] = end;
+    count++;
+  }
+}
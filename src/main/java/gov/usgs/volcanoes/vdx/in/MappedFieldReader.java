@@ -0,0 +1,354 @@
+package gov.usgs.volcanoes.vdx.in;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Field reader of a local file with a single character delimiter, working on the bytes of the
+ * file mapped into memory. Lines are split in place and numbers are parsed from the bytes, so
+ * only text fields read as strings allocate. Files are mapped in windows of WINDOW bytes, which
+ * no line may exceed. Lines end at '\n', with a '\r' before it dropped.
+ */
+public class MappedFieldReader implements FieldReader {
+
+  private static final int WINDOW = 64 * 1024 * 1024;
+  private static final long MAX_EXACT = 1L << 53;
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+      1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long length;
+  private final byte delimiter;
+  private MappedByteBuffer buffer;
+  private long bufferStart;
+  private int position;
+  private long lineOffset;
+  private int[] starts = new int[16];
+  private int[] ends = new int[16];
+  private int count;
+  private byte[] scratch = new byte[64];
+
+  /**
+   * Constructor.
+   *
+   * @param file file to read
+   * @param delimiter field delimiter, an ASCII character
+   * @throws IOException if the file can't be opened or mapped
+   */
+  public MappedFieldReader(File file, char delimiter) throws IOException {
+    this(file, delimiter, 0);
+  }
+
+  /**
+   * Constructor, reading from an offset.
+   *
+   * @param file file to read
+   * @param delimiter field delimiter, an ASCII character
+   * @param offset offset of the first line to read
+   * @throws IOException if the file can't be opened or mapped
+   */
+  public MappedFieldReader(File file, char delimiter, long offset) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+    this.length = channel.size();
+    this.delimiter = (byte) delimiter;
+    this.lineOffset = Math.min(offset, length);
+    try {
+      map(lineOffset);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Read and split the next line.
+   *
+   * @return false at the end of the file
+   * @throws IllegalStateException if the file can't be mapped or a line is too long
+   */
+  public boolean next() {
+    lineOffset = bufferStart + position;
+    if (lineOffset >= length) {
+      lineOffset = length;
+      return false;
+    }
+    int end = position;
+    int limit = buffer.limit();
+    while (end < limit && buffer.get(end) != '\n') {
+      end++;
+    }
+
+    // the line continues past the window, map the next window from its start
+    if (end == limit && bufferStart + limit < length) {
+      if (position == 0) {
+        throw new IllegalStateException("line longer than " + WINDOW + " bytes");
+      }
+      try {
+        map(bufferStart + position);
+      } catch (IOException e) {
+        throw new IllegalStateException("could not map file", e);
+      }
+      return next();
+    }
+
+    int lineEnd = end;
+    if (lineEnd > position && buffer.get(lineEnd - 1) == '\r') {
+      lineEnd--;
+    }
+    split(position, lineEnd);
+    position = end + 1;
+    return true;
+  }
+
+  /**
+   * Get the number of fields of the current line.
+   *
+   * @return number of fields
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Check whether a field is empty.
+   *
+   * @param i field index
+   * @return true if empty
+   */
+  public boolean isEmpty(int i) {
+    for (int j = starts[i]; j < ends[i]; j++) {
+      if (!isBlank(buffer.get(j))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get a field as a string, decoding UTF-8.
+   *
+   * @param i field index
+   * @return field value
+   */
+  public String getString(int i) {
+    int n = 0;
+    for (int j = starts[i]; j < ends[i]; j++) {
+      byte b = buffer.get(j);
+      if (b != '\'' && b != '"' && ((b & 0xff) > ' ' || n > 0)) {
+        if (n == scratch.length) {
+          byte[] bigger = new byte[n * 2];
+          System.arraycopy(scratch, 0, bigger, 0, n);
+          scratch = bigger;
+        }
+        scratch[n++] = b;
+      }
+    }
+    while (n > 0 && (scratch[n - 1] & 0xff) <= ' ') {
+      n--;
+    }
+    return new String(scratch, 0, n, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Get a field as a number. Plain decimal numbers that are exactly representable as a quotient
+   * or product of a 53 bit integer and a power of ten are computed from the bytes, which gives
+   * the same result as Double.parseDouble; anything else is left to it.
+   *
+   * @param i field index
+   * @return field value
+   */
+  public double getDouble(int i) {
+    int start = starts[i];
+    int end = ends[i];
+    while (start < end && isBlank(buffer.get(start))) {
+      start++;
+    }
+    while (end > start && isBlank(buffer.get(end - 1))) {
+      end--;
+    }
+    if (start == end) {
+      return Double.NaN;
+    }
+
+    int j = start;
+    boolean negative = false;
+    byte b = buffer.get(j);
+    if (b == '-' || b == '+') {
+      negative = b == '-';
+      j++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean any = false;
+    boolean point = false;
+    for (; j < end; j++) {
+      b = buffer.get(j);
+      if (b >= '0' && b <= '9') {
+        any = true;
+        if (mantissa != 0 || b != '0') {
+          if (++digits > 18) {
+            return parseDouble(i);
+          }
+          mantissa = mantissa * 10 + (b - '0');
+        }
+        if (point) {
+          exponent--;
+        }
+      } else if (b == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+    if (!any) {
+      return parseDouble(i);
+    }
+    if (j < end && (b == 'e' || b == 'E')) {
+      j++;
+      boolean negativeExponent = false;
+      if (j < end && (buffer.get(j) == '-' || buffer.get(j) == '+')) {
+        negativeExponent = buffer.get(j) == '-';
+        j++;
+      }
+      int e = 0;
+      int start10 = j;
+      for (; j < end && buffer.get(j) >= '0' && buffer.get(j) <= '9' && e < 1000; j++) {
+        e = e * 10 + (buffer.get(j) - '0');
+      }
+      if (j == start10) {
+        return parseDouble(i);
+      }
+      exponent += negativeExponent ? -e : e;
+    }
+    if (j != end || mantissa >= MAX_EXACT || exponent < -22 || exponent > 22) {
+      return parseDouble(i);
+    }
+    double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+        : mantissa * POWERS_OF_TEN[exponent];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Append a field to a buffer, one character per byte.
+   *
+   * @param i field index
+   * @param sb buffer to append to
+   */
+  public void appendTo(int i, StringBuilder sb) {
+    int mark = sb.length();
+    for (int j = starts[i]; j < ends[i]; j++) {
+      int c = buffer.get(j) & 0xff;
+      if (c != '\'' && c != '"' && (c > ' ' || sb.length() > mark)) {
+        sb.append((char) c);
+      }
+    }
+    int last = sb.length();
+    while (last > mark && sb.charAt(last - 1) <= ' ') {
+      last--;
+    }
+    sb.setLength(last);
+  }
+
+  /**
+   * Get the byte offset of the current line in the file, or of its end once there are no more
+   * lines.
+   *
+   * @return offset
+   */
+  public long getOffset() {
+    return lineOffset;
+  }
+
+  /**
+   * Close the file.
+   */
+  public void close() {
+    buffer = null;
+    try {
+      file.close();
+    } catch (IOException e) {
+      // nothing to do
+    }
+  }
+
+  /**
+   * Parse a field with Double.parseDouble.
+   *
+   * @param i field index
+   * @return field value
+   */
+  private double parseDouble(int i) {
+    String value = getString(i);
+    if (value.length() == 0 || value.equalsIgnoreCase("NAN")) {
+      return Double.NaN;
+    }
+    return Double.parseDouble(value);
+  }
+
+  /**
+   * Map a window of the file.
+   *
+   * @param start file offset of the window
+   * @throws IOException if the file can't be mapped
+   */
+  private void map(long start) throws IOException {
+    bufferStart = start;
+    buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, length - start));
+    position = 0;
+  }
+
+  /**
+   * Record the bounds of the fields of a line.
+   *
+   * @param start index of the line's first byte
+   * @param end index after the line's last byte
+   */
+  private void split(int start, int end) {
+    count = 0;
+    for (int j = start; j < end; j++) {
+      if (buffer.get(j) == delimiter) {
+        add(start, j);
+        start = j + 1;
+      }
+    }
+    add(start, end);
+  }
+
+  /**
+   * Record the bounds of a field.
+   *
+   * @param start index of the field's first byte
+   * @param end index after the field's last byte
+   */
+  private void add(int start, int end) {
+    if (count == starts.length) {
+      int[] s = new int[count * 2];
+      int[] e = new int[count * 2];
+      System.arraycopy(starts, 0, s, 0, count);
+      System.arraycopy(ends, 0, e, 0, count);
+      starts = s;
+      ends = e;
+    }
+    starts[count] = start;
+    ends[count] = end;
+    count++;
+  }
+
+  /**
+   * Check whether a byte is white space or a quote, both dropped from fields.
+   *
+   * @param b byte
+   * @return true if blank
+   */
+  private static boolean isBlank(byte b) {
+    return (b & 0xff) <= ' ' || b == '\'' || b == '"';
+  }
+}
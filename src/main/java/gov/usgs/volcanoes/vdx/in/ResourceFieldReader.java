@@ -0,0 +1,102 @@
+package gov.usgs.volcanoes.vdx.in;
+
+import gov.usgs.volcanoes.core.util.ResourceReader;
+
+/**
+ * Field reader of a resource read line by line, for any delimiter and resource locator.
+ */
+public class ResourceFieldReader implements FieldReader {
+
+  private final ResourceReader rr;
+  private final LineParser parser;
+
+  /**
+   * Constructor.
+   *
+   * @param rr resource to read
+   * @param parser parser splitting the lines
+   */
+  public ResourceFieldReader(ResourceReader rr, LineParser parser) {
+    this.rr = rr;
+    this.parser = parser;
+  }
+
+  /**
+   * Read and split the next line.
+   *
+   * @return false at the end of the resource
+   */
+  public boolean next() {
+    String line = rr.nextLine();
+    if (line == null) {
+      return false;
+    }
+    parser.split(line);
+    return true;
+  }
+
+  /**
+   * Get the number of fields of the current line.
+   *
+   * @return number of fields
+   */
+  public int size() {
+    return parser.size();
+  }
+
+  /**
+   * Check whether a field is empty.
+   *
+   * @param i field index
+   * @return true if empty
+   */
+  public boolean isEmpty(int i) {
+    return parser.isEmpty(i);
+  }
+
+  /**
+   * Get a field as a string.
+   *
+   * @param i field index
+   * @return field value
+   */
+  public String getString(int i) {
+    return parser.getString(i);
+  }
+
+  /**
+   * Get a field as a number.
+   *
+   * @param i field index
+   * @return field value
+   */
+  public double getDouble(int i) {
+    return parser.getDouble(i);
+  }
+
+  /**
+   * Append a field to a buffer.
+   *
+   * @param i field index
+   * @param sb buffer to append to
+   */
+  public void appendTo(int i, StringBuilder sb) {
+    parser.appendTo(i, sb);
+  }
+
+  /**
+   * Get the byte offset of the current line, which lines read as text don't tell.
+   *
+   * @return -1
+   */
+  public long getOffset() {
+    return -1;
+  }
+
+  /**
+   * Close the resource.
+   */
+  public void close() {
+    rr.close();
+  }
+}
@@ -11,12 +11,19 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.text.Collator;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,6 +64,13 @@ public class Scheduler {
   public static String fileSuffix;
   public static String filePrefix;
   public static int cycle;
+  public static int workers;
+  public static int maxFailures;
+  public static boolean watch;
+  public static int debounce;
+  public static boolean persistent;
+  public static String filemask;
+  public static CheckpointStore checkpoints;
   public static boolean archive;
   public static boolean delete;
   public static boolean verbose;
@@ -91,6 +105,16 @@ public class Scheduler {
     // output some information about this configuration
     LOGGER.info("importer:   {}", importerName);
     LOGGER.info("cycle:      {}", cycle);
+    LOGGER.info("workers:    {}", workers);
+    LOGGER.info("maxfailures:{}", maxFailures);
+    LOGGER.info("persistent: {}", persistent);
+    LOGGER.info("watch:      {}", watch);
+    if (checkpoints != null) {
+      LOGGER.info("checkpoint: {}", schedulerParams.getString("checkpoints"));
+    }
+    if (watch) {
+      LOGGER.info("debounce:   {} ms", debounce);
+    }
     LOGGER.info("fileprefix: {}", filePrefix);
     LOGGER.info("filesuffix: {}", fileSuffix);
     LOGGER.info("delete:     {}", delete);
@@ -105,9 +129,16 @@ public class Scheduler {
     // instantiate this scheduler class by processing the config file and it's contents
     Scheduler scheduler = new Scheduler();
     Timer timer = new Timer();
+    SchedulerTimerTask task = scheduler.new SchedulerTimerTask();
+
+    // import files as soon as they are complete, the cycle then only rescans for missed ones
+    if (watch) {
+      task.watcher = new DirectoryWatcher(dataDir, new ImportFileFilter(), debounce, task);
+      task.watcher.start();
+    }
 
     // the config file processed okay, so go ahead and start scheduling imports
-    timer.scheduleAtFixedRate(scheduler.new SchedulerTimerTask(), 0, cycle * 1000);
+    timer.scheduleAtFixedRate(task, 0, cycle * 1000);
   }
 
   /**
@@ -143,6 +174,19 @@ public class Scheduler {
     archive = StringUtils.stringToBoolean(schedulerParams.getString("archive"), false);
     delete = StringUtils.stringToBoolean(schedulerParams.getString("delete"), false);
     verbose = StringUtils.stringToBoolean(schedulerParams.getString("verbose"), true);
+    workers = Math.max(1, StringUtils.stringToInt(schedulerParams.getString("workers"), 1));
+    maxFailures =
+        Math.max(1, StringUtils.stringToInt(schedulerParams.getString("maxfailures"), 3));
+    watch = StringUtils.stringToBoolean(schedulerParams.getString("watch"), false);
+    debounce = StringUtils.stringToInt(schedulerParams.getString("debounce"), 2000);
+    persistent = StringUtils.stringToBoolean(schedulerParams.getString("persistent"), false);
+
+    // record how far files were imported, to skip delivered again and resume stopped ones
+    String checkpointFileName = schedulerParams.getString("checkpoints");
+    if (checkpointFileName != null) {
+      checkpoints = new CheckpointStore(new File(checkpointFileName),
+          StringUtils.stringToDouble(schedulerParams.getString("checkpointdays"), 30));
+    }
 
     // validate the importer name
     if (importerName == null) {
@@ -225,6 +269,13 @@ public class Scheduler {
       System.exit(-1);
     }
 
+    // files of a channel are imported in order, so workers need the channel from the file name
+    filemask = new ConfigFile(configFileName).getString("filemask");
+    if (workers > 1 && (filemask == null || filemask.indexOf('C') == -1)) {
+      LOGGER.warn("workers need a filemask with the channel code, importing files one at a time");
+      workers = 1;
+    }
+
     if (archive) {
       if (!archiveDir.isDirectory()) {
         LOGGER.error("{} does not exist", archiveDirName);
@@ -318,8 +369,10 @@ public class Scheduler {
     // instance variables
     private ImportFileFilter importFileFilter;
     private File[] selectedFiles;
-    private File archiveFile;
-    private Importer importer;
+    private DirectoryWatcher watcher;
+    private List<Importer> importers = new ArrayList<Importer>();
+    private Map<String, Integer> failures = new ConcurrentHashMap<String, Integer>();
+    private long configModified;
 
     /**
      * constructor.
@@ -329,12 +382,17 @@ public class Scheduler {
     }
 
     /**
-     * run.
+     * run. Called by the timer and by the directory watcher, one at a time.
      */
-    public void run() {
+    public synchronized void run() {
 
-      // check for new files
-      selectedFiles = dataDir.listFiles(importFileFilter);
+      // check for new files, leaving those still being written to
+      selectedFiles = dataDir.listFiles(new FileFilter() {
+        public boolean accept(File file) {
+          return importFileFilter.accept(file)
+              && (watcher == null || !watcher.isSettling(file.getName()));
+        }
+      });
 
       // sort the array by filename
       Arrays.sort(selectedFiles, new FileComparator());
@@ -346,41 +404,149 @@ public class Scheduler {
 
       // if there are new file, then we can instantiate the class, thus creating a db connection
       // only try and make a db connection if we need one, no need having a connection open
-      // all day long if we only use it for five seconds a day.
+      // all day long if we only use it for five seconds a day. persistent importers keep theirs
+      // open, and their setup done, for frequent cycles.
       if (selectedFiles.length > 0) {
+        checkImporterConfig();
 
-        // instantiate the import class
-        try {
-          importClass = Class.forName(importerName);
-        } catch (ClassNotFoundException e) {
-          LOGGER.error("importer not found");
-          System.exit(-1);
+        // group the files by channel, keeping each group in file name order, so a channel's
+        // failed file holds up only that channel. failure counts of files gone are dropped
+        Map<String, List<File>> channelFiles = new LinkedHashMap<String, List<File>>();
+        Set<String> names = new HashSet<String>();
+        for (File file : selectedFiles) {
+          names.add(file.getName());
+          String channel = ImportFile.getChannelCode(filemask, file.getName());
+          if (channel == null) {
+            channel = "";
+          }
+          List<File> files = channelFiles.get(channel);
+          if (files == null) {
+            files = new ArrayList<File>();
+            channelFiles.put(channel, files);
+          }
+          files.add(file);
+        }
+        failures.keySet().retainAll(names);
+
+        // each worker has its own importer, and so its own db connection, and takes the files
+        // of one channel at a time
+        final ConcurrentLinkedQueue<List<File>> queue =
+            new ConcurrentLinkedQueue<List<File>>(channelFiles.values());
+        int threads = Math.min(workers, channelFiles.size());
+        List<Importer> cycleImporters = getImporters(threads);
+        final Set<Importer> failed = Collections.synchronizedSet(new HashSet<Importer>());
+        if (threads == 1) {
+          importFiles(cycleImporters.get(0), queue, failed);
+        } else {
+          LOGGER.info("importing {} channels with {} workers", channelFiles.size(), threads);
+
+          // importers set up the database, so they are initialized one at a time
+          List<Thread> workerThreads = new ArrayList<Thread>();
+          for (int i = 0; i < threads; i++) {
+            final Importer importer = cycleImporters.get(i);
+            Thread t = new Thread(new Runnable() {
+              public void run() {
+                importFiles(importer, queue, failed);
+              }
+            }, "Scheduler/Worker-" + i);
+            workerThreads.add(t);
+            t.start();
+          }
+          for (Thread t : workerThreads) {
+            try {
+              t.join();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              break;
+            }
+          }
         }
 
-        // this will call the default constructor of the class
-        try {
-          importer = (Importer) importClass.newInstance();
-        } catch (InstantiationException e) {
-          LOGGER.error("{} InstantiationException", importerName);
-          System.exit(-1);
-        } catch (IllegalAccessException e) {
-          LOGGER.error("{} IllegalAccessException", importerName);
-          System.exit(-1);
+        // de-initialize the importers, unless they are kept for the next cycle. kept importers
+        // that failed are made again, as their connection or state may be broken
+        for (Importer importer : cycleImporters) {
+          if (!persistent || failed.contains(importer)) {
+            importer.deinitialize();
+            importers.remove(importer);
+          }
         }
+        if (persistent && !failed.isEmpty()) {
+          LOGGER.info("reinitializing {} importers after failures", failed.size());
+        }
+      }
 
-        // initialize the importer
-        importer.initialize(importerName, configFileName, verbose);
+      // output some loggin info for this iteration
+      LOGGER.info("{} end polling cycle", Time.toDateString(currentTime.now()));
+    }
 
-        // for each of the files we are processing
-        for (File file : selectedFiles) {
+    /**
+     * Import groups of files until none are left. Files of a group are imported in order, and
+     * the rest of a group is left for the next cycle once one of its files fails. A file that
+     * failed maxfailures times is left in place and skipped, so the group's later files go on.
+     *
+     * @param importer initialized importer
+     * @param queue groups of files
+     * @param failed importers a file failed with, this one is added if one does
+     */
+    private void importFiles(Importer importer, ConcurrentLinkedQueue<List<File>> queue,
+        Set<Importer> failed) {
+      List<File> files;
+      while ((files = queue.poll()) != null) {
+        for (File file : files) {
+
+          // leave files that keep failing for an operator to look at
+          Integer count = failures.get(file.getName());
+          if (count != null && count >= maxFailures) {
+            LOGGER.warn("skipping: {} (failed {} times)", file.getAbsolutePath(), count);
+            continue;
+          }
+
+          // skip files imported before, and let importers that can resume one do so
+          CheckpointStore.Checkpoint checkpoint = null;
+          long length = file.length();
+          if (checkpoints != null) {
+            checkpoint = checkpoints.begin(file);
+            if (importer instanceof ImportFile) {
+              ((ImportFile) importer).checkpoint = checkpoint;
+            } else if (checkpoint.getOffset() > 0 && !checkpoint.isImported()) {
+              checkpoint.restart();
+            }
+          }
 
           // process this file through the importer
-          importer.process(file.getAbsolutePath());
+          if (checkpoint != null && checkpoint.isImported()) {
+            LOGGER.info("skipping: {} (imported before)", file.getAbsolutePath());
+          } else {
+            importer.process(file.getAbsolutePath());
+            if (importer instanceof Import && ((Import) importer).processFailed) {
+              failed.add(importer);
+              count = count == null ? 1 : count + 1;
+              failures.put(file.getName(), count);
+              if (count >= maxFailures) {
+                LOGGER.error("{} failed {} times, keeping it and going on with the channel's "
+                    + "later files", file.getAbsolutePath(), count);
+                continue;
+              }
+              LOGGER.error("{} not completely imported, keeping it and the channel's later files",
+                  file.getAbsolutePath());
+              break;
+            }
+            failures.remove(file.getName());
+
+            // the bytes there were when the import started are in
+            if (checkpoint != null) {
+              try {
+                checkpoint.commit(length);
+              } catch (IOException e) {
+                LOGGER.warn("Could not record a checkpoint: {}", e.getMessage());
+              }
+            }
+          }
 
           // archive the file if requested
           if (archive) {
             LOGGER.info("archiving {} to {}", file.getAbsolutePath(), archiveDir.getAbsolutePath());
-            archiveFile = new File(archiveDir, file.getName());
+            File archiveFile = new File(archiveDir, file.getName());
             try {
               FileCopy.fileCopy(file, archiveFile);
             } catch (IOException e) {
@@ -396,13 +562,78 @@ public class Scheduler {
             }
           }
         }
+      }
+    }
 
-        // de-initialize the importer
+    /**
+     * Drop persistent importers when the importer config file changed since they were
+     * initialized, and read the filename mask again.
+     */
+    private void checkImporterConfig() {
+      if (!persistent || configFile.lastModified() == configModified) {
+        return;
+      }
+      if (!importers.isEmpty()) {
+        LOGGER.info("{} changed, reinitializing importers", configFileName);
+        filemask = new ConfigFile(configFileName).getString("filemask");
+      }
+      for (Importer importer : importers) {
         importer.deinitialize();
       }
+      importers.clear();
+      configModified = configFile.lastModified();
+    }
 
-      // output some loggin info for this iteration
-      LOGGER.info("{} end polling cycle", Time.toDateString(currentTime.now()));
+    /**
+     * Get initialized importers for a cycle: new ones, or the kept ones if persistent.
+     *
+     * @param count number of importers
+     * @return importers
+     */
+    private List<Importer> getImporters(int count) {
+      if (!persistent) {
+        List<Importer> list = new ArrayList<Importer>();
+        while (list.size() < count) {
+          list.add(newImporter());
+        }
+        return list;
+      }
+      while (importers.size() < count) {
+        importers.add(newImporter());
+      }
+      return new ArrayList<Importer>(importers.subList(0, count));
+    }
+
+    /**
+     * Create and initialize an importer.
+     *
+     * @return importer
+     */
+    private Importer newImporter() {
+      Importer importer = null;
+
+      // instantiate the import class
+      try {
+        importClass = Class.forName(importerName);
+      } catch (ClassNotFoundException e) {
+        LOGGER.error("importer not found");
+        System.exit(-1);
+      }
+
+      // this will call the default constructor of the class
+      try {
+        importer = (Importer) importClass.newInstance();
+      } catch (InstantiationException e) {
+        LOGGER.error("{} InstantiationException", importerName);
+        System.exit(-1);
+      } catch (IllegalAccessException e) {
+        LOGGER.error("{} IllegalAccessException", importerName);
+        System.exit(-1);
+      }
+
+      // initialize the importer
+      importer.initialize(importerName, configFileName, verbose);
+      return importer;
     }
   }
 
@@ -0,0 +1,285 @@
+package gov.usgs.volcanoes.vdx.in;
+
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Parser of timestamps in a SimpleDateFormat pattern into j2ksec. Patterns of numeric fields
+ * (y, M, d, D, H, m, s, S) and literals are compiled into a list of fields read straight from the
+ * characters, following SimpleDateFormat's rules: a number directly followed by another takes as
+ * many digits as its pattern letters, otherwise all digits present, and 'S' counts milliseconds.
+ * The time of the start of each local hour is computed with a Calendar in the time zone and kept,
+ * so daylight saving time is handled as SimpleDateFormat does and rows within the same hour
+ * are computed arithmetically. Other patterns, and text the compiled fields can't read, are
+ * parsed with SimpleDateFormat. Instances are thread-safe.
+ */
+public class TimestampParser {
+
+  private static final char LITERAL = 0;
+
+  private final String pattern;
+  private final SimpleDateFormat dateFormat;
+  private final Calendar calendar;
+  private final int centuryStart;
+  private char[] kinds;
+  private char[] literals;
+  private int[] widths;
+  private boolean[] fixed;
+  private volatile Hour hour;
+
+  /**
+   * Constructor.
+   *
+   * @param pattern SimpleDateFormat pattern
+   * @param timeZone time zone of the timestamps
+   * @throws IllegalArgumentException if the pattern is invalid
+   */
+  public TimestampParser(String pattern, TimeZone timeZone) {
+    this.pattern = pattern;
+    dateFormat = new SimpleDateFormat(pattern);
+    dateFormat.setTimeZone(timeZone);
+    calendar = Calendar.getInstance(timeZone);
+    centuryStart = calendar.get(Calendar.YEAR) - 80;
+    compile();
+  }
+
+  /**
+   * Get the pattern.
+   *
+   * @return SimpleDateFormat pattern
+   */
+  public String getPattern() {
+    return pattern;
+  }
+
+  /**
+   * Parse a timestamp. As with SimpleDateFormat, text after the timestamp is ignored.
+   *
+   * @param text timestamp
+   * @return time in j2ksec
+   * @throws ParseException if the text is not a timestamp in the pattern
+   */
+  public double parse(CharSequence text) throws ParseException {
+    if (kinds == null) {
+      return fallback(text);
+    }
+    int year = 1970;
+    int month = 1;
+    int day = 1;
+    int dayOfYear = -1;
+    int hourOfDay = 0;
+    long millis = 0;
+    int pos = 0;
+    int length = text.length();
+    for (int i = 0; i < kinds.length; i++) {
+      if (kinds[i] == LITERAL) {
+        if (pos >= length || text.charAt(pos) != literals[i]) {
+          return fallback(text);
+        }
+        pos++;
+        continue;
+      }
+
+      // numbers may be preceded by white space
+      while (pos < length && Character.isWhitespace(text.charAt(pos))) {
+        pos++;
+      }
+      int start = pos;
+      int end = fixed[i] ? Math.min(length, pos + widths[i]) : length;
+      int value = 0;
+      while (pos < end && pos - start < 9 && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+        value = value * 10 + (text.charAt(pos++) - '0');
+      }
+      if (pos == start || (pos < end && text.charAt(pos) >= '0' && text.charAt(pos) <= '9')) {
+        return fallback(text);
+      }
+      switch (kinds[i]) {
+        case 'y':
+          year = value;
+          if (widths[i] <= 2 && pos - start == 2) {
+            year += centuryStart / 100 * 100;
+            if (year < centuryStart) {
+              year += 100;
+            }
+            // the century start is a date, not a year, so its year is left to SimpleDateFormat
+            if (year == centuryStart) {
+              return fallback(text);
+            }
+          }
+          break;
+        case 'M':
+          month = value;
+          break;
+        case 'd':
+          day = value;
+          break;
+        case 'D':
+          dayOfYear = value;
+          break;
+        case 'H':
+          hourOfDay = value;
+          break;
+        case 'm':
+          millis += value * 60000L;
+          break;
+        case 's':
+          millis += value * 1000L;
+          break;
+        default:
+          millis += value;
+          break;
+      }
+    }
+    return (getHourMillis(year, month, day, dayOfYear, hourOfDay) + millis) / 1000.0;
+  }
+
+  /**
+   * Get the time of the start of a local hour, in milliseconds since j2k.
+   *
+   * @param year year
+   * @param month month, 1 based
+   * @param day day of month
+   * @param dayOfYear day of year, -1 if not used
+   * @param hourOfDay hour of day
+   * @return milliseconds since j2k
+   */
+  private long getHourMillis(int year, int month, int day, int dayOfYear, int hourOfDay) {
+    Hour h = hour;
+    if (h != null && h.year == year && h.month == month && h.day == day
+        && h.dayOfYear == dayOfYear && h.hourOfDay == hourOfDay) {
+      return h.millis;
+    }
+    long millis;
+    synchronized (calendar) {
+      calendar.clear();
+      calendar.set(Calendar.YEAR, year);
+      if (dayOfYear != -1) {
+        calendar.set(Calendar.DAY_OF_YEAR, dayOfYear);
+      } else {
+        calendar.set(Calendar.MONTH, month - 1);
+        calendar.set(Calendar.DAY_OF_MONTH, day);
+      }
+      calendar.set(Calendar.HOUR_OF_DAY, hourOfDay);
+      millis = Math.round(J2kSec.fromDate(calendar.getTime()) * 1000);
+    }
+    hour = new Hour(year, month, day, dayOfYear, hourOfDay, millis);
+    return millis;
+  }
+
+  /**
+   * Parse a timestamp with SimpleDateFormat.
+   *
+   * @param text timestamp
+   * @return time in j2ksec
+   * @throws ParseException if the text is not a timestamp in the pattern
+   */
+  private double fallback(CharSequence text) throws ParseException {
+    synchronized (dateFormat) {
+      return J2kSec.fromDate(dateFormat.parse(text.toString()));
+    }
+  }
+
+  /**
+   * Compile the pattern into fields, unless it uses letters other than the numeric ones.
+   */
+  private void compile() {
+    StringBuilder kindList = new StringBuilder();
+    StringBuilder literalList = new StringBuilder();
+    StringBuilder widthList = new StringBuilder();
+    boolean monthDay = false;
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '\'') {
+        // quoted text, with '' a quote
+        int end = i + 1;
+        if (end < pattern.length() && pattern.charAt(end) == '\'') {
+          kindList.append(LITERAL);
+          literalList.append('\'');
+          widthList.append((char) 1);
+          i += 2;
+          continue;
+        }
+        while (end < pattern.length()) {
+          if (pattern.charAt(end) == '\'') {
+            if (end + 1 < pattern.length() && pattern.charAt(end + 1) == '\'') {
+              kindList.append(LITERAL);
+              literalList.append('\'');
+              widthList.append((char) 1);
+              end += 2;
+              continue;
+            }
+            break;
+          }
+          kindList.append(LITERAL);
+          literalList.append(pattern.charAt(end));
+          widthList.append((char) 1);
+          end++;
+        }
+        i = end + 1;
+      } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+        int end = i;
+        while (end < pattern.length() && pattern.charAt(end) == c) {
+          end++;
+        }
+        if ("yMdDHmsS".indexOf(c) == -1 || (c == 'M' && end - i > 2)) {
+          return;
+        }
+        monthDay |= c == 'M' || c == 'd';
+        kindList.append(c);
+        literalList.append(' ');
+        widthList.append((char) (end - i));
+        i = end;
+      } else {
+        kindList.append(LITERAL);
+        literalList.append(c);
+        widthList.append((char) 1);
+        i++;
+      }
+    }
+    if (monthDay && kindList.indexOf("D") != -1) {
+      return;
+    }
+
+    int count = kindList.length();
+    kinds = new char[count];
+    literals = new char[count];
+    widths = new int[count];
+    fixed = new boolean[count];
+    for (int j = 0; j < count; j++) {
+      kinds[j] = kindList.charAt(j);
+      literals[j] = literalList.charAt(j);
+      widths[j] = widthList.charAt(j);
+    }
+
+    // a number directly followed by another has a fixed width
+    for (int j = 0; j + 1 < count; j++) {
+      fixed[j] = kinds[j] != LITERAL && kinds[j + 1] != LITERAL;
+    }
+  }
+
+  /**
+   * Start of a local hour.
+   */
+  private static class Hour {
+    private final int year;
+    private final int month;
+    private final int day;
+    private final int dayOfYear;
+    private final int hourOfDay;
+    private final long millis;
+
+    private Hour(int year, int month, int day, int dayOfYear, int hourOfDay, long millis) {
+      this.year = year;
+      this.month = month;
+      this.day = day;
+      this.dayOfYear = dayOfYear;
+      this.hourOfDay = hourOfDay;
+      this.millis = millis;
+    }
+  }
+}
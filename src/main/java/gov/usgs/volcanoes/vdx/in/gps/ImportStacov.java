@@ -206,6 +206,11 @@ public class ImportStacov implements Importer {
       System.exit(-1);
     }
 
+    // load rows with LOAD DATA instead of inserting them, for backfills
+    if (StringUtils.stringToBoolean(params.getString("bulkload"), false)) {
+      sqlDataSource.setBulkLoad(true);
+    }
+
     // information related to the timestamps
     dateIn = new SimpleDateFormat("yyMMMdd");
     dateIn.setTimeZone(TimeZone.getTimeZone("GMT"));
@@ -416,6 +421,9 @@ public class ImportStacov implements Importer {
     } catch (Exception e) {
       LOGGER.error("ImportStacov.process({}) failed.", filename, e);
     }
+
+    // load the rows written in bulk load mode
+    sqlDataSource.flushInsertData();
   }
 
   /**
@@ -2,7 +2,6 @@ package gov.usgs.volcanoes.vdx.in.gps;
 
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.legacy.Arguments;
-import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.ResourceReader;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.vdx.data.Channel;
@@ -15,6 +14,7 @@ import gov.usgs.volcanoes.vdx.data.gps.Gps;
 import gov.usgs.volcanoes.vdx.data.gps.SQLGpsDataSource;
 import gov.usgs.volcanoes.vdx.data.gps.SolutionPoint;
 import gov.usgs.volcanoes.vdx.in.Importer;
+import gov.usgs.volcanoes.vdx.in.TimestampParser;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
@@ -54,7 +54,7 @@ public class ImportTdp implements Importer {
   public String prefix;
   public String url;
 
-  public SimpleDateFormat dateIn;
+  public TimestampParser timestampParser;
   public SimpleDateFormat dateOut;
   public Date date;
   public Double j2ksec;
@@ -194,9 +194,13 @@ public class ImportTdp implements Importer {
       System.exit(-1);
     }
 
+    // load rows with LOAD DATA instead of inserting them, for backfills
+    if (StringUtils.stringToBoolean(params.getString("bulkload"), false)) {
+      sqlDataSource.setBulkLoad(true);
+    }
+
     // information related to the timestamps
-    dateIn = new SimpleDateFormat("yyyy-M-d H:m:s");
-    dateIn.setTimeZone(TimeZone.getTimeZone("GMT"));
+    timestampParser = new TimestampParser("yyyy-M-d H:m:s", TimeZone.getTimeZone("GMT"));
 
     // get the list of ranks that are being used in this import
     rankParams = params.getSubConfig("rank");
@@ -293,9 +297,7 @@ public class ImportTdp implements Importer {
         oneLineArray = oneLine.split(",");
 
         // get the j2ksec from the date
-        date = dateIn.parse(oneLineArray[0]);
-        date.setTime(date.getTime());
-        j2ksec = J2kSec.fromDate(date);
+        j2ksec = timestampParser.parse(oneLineArray[0]);
 
         // get the values for this observation
         val = Double.parseDouble(oneLineArray[2]) * 1000;
@@ -369,6 +371,9 @@ public class ImportTdp implements Importer {
     } catch (Exception e) {
       LOGGER.error("ImportTdp.process({}) failed.", filename, e);
     }
+
+    // load the rows written in bulk load mode
+    sqlDataSource.flushInsertData();
   }
 
   /**
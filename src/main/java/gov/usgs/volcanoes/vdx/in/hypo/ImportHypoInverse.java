@@ -2,7 +2,6 @@ package gov.usgs.volcanoes.vdx.in.hypo;
 
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.legacy.Arguments;
-import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.ResourceReader;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.vdx.data.Channel;
@@ -14,6 +13,7 @@ import gov.usgs.volcanoes.vdx.data.SQLDataSourceHandler;
 import gov.usgs.volcanoes.vdx.data.hypo.Hypocenter;
 import gov.usgs.volcanoes.vdx.data.hypo.SQLHypocenterDataSource;
 import gov.usgs.volcanoes.vdx.in.Importer;
+import gov.usgs.volcanoes.vdx.in.TimestampParser;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -57,7 +57,7 @@ public class ImportHypoInverse implements Importer {
   public String prefix;
   public String url;
 
-  public SimpleDateFormat dateIn;
+  public TimestampParser timestampParser;
   public SimpleDateFormat dateOut;
   public Date date;
   public Double j2ksec;
@@ -196,10 +196,14 @@ public class ImportHypoInverse implements Importer {
       System.exit(-1);
     }
 
+    // load rows with LOAD DATA instead of inserting them, for backfills
+    if (StringUtils.stringToBoolean(params.getString("bulkload"), false)) {
+      sqlDataSource.setBulkLoad(true);
+    }
+
     // information related to the time stamps
-    dateIn = new SimpleDateFormat(
-        StringUtils.stringToString(params.getString("timestamp"), "yyyyMMddHHmmssSS"));
-    dateIn.setTimeZone(
+    timestampParser = new TimestampParser(
+        StringUtils.stringToString(params.getString("timestamp"), "yyyyMMddHHmmssSS"),
         TimeZone.getTimeZone(StringUtils.stringToString(params.getString("timezone"), "GMT")));
 
     // get the list of ranks that are being used in this import
@@ -278,8 +282,7 @@ public class ImportHypoInverse implements Importer {
         // DATE
         try {
           String timestamp = line.substring(0, 16) + "0";
-          date = dateIn.parse(timestamp);
-          j2ksec = J2kSec.fromDate(date);
+          j2ksec = timestampParser.parse(timestamp);
         } catch (ParseException e) {
           LOGGER.error("skipping: line number {}.  Timestamp not valid.", lineNumber);
           line = rr.nextLine();
@@ -420,6 +423,9 @@ public class ImportHypoInverse implements Importer {
     } catch (Exception e) {
       LOGGER.error("ImportHypoInverse.process({}) failed.", filename, e);
     }
+
+    // load the rows written in bulk load mode
+    sqlDataSource.flushInsertData();
   }
 
   /**
@@ -1,14 +1,12 @@
 package gov.usgs.volcanoes.vdx.in.hypo;
 
 import gov.usgs.volcanoes.core.legacy.Arguments;
-import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.ResourceReader;
 import gov.usgs.volcanoes.vdx.data.hypo.Hypocenter;
 import gov.usgs.volcanoes.vdx.data.hypo.SQLHypocenterDataSource;
+import gov.usgs.volcanoes.vdx.in.TimestampParser;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
 
@@ -19,7 +17,7 @@ import java.util.TimeZone;
  */
 public class ImportUW extends Importer {
 
-  private SimpleDateFormat dateIn;
+  private TimestampParser timestampParser;
 
   /**
    * Constructor.
@@ -28,8 +26,7 @@ public class ImportUW extends Importer {
    */
   public ImportUW(SQLHypocenterDataSource ds) {
     super(ds);
-    dateIn = new SimpleDateFormat("yyyyMMddHHmm");// ss.SS");
-    dateIn.setTimeZone(TimeZone.getTimeZone("GMT"));
+    timestampParser = new TimestampParser("yyyyMMddHHmm", TimeZone.getTimeZone("GMT"));
   }
 
   /**
@@ -57,8 +54,7 @@ public class ImportUW extends Importer {
           throw new Exception("Incomplete record.");
         }
 
-        Date d = dateIn.parse(s.substring(2, 14));
-        double j2ksec = J2kSec.fromDate(d);
+        double j2ksec = timestampParser.parse(s.substring(2, 14));
         double ds = Double.parseDouble(s.substring(14, 20).trim());
         j2ksec += ds;
 
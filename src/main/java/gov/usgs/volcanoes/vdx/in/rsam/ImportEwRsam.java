@@ -44,7 +44,6 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -584,19 +583,21 @@ public class ImportEwRsam extends Thread {
       }
     }
 
-    Iterator<TraceBuf> it = tbs.iterator();
-    while (it.hasNext()) {
-      tb = it.next();
-      DoubleMatrix2D dm = DoubleFactory2D.dense.make(1, 2);
-      dm.setQuick(0, 0, tb.getStartTimeJ2K());
-      dm.setQuick(0, 1, tb.samples()[0]);
+    // insert all queued tracebufs of the channel in one batch
+    DoubleMatrix2D dm = DoubleFactory2D.dense.make(tbs.size(), 2);
+    for (int i = 0; i < tbs.size(); i++) {
+      tb = tbs.get(i);
+      dm.setQuick(i, 0, tb.getStartTimeJ2K());
+      dm.setQuick(i, 1, tb.samples()[0]);
+      logger.log(Level.FINE,
+          code + " " + J2kSec.toDateString(tb.getStartTimeJ2K()) + " rsam:" + tb.samples()[0]);
+    }
+    if (tbs.size() > 0) {
       GenericDataMatrix gdm = new GenericDataMatrix(dm);
       gdm.setColumnNames(new String[]{"j2ksec", "rsam"});
       sqlDataSource.defaultInsertData(code, gdm, sqlDataSource.getTranslationsFlag(),
           sqlDataSource.getRanksFlag(), 0);
-      logger.log(Level.FINE,
-          code + " " + J2kSec.toDateString(tb.getStartTimeJ2K()) + " rsam:" + tb.samples()[0]);
-      totalTraceBufsWritten++;
+      totalTraceBufsWritten += tbs.size();
     }
 
     ChannelStatus status = channelStatus.get(code);
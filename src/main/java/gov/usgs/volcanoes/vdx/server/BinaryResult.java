@@ -1,11 +1,16 @@
 package gov.usgs.volcanoes.vdx.server;
 
-import gov.usgs.volcanoes.core.Zip;
+import cern.colt.matrix.DoubleMatrix2D;
+
 import gov.usgs.volcanoes.core.data.BinaryDataSet;
+import gov.usgs.volcanoes.core.data.GenericDataMatrix;
 import gov.usgs.volcanoes.core.legacy.net.NetTools;
+import gov.usgs.volcanoes.vdx.data.ColumnarCodec;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 /**
  * $Log: not supported by cvs2svn $.
@@ -14,10 +19,34 @@ import java.nio.channels.SocketChannel;
  */
 public class BinaryResult extends RequestResult {
 
+  private static final int CHUNK_SIZE = 65536;
+
+  private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+    protected Deflater initialValue() {
+      return new Deflater(1);
+    }
+  };
+
+  private static final ThreadLocal<byte[]> CHUNK = new ThreadLocal<byte[]>() {
+    protected byte[] initialValue() {
+      return new byte[CHUNK_SIZE];
+    }
+  };
+
+  private static final ThreadLocal<byte[]> INPUT = new ThreadLocal<byte[]>() {
+    protected byte[] initialValue() {
+      return new byte[CHUNK_SIZE];
+    }
+  };
+
   protected BinaryDataSet data;
 
+  private String encoding;
+
   private transient ByteBuffer compressedBytes;
 
+  private final AtomicInteger readers = new AtomicInteger(1);
+
   /**
    * Constructor.
    *
@@ -37,16 +66,188 @@ public class BinaryResult extends RequestResult {
     return data;
   }
 
+  /**
+   * Set encoding requested by the client. Columnar encodings are used if the data supports them,
+   * and reported in the 'encoding' header parameter; otherwise the plain binary form is sent.
+   *
+   * @param encoding encoding name, or null for plain binary
+   * @see ColumnarCodec
+   */
+  public void setEncoding(String encoding) {
+    this.encoding = encoding;
+  }
+
   /**
    * Get result ready for writing.
    */
   public void prepare() {
-    ByteBuffer buffer = data.toBinary();
-    byte[] cb = Zip.compress(buffer.array(), 1);
-    compressedBytes = ByteBuffer.wrap(cb);
+    ByteBuffer buffer = null;
+    if (ColumnarCodec.isColumnar(encoding)) {
+      buffer = ColumnarCodec.toColumnar(data,
+          ColumnarCodec.COLUMNAR_FLOAT32.equals(encoding));
+      if (buffer != null) {
+        set("encoding", encoding);
+      }
+    }
+    if (buffer != null) {
+      compressedBytes = compress(buffer.array());
+    } else if (isPlainMatrix(data)) {
+      compressedBytes = compressMatrix(((GenericDataMatrix) data).getData());
+    } else {
+      compressedBytes = compress(data.toBinary().array());
+    }
     set("bytes", Integer.toString(compressedBytes.limit()));
   }
 
+  /**
+   * Check whether a data set is a matrix written by GenericDataMatrix.toBinary() itself, so it
+   * can be compressed without building its binary form first.
+   *
+   * @param data data set
+   * @return true if the binary form is the plain matrix
+   */
+  private static boolean isPlainMatrix(BinaryDataSet data) {
+    if (!(data instanceof GenericDataMatrix)) {
+      return false;
+    }
+    try {
+      return data.getClass().getMethod("toBinary").getDeclaringClass()
+          == GenericDataMatrix.class;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Compress bytes, in the format read by Zip.decompress, into a buffer from the shared pool.
+   *
+   * @param bytes bytes to compress
+   * @return buffer ready for writing, to be returned to the pool once written
+   */
+  private static ByteBuffer compress(byte[] bytes) {
+    Deflater deflater = DEFLATER.get();
+    deflater.reset();
+    ByteBuffer out = BufferPool.getShared().acquire(getBound(bytes.length));
+    out = deflate(deflater, bytes, bytes.length, out);
+    return finish(deflater, out);
+  }
+
+  /**
+   * Compress a matrix in the binary form of GenericDataMatrix.toBinary(): the number of rows and
+   * of columns, then the values row by row. The form is built a chunk at a time in a reused
+   * array, so the uncompressed bytes are never held all at once.
+   *
+   * @param matrix matrix to compress
+   * @return buffer ready for writing, to be returned to the pool once written
+   */
+  private static ByteBuffer compressMatrix(DoubleMatrix2D matrix) {
+    int rows = matrix.rows();
+    int columns = matrix.columns();
+    Deflater deflater = DEFLATER.get();
+    deflater.reset();
+    ByteBuffer out = BufferPool.getShared().acquire(getBound(8 + rows * columns * 8));
+    ByteBuffer in = ByteBuffer.wrap(INPUT.get());
+    in.putInt(rows);
+    in.putInt(columns);
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < columns; j++) {
+        if (in.remaining() < 8) {
+          out = deflate(deflater, in.array(), in.position(), out);
+          in.clear();
+        }
+        in.putDouble(matrix.getQuick(i, j));
+      }
+    }
+    out = deflate(deflater, in.array(), in.position(), out);
+    return finish(deflater, out);
+  }
+
+  /**
+   * Get zlib's compressBound(), so the output buffer never needs to grow in practice.
+   *
+   * @param length number of bytes to compress
+   * @return largest compressed size
+   */
+  private static int getBound(int length) {
+    return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+  }
+
+  /**
+   * Compress input bytes, up to what the deflater holds back for later input.
+   *
+   * @param deflater deflater
+   * @param input input bytes
+   * @param length number of input bytes
+   * @param out output buffer from the shared pool
+   * @return output buffer, replaced by a bigger one if it was full
+   */
+  private static ByteBuffer deflate(Deflater deflater, byte[] input, int length,
+      ByteBuffer out) {
+    deflater.setInput(input, 0, length);
+    while (!deflater.needsInput()) {
+      out = drain(deflater, out);
+    }
+    return out;
+  }
+
+  /**
+   * Compress the bytes the deflater holds back and end the stream.
+   *
+   * @param deflater deflater
+   * @param out output buffer from the shared pool
+   * @return output buffer, ready for writing
+   */
+  private static ByteBuffer finish(Deflater deflater, ByteBuffer out) {
+    deflater.finish();
+    while (!deflater.finished()) {
+      out = drain(deflater, out);
+    }
+    out.flip();
+    return out;
+  }
+
+  /**
+   * Move one chunk of compressed bytes from the deflater to the output buffer.
+   *
+   * @param deflater deflater
+   * @param out output buffer from the shared pool
+   * @return output buffer, replaced by a bigger one if it was full
+   */
+  private static ByteBuffer drain(Deflater deflater, ByteBuffer out) {
+    byte[] chunk = CHUNK.get();
+    int n = deflater.deflate(chunk);
+    if (out.remaining() < n) {
+      BufferPool pool = BufferPool.getShared();
+      ByteBuffer bigger = pool.acquire(out.limit() * 2 + n);
+      out.flip();
+      bigger.put(out);
+      pool.release(out);
+      out = bigger;
+    }
+    out.put(chunk, 0, n);
+    return out;
+  }
+
+  /**
+   * Let more clients write the prepared result. Each must call {@link #writeBody} or
+   * {@link #release()} once; the compressed bytes go back to the pool after the last one.
+   *
+   * @param count number of additional clients
+   */
+  public void retain(int count) {
+    readers.addAndGet(count);
+  }
+
+  /**
+   * Give up one client's claim on the prepared result without writing it.
+   */
+  public void release() {
+    if (readers.decrementAndGet() == 0) {
+      BufferPool.getShared().release(compressedBytes);
+      compressedBytes = null;
+    }
+  }
+
   /**
    * Write data.
    *
@@ -54,6 +255,10 @@ public class BinaryResult extends RequestResult {
    * @param channel channel to write to
    */
   protected void writeBody(NetTools netTools, SocketChannel channel) {
-    netTools.writeByteBuffer(compressedBytes, channel);
+    try {
+      netTools.writeByteBuffer(compressedBytes.duplicate(), channel);
+    } finally {
+      release();
+    }
   }
 }
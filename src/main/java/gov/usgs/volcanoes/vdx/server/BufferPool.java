@@ -0,0 +1,172 @@
+package gov.usgs.volcanoes.vdx.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct ByteBuffers in power-of-two size classes. Result bodies are compressed into
+ * buffers from the pool and written to the client straight from native memory, so large replies
+ * don't leave big short-lived arrays behind for the garbage collector. Requests larger than the
+ * largest size class get an unpooled buffer. Direct memory isn't counted by the heap's memory
+ * budget, so the bytes kept by the pool are capped, 'vdx.bufferPool' MB for the shared pool.
+ */
+public class BufferPool {
+
+  private static final int MIN_SHIFT = 16;
+  private static final int MAX_SHIFT = 25;
+  private static final int BUFFERS_PER_CLASS = 4;
+  private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+  private static final BufferPool SHARED = new BufferPool();
+
+  private final ArrayDeque<ByteBuffer>[] classes;
+  private final AtomicLong retained = new AtomicLong();
+  private volatile long maxBytes = DEFAULT_MAX_BYTES;
+
+  /**
+   * Constructor.
+   */
+  @SuppressWarnings("unchecked")
+  public BufferPool() {
+    classes = new ArrayDeque[MAX_SHIFT - MIN_SHIFT + 1];
+    for (int i = 0; i < classes.length; i++) {
+      classes[i] = new ArrayDeque<ByteBuffer>(BUFFERS_PER_CLASS);
+    }
+  }
+
+  /**
+   * Yield pool shared by the server.
+   *
+   * @return shared pool
+   */
+  public static BufferPool getShared() {
+    return SHARED;
+  }
+
+  /**
+   * Set the most bytes the pool keeps in released buffers. Buffers already kept stay until they
+   * are acquired again.
+   *
+   * @param maxBytes byte limit, 0 to keep nothing
+   */
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = Math.max(0, maxBytes);
+  }
+
+  /**
+   * Yield the most bytes the pool keeps in released buffers.
+   *
+   * @return byte limit
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Yield the bytes currently kept in released buffers.
+   *
+   * @return retained bytes
+   */
+  public long getRetainedBytes() {
+    return retained.get();
+  }
+
+  /**
+   * Get a buffer with room for at least size bytes, cleared and with limit set to size.
+   *
+   * @param size number of bytes needed
+   * @return buffer
+   */
+  public ByteBuffer acquire(int size) {
+    int index = classIndex(size);
+    ByteBuffer buffer = null;
+    if (index < classes.length) {
+      synchronized (classes[index]) {
+        buffer = classes[index].poll();
+      }
+      if (buffer != null) {
+        retained.addAndGet(-buffer.capacity());
+      } else {
+        buffer = allocate(1 << (index + MIN_SHIFT));
+      }
+    } else {
+      buffer = allocate(size);
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Return a buffer to the pool. Buffers not obtained from the pool, and buffers beyond what the
+   * pool keeps per size class or in total, are left to the garbage collector.
+   *
+   * @param buffer buffer to return, may be null
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect()) {
+      return;
+    }
+    int capacity = buffer.capacity();
+    int index = classIndex(capacity);
+    if (index >= classes.length || (1 << (index + MIN_SHIFT)) != capacity) {
+      return;
+    }
+    if (!reserve(capacity)) {
+      return;
+    }
+    synchronized (classes[index]) {
+      if (classes[index].size() < BUFFERS_PER_CLASS) {
+        classes[index].add(buffer);
+        return;
+      }
+    }
+    retained.addAndGet(-capacity);
+  }
+
+  /**
+   * Count bytes as retained if that stays within the pool's limit.
+   *
+   * @param bytes number of bytes
+   * @return false if the limit would be exceeded
+   */
+  private boolean reserve(long bytes) {
+    while (true) {
+      long current = retained.get();
+      if (current + bytes > maxBytes) {
+        return false;
+      }
+      if (retained.compareAndSet(current, current + bytes)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Get size class index for a number of bytes.
+   *
+   * @param size number of bytes
+   * @return index of the smallest class holding size bytes
+   */
+  private static int classIndex(int size) {
+    if (size <= 1 << MIN_SHIFT) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+  }
+
+  /**
+   * Allocate a direct buffer, falling back to the heap if direct memory is exhausted.
+   *
+   * @param capacity buffer capacity
+   * @return buffer
+   */
+  private static ByteBuffer allocate(int capacity) {
+    try {
+      return ByteBuffer.allocateDirect(capacity);
+    } catch (OutOfMemoryError e) {
+      return ByteBuffer.allocate(capacity);
+    }
+  }
+}
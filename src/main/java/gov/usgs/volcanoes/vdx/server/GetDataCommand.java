@@ -6,6 +6,7 @@ import gov.usgs.volcanoes.vdx.ExportConfig;
 import gov.usgs.volcanoes.vdx.data.DataSource;
 import gov.usgs.volcanoes.vdx.data.DataSourceDescriptor;
 import gov.usgs.volcanoes.vdx.data.DataSourceHandler;
+import gov.usgs.volcanoes.vdx.data.SQLDataSource;
 
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
@@ -45,12 +46,10 @@ public class GetDataCommand extends BaseCommand {
       return;
     }
     DataSourceHandler dsh = handler.getDataSourceHandler();
-    String resultType;
     RequestResult result;
     String action = inParams.get("action");
     if (action != null && action.equals("exportinfo")) {
       ExportConfig ec = dsh.getExportConfig(source);
-      resultType = action;
       if (ec == null || !ec.isClosed()) {
         int ncl = Integer.parseInt(inParams.get("numCommentLines"));
         ArrayList<String> args = new ArrayList<String>(ncl + 4);
@@ -71,17 +70,42 @@ public class GetDataCommand extends BaseCommand {
         ec.setClosed();
       }
       result = new TextResult(ec.toStringList());
+      result.set("type", action);
+      result.prepare();
+      handler.getScheduler().noteExport(channel, source);
     } else {
-      DataSourceDescriptor dsd = dsh.getDataSourceDescriptor(inParams.get("source"));
-      DataSource ds = dsd.getDataSource();
-
-      result = ds.getData(inParams);
-      dsd.putDataSource();
-      resultType = ds.getType();
+      handler.getWarmUp().record(inParams);
+      Prefetcher prefetcher = handler.getPrefetcher();
+      result = prefetcher == null ? null : prefetcher.get(inParams);
+      if (result != null) {
+        prefetcher.served(inParams);
+      } else {
+        // identical requests in progress share one query and one prepared reply
+        RequestCoalescer.Flight flight = RequestCoalescer.getShared().join(inParams, channel);
+        if (flight.isLeader(channel)) {
+          runQuery(flight, channel);
+        }
+        try {
+          result = flight.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          sendError("interrupted", "getdata", channel);
+          return;
+        }
+        if (!channel.isOpen()) {
+          if (result instanceof BinaryResult) {
+            ((BinaryResult) result).release();
+          }
+          handler.log(Level.DEBUG, "[getdata] client gone, request cancelled", channel);
+          return;
+        }
+        if (flight.getError() != null) {
+          sendError(flight.getError(), "getdata", channel);
+          return;
+        }
+      }
     }
     if (result != null) {
-      result.set("type", resultType);
-      result.prepare();
       result.writeHeader(netTools, channel);
       result.writeBody(netTools, channel);
       ct.stop();
@@ -93,4 +117,79 @@ public class GetDataCommand extends BaseCommand {
       handler.log(Level.DEBUG, "[getdata] returned nothing", channel);
     }
   }
+
+  /**
+   * Run the query of a request leading a flight and publish the prepared result to the flight.
+   *
+   * @param flight flight led by the request
+   * @param channel client channel of the request
+   */
+  private void runQuery(RequestCoalescer.Flight flight, SocketChannel channel) {
+    RequestResult prepared = null;
+    String error = null;
+    try {
+      RequestScheduler scheduler = handler.getScheduler();
+      RequestScheduler.Priority priority = scheduler.classify(inParams, channel);
+      try {
+        scheduler.acquire(priority);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        error = "interrupted";
+        return;
+      }
+      try {
+        DataSourceDescriptor dsd = handler.getDataSourceHandler()
+            .getDataSourceDescriptor(inParams.get("source"));
+        DataSource ds = dsd.getDataSource();
+        MemoryBudget budget = handler.getMemoryBudget();
+        long bytes = ds instanceof SQLDataSource
+            ? ((SQLDataSource) ds).estimateRequestBytes(inParams) : 0;
+        try {
+          error = budget.reserve(bytes);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          error = "interrupted";
+        }
+        if (error != null) {
+          dsd.putDataSource();
+          handler.log(Level.INFO, "[getdata] " + error, channel);
+          return;
+        }
+        try {
+          RequestMonitor.Request request =
+              RequestMonitor.getShared().begin(flight.getChannels(), ds);
+          RequestResult result;
+          try {
+            result = request.isAbandoned() ? null : ds.getData(inParams);
+          } finally {
+            request.end();
+            dsd.putDataSource();
+          }
+          if (request.isTimedOut()) {
+            error = "query timed out";
+          } else if (result != null && !request.isAbandoned()) {
+            // multi-channel results carry their own type
+            if (result.get("type") == null) {
+              result.set("type", ds.getType());
+            }
+            if (result instanceof BinaryResult) {
+              ((BinaryResult) result).setEncoding(inParams.get("encoding"));
+            }
+            result.prepare();
+            prepared = result;
+            Prefetcher prefetcher = handler.getPrefetcher();
+            if (prefetcher != null && priority == RequestScheduler.Priority.INTERACTIVE) {
+              prefetcher.served(inParams);
+            }
+          }
+        } finally {
+          budget.release(bytes);
+        }
+      } finally {
+        scheduler.release(priority);
+      }
+    } finally {
+      flight.complete(prepared, error);
+    }
+  }
 }
@@ -0,0 +1,93 @@
+package gov.usgs.volcanoes.vdx.server;
+
+/**
+ * Global heap budget for data requests. Before running its query a request reserves its
+ * estimated size; the reservation is given back once the reply is prepared. Requests that don't
+ * fit wait for others to finish, up to a time limit, and are then rejected. Requests larger than
+ * the whole budget are rejected at once.
+ */
+public class MemoryBudget {
+
+  private static final long MB = 1024 * 1024;
+
+  private final long budget;
+  private final long maxWait;
+  private long reserved;
+  private long peak;
+  private long rejected;
+
+  /**
+   * Constructor.
+   *
+   * @param budget bytes available to requests
+   * @param maxWait longest time in milliseconds to wait for a reservation
+   */
+  public MemoryBudget(long budget, long maxWait) {
+    this.budget = budget;
+    this.maxWait = maxWait;
+  }
+
+  /**
+   * Reserve bytes, waiting for them to become available if need be.
+   *
+   * @param bytes bytes to reserve
+   * @return null if reserved, otherwise the reason the request was rejected
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized String reserve(long bytes) throws InterruptedException {
+    if (bytes > budget) {
+      rejected++;
+      return String.format("request too large: needs about %d MB, server allows %d MB",
+          bytes / MB + 1, budget / MB);
+    }
+    long deadline = System.currentTimeMillis() + maxWait;
+    while (reserved + bytes > budget) {
+      long wait = deadline - System.currentTimeMillis();
+      if (wait <= 0) {
+        rejected++;
+        return String.format("server busy: needs about %d MB, %d MB of %d MB free",
+            bytes / MB + 1, (budget - reserved) / MB, budget / MB);
+      }
+      wait(wait);
+    }
+    reserved += bytes;
+    peak = Math.max(peak, reserved);
+    return null;
+  }
+
+  /**
+   * Reserve bytes only if they are available now. Used for background work, which is not counted
+   * as rejected when it doesn't fit.
+   *
+   * @param bytes bytes to reserve
+   * @return true if reserved
+   */
+  public synchronized boolean tryReserve(long bytes) {
+    if (reserved + bytes > budget) {
+      return false;
+    }
+    reserved += bytes;
+    peak = Math.max(peak, reserved);
+    return true;
+  }
+
+  /**
+   * Give back bytes reserved by {@link #reserve(long)} or {@link #tryReserve(long)}.
+   *
+   * @param bytes bytes to give back
+   */
+  public synchronized void release(long bytes) {
+    reserved -= bytes;
+    notifyAll();
+  }
+
+  /**
+   * Get budget use, as a parameter string.
+   *
+   * @return budget, reserved and peak bytes and number of rejected requests
+   */
+  public synchronized String getCounts() {
+    return String.format("memory.budget=%d;memory.reserved=%d;memory.peak=%d;memory.rejected=%d",
+        budget, reserved, peak, rejected);
+  }
+}
@@ -0,0 +1,276 @@
+package gov.usgs.volcanoes.vdx.server;
+
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.vdx.data.DataSource;
+import gov.usgs.volcanoes.vdx.data.DataSourceDescriptor;
+import gov.usgs.volcanoes.vdx.data.DataSourceHandler;
+import gov.usgs.volcanoes.vdx.data.SQLDataSource;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Speculative prefetch of the windows a plot is likely to ask for next. After an interactive
+ * time series request is served, the windows on either side of it and the window twice as long
+ * around it are queued. A single worker, with data sources of its own, prepares them while the
+ * scheduler has slots to spare and the memory budget has room without waiting, and keeps the
+ * prepared results for a while. Queued windows beyond a small backlog are dropped, oldest first,
+ * so prefetch follows the user and never competes with real requests.
+ */
+public class Prefetcher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Prefetcher.class);
+  private static final int MAX_PENDING = 16;
+
+  private final DataSourceHandler dataSourceHandler;
+  private final RequestScheduler scheduler;
+  private final MemoryBudget budget;
+  private final int maxEntries;
+  private final long ttl;
+  private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f,
+      true);
+  private final LinkedBlockingDeque<Map<String, String>> pending =
+      new LinkedBlockingDeque<Map<String, String>>();
+  private long hits;
+  private long prefetched;
+
+  /**
+   * Constructor. Starts the worker thread.
+   *
+   * @param dataSourceHandler data sources used for prefetching
+   * @param scheduler scheduler admitting data requests
+   * @param budget heap budget of data requests
+   * @param maxEntries maximum number of prepared results kept
+   * @param ttl time in milliseconds a prepared result is kept
+   */
+  public Prefetcher(DataSourceHandler dataSourceHandler, RequestScheduler scheduler,
+      MemoryBudget budget, int maxEntries, long ttl) {
+    this.dataSourceHandler = dataSourceHandler;
+    this.scheduler = scheduler;
+    this.budget = budget;
+    this.maxEntries = maxEntries;
+    this.ttl = ttl;
+    Thread worker = new Thread(new Runnable() {
+      public void run() {
+        while (true) {
+          try {
+            prefetch(pending.takeLast());
+          } catch (InterruptedException e) {
+            return;
+          } catch (Exception e) {
+            LOGGER.warn("Prefetch failed: {}", e.getMessage());
+          }
+        }
+      }
+    }, "VDX/Prefetcher");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Get a prefetched result for a request. The caller owns one claim on the result and must write
+   * or release it.
+   *
+   * @param params request parameters
+   * @return prepared result, or null if none
+   */
+  public synchronized RequestResult get(Map<String, String> params) {
+    String key = getKey(params);
+    Entry entry = key == null ? null : cache.get(key);
+    if (entry == null || entry.expires < System.currentTimeMillis()) {
+      return null;
+    }
+    hits++;
+    entry.result.retain(1);
+    return entry.result;
+  }
+
+  /**
+   * Queue the neighbours of a served interactive request for prefetching.
+   *
+   * @param params request parameters
+   */
+  public void served(Map<String, String> params) {
+    if (!"data".equals(params.get("action"))) {
+      return;
+    }
+    double st;
+    double et;
+    try {
+      st = Double.parseDouble(params.get("st"));
+      et = Double.parseDouble(params.get("et"));
+    } catch (Exception e) {
+      return;
+    }
+    double span = et - st;
+    double now = J2kSec.fromDate(new Date());
+    if (span <= 0) {
+      return;
+    }
+    queue(params, st - span, st, 1);
+    if (et + span <= now) {
+      queue(params, et, et + span, 1);
+    }
+    if (et + span / 2 <= now) {
+      queue(params, st - span / 2, et + span / 2, 2);
+    } else {
+      queue(params, et - 2 * span, et, 2);
+    }
+  }
+
+  /**
+   * Get counts of prefetching, as a parameter string.
+   *
+   * @return counts of prefetched results, cache hits, cached results and queued windows
+   */
+  public synchronized String getCounts() {
+    return String.format("prefetch.prefetched=%d;prefetch.hits=%d;prefetch.cached=%d;"
+        + "prefetch.pending=%d", prefetched, hits, cache.size(), pending.size());
+  }
+
+  /**
+   * Queue a window of a request. A longer window doubles the downsampling interval, if any, so
+   * it returns about as many rows.
+   *
+   * @param params request parameters
+   * @param st window start
+   * @param et window end
+   * @param zoom ratio of the window length to the request's
+   */
+  private void queue(Map<String, String> params, double st, double et, int zoom) {
+    Map<String, String> window = new HashMap<String, String>(params);
+    window.put("st", Double.toString(st));
+    window.put("et", Double.toString(et));
+    window.remove("priority");
+    if (zoom > 1 && window.get("dsInt") != null) {
+      try {
+        int dsInt = Integer.parseInt(window.get("dsInt"));
+        if (dsInt > 0) {
+          window.put("dsInt", Integer.toString(dsInt * zoom));
+        }
+      } catch (NumberFormatException e) {
+        // left as is
+      }
+    }
+    while (pending.size() >= MAX_PENDING) {
+      pending.pollFirst();
+    }
+    pending.offerLast(window);
+  }
+
+  /**
+   * Prepare a window and keep it, if it isn't cached already and there is room to run it.
+   *
+   * @param params window parameters
+   */
+  private void prefetch(Map<String, String> params) {
+    String key = getKey(params);
+    synchronized (this) {
+      Entry entry = cache.get(key);
+      if (entry != null && entry.expires >= System.currentTimeMillis()) {
+        return;
+      }
+    }
+    if (!scheduler.tryAcquire(RequestScheduler.Priority.INTERACTIVE)) {
+      return;
+    }
+    try {
+      DataSourceDescriptor dsd = dataSourceHandler.getDataSourceDescriptor(params.get("source"));
+      if (dsd == null) {
+        return;
+      }
+      DataSource ds = dsd.getDataSource();
+      long bytes = ds instanceof SQLDataSource
+          ? ((SQLDataSource) ds).estimateRequestBytes(params) : 0;
+      if (!budget.tryReserve(bytes)) {
+        dsd.putDataSource();
+        return;
+      }
+      try {
+        RequestResult result;
+        try {
+          result = ds.getData(params);
+        } finally {
+          dsd.putDataSource();
+        }
+        if (!(result instanceof BinaryResult)) {
+          return;
+        }
+        if (result.get("type") == null) {
+          result.set("type", ds.getType());
+        }
+        ((BinaryResult) result).setEncoding(params.get("encoding"));
+        result.prepare();
+        put(key, (BinaryResult) result);
+      } finally {
+        budget.release(bytes);
+      }
+    } finally {
+      scheduler.release(RequestScheduler.Priority.INTERACTIVE);
+    }
+  }
+
+  /**
+   * Keep a prepared result, dropping expired and least recently used ones.
+   *
+   * @param key normalized request
+   * @param result prepared result
+   */
+  private synchronized void put(String key, BinaryResult result) {
+    prefetched++;
+    Entry old = cache.put(key, new Entry(result, System.currentTimeMillis() + ttl));
+    if (old != null) {
+      old.result.release();
+    }
+    long now = System.currentTimeMillis();
+    Iterator<Entry> it = cache.values().iterator();
+    int size = cache.size();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      if (size > maxEntries || entry.expires < now) {
+        entry.result.release();
+        it.remove();
+        size--;
+      }
+    }
+  }
+
+  /**
+   * Normalize request parameters into a key, with times compared as numbers.
+   *
+   * @param params request parameters
+   * @return key, or null if the request has no valid time range
+   */
+  private static String getKey(Map<String, String> params) {
+    Map<String, String> sorted = new TreeMap<String, String>(params);
+    sorted.remove("priority");
+    try {
+      sorted.put("st", Double.toString(Double.parseDouble(sorted.get("st"))));
+      sorted.put("et", Double.toString(Double.parseDouble(sorted.get("et"))));
+    } catch (Exception e) {
+      return null;
+    }
+    return sorted.toString();
+  }
+
+  /**
+   * A prepared result kept until it expires.
+   */
+  private static class Entry {
+    private final BinaryResult result;
+    private final long expires;
+
+    private Entry(BinaryResult result, long expires) {
+      this.result = result;
+      this.expires = expires;
+    }
+  }
+}
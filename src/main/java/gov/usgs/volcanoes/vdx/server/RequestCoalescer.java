@@ -0,0 +1,153 @@
+package gov.usgs.volcanoes.vdx.server;
+
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Single-flight coalescing of identical data requests. The first request for a given set of
+ * parameters leads: it runs the query and prepares the reply. Identical requests arriving while
+ * it runs follow: they wait and write the leader's prepared reply, compressed bytes included, to
+ * their own clients. Database load is then bounded by distinct requests, not by users.
+ */
+public class RequestCoalescer {
+
+  private static final RequestCoalescer SHARED = new RequestCoalescer();
+
+  private final Map<String, Flight> flights = new HashMap<String, Flight>();
+
+  /**
+   * Yield coalescer shared by the server.
+   *
+   * @return shared coalescer
+   */
+  public static RequestCoalescer getShared() {
+    return SHARED;
+  }
+
+  /**
+   * Join the flight for a request, leading a new one if none is running.
+   *
+   * @param params request parameters
+   * @param channel client channel
+   * @return flight
+   */
+  public synchronized Flight join(Map<String, String> params, SocketChannel channel) {
+    String key = getKey(params);
+    Flight flight = flights.get(key);
+    if (flight == null) {
+      flight = new Flight(key);
+      flights.put(key, flight);
+    }
+    flight.channels.add(channel);
+    return flight;
+  }
+
+  /**
+   * Normalize request parameters into a key. Parameters that don't change the reply are left out.
+   *
+   * @param params request parameters
+   * @return key
+   */
+  private static String getKey(Map<String, String> params) {
+    Map<String, String> sorted = new TreeMap<String, String>(params);
+    sorted.remove("priority");
+    return sorted.toString();
+  }
+
+  /**
+   * Complete a flight, so no more requests join it.
+   *
+   * @param flight flight to complete
+   * @return number of requests sharing the flight
+   */
+  private synchronized int land(Flight flight) {
+    flights.remove(flight.key);
+    return flight.channels.size();
+  }
+
+  /**
+   * One execution of a request, shared by identical requests.
+   */
+  public class Flight {
+
+    private final String key;
+    private final List<SocketChannel> channels = new CopyOnWriteArrayList<SocketChannel>();
+    private boolean done;
+    private RequestResult result;
+    private String error;
+
+    /**
+     * Constructor.
+     *
+     * @param key normalized request
+     */
+    private Flight(String key) {
+      this.key = key;
+    }
+
+    /**
+     * Check if a request leads the flight.
+     *
+     * @param channel client channel of the request
+     * @return true if the request started the flight
+     */
+    public boolean isLeader(SocketChannel channel) {
+      return channels.get(0) == channel;
+    }
+
+    /**
+     * Yield channels of all requests sharing the flight so far.
+     *
+     * @return client channels
+     */
+    public List<SocketChannel> getChannels() {
+      return channels;
+    }
+
+    /**
+     * Publish the reply, prepared for writing, and wake the followers. Called by the leader
+     * exactly once.
+     *
+     * @param result prepared result, or null if there is none
+     * @param error error message, or null if none
+     */
+    public void complete(RequestResult result, String error) {
+      int readers = land(this);
+      if (result instanceof BinaryResult) {
+        ((BinaryResult) result).retain(readers - 1);
+      }
+      synchronized (this) {
+        this.result = result;
+        this.error = error;
+        done = true;
+        notifyAll();
+      }
+    }
+
+    /**
+     * Wait for the leader to publish the reply.
+     *
+     * @return prepared result, or null if there is none
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized RequestResult await() throws InterruptedException {
+      while (!done) {
+        wait();
+      }
+      return result;
+    }
+
+    /**
+     * Yield error message published by the leader.
+     *
+     * @return error message, or null if none
+     */
+    public synchronized String getError() {
+      return error;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package gov.usgs.volcanoes.vdx.server;
+
+import gov.usgs.volcanoes.vdx.data.DataSource;
+import gov.usgs.volcanoes.vdx.data.SQLDataSource;
+
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches data requests in progress. A request is cancelled when all of its clients disconnect,
+ * which the server notices by closing their channels, or when it runs past its data source's query
+ * timeout. Cancelling aborts the running SQL query; the monitor keeps cancelling until the
+ * request returns, so queries started after the first cancel are stopped too. Counts of
+ * cancelled and timed out requests are kept for the 'status' command.
+ */
+public class RequestMonitor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RequestMonitor.class);
+  private static final long CHECK_INTERVAL_MS = 500;
+
+  private static final RequestMonitor SHARED = new RequestMonitor();
+
+  private final Set<Request> requests;
+  private final AtomicLong startedCount = new AtomicLong();
+  private final AtomicLong cancelledCount = new AtomicLong();
+  private final AtomicLong timedOutCount = new AtomicLong();
+
+  /**
+   * Constructor.
+   */
+  public RequestMonitor() {
+    requests = Collections.newSetFromMap(new ConcurrentHashMap<Request, Boolean>());
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "VDX/RequestMonitor");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        check();
+      }
+    }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Yield monitor shared by the server.
+   *
+   * @return shared monitor
+   */
+  public static RequestMonitor getShared() {
+    return SHARED;
+  }
+
+  /**
+   * Start watching a request.
+   *
+   * @param channels channels of the clients waiting for the request; may grow while it runs
+   * @param ds data source serving the request
+   * @return request, to be ended once the data source returns
+   */
+  public Request begin(Collection<SocketChannel> channels, DataSource ds) {
+    Request request = new Request(channels, ds);
+    startedCount.incrementAndGet();
+    requests.add(request);
+    return request;
+  }
+
+  /**
+   * Get counts of requests, as a parameter string.
+   *
+   * @return counts of started, cancelled and timed out requests
+   */
+  public String getCounts() {
+    return String.format("requests=%d;active=%d;cancelled=%d;timedout=%d", startedCount.get(),
+        requests.size(), cancelledCount.get(), timedOutCount.get());
+  }
+
+  /**
+   * Cancel requests whose client is gone or whose time is up.
+   */
+  private void check() {
+    long now = System.currentTimeMillis();
+    for (Request request : requests) {
+      try {
+        request.check(now);
+      } catch (Exception e) {
+        LOGGER.warn("Could not check request: {}", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Check if any client channel is still usable.
+   *
+   * @param channels client channels
+   * @return true if one is open and connected
+   */
+  private static boolean isConnected(Collection<SocketChannel> channels) {
+    for (SocketChannel channel : channels) {
+      if (channel.isOpen() && channel.isConnected()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A data request in progress.
+   */
+  public class Request {
+
+    private final Collection<SocketChannel> channels;
+    private final DataSource ds;
+    private final long deadline;
+    private volatile boolean abandoned;
+    private volatile boolean timedOut;
+    private boolean ended;
+
+    /**
+     * Constructor.
+     *
+     * @param channels client channels
+     * @param ds data source serving the request
+     */
+    private Request(Collection<SocketChannel> channels, DataSource ds) {
+      this.channels = channels;
+      this.ds = ds;
+      int timeout = ds instanceof SQLDataSource ? ((SQLDataSource) ds).getQueryTimeout() : 0;
+      deadline = timeout > 0 ? System.currentTimeMillis() + timeout * 1000L : 0;
+    }
+
+    /**
+     * Stop watching the request. A request ending past its deadline is counted as timed out,
+     * whether the monitor or a statement timeout stopped it.
+     */
+    public synchronized void end() {
+      ended = true;
+      requests.remove(this);
+      if (!timedOut && deadline > 0 && System.currentTimeMillis() >= deadline) {
+        timedOut = true;
+        timedOutCount.incrementAndGet();
+      }
+    }
+
+    /**
+     * Cancel the request if its client is gone or its time is up. Synchronized with
+     * {@link #end()} so the data source, which may serve another request next, is never
+     * cancelled once this one has ended.
+     *
+     * @param now current time in milliseconds
+     */
+    private synchronized void check(long now) {
+      if (ended) {
+        return;
+      }
+      if (isAbandoned()) {
+        LOGGER.debug("Client gone, cancelling request to {}.", ds.getType());
+      } else if (isPastDeadline(now)) {
+        LOGGER.info("Request to {} timed out, cancelling.", ds.getType());
+      }
+      if ((abandoned || timedOut) && ds instanceof SQLDataSource) {
+        ((SQLDataSource) ds).cancel();
+      }
+    }
+
+    /**
+     * Check if all clients have gone, so the request needs no reply. Counted as cancelled the
+     * first time it is noticed.
+     *
+     * @return true if the clients disconnected
+     */
+    public synchronized boolean isAbandoned() {
+      if (!abandoned && !isConnected(channels)) {
+        abandoned = true;
+        cancelledCount.incrementAndGet();
+      }
+      return abandoned;
+    }
+
+    /**
+     * Check if the request has run past its deadline. Counted as timed out the first time it is
+     * noticed.
+     *
+     * @param now current time in milliseconds
+     * @return true if newly timed out
+     */
+    private synchronized boolean isPastDeadline(long now) {
+      if (timedOut || deadline <= 0 || now < deadline) {
+        return false;
+      }
+      timedOut = true;
+      timedOutCount.incrementAndGet();
+      return true;
+    }
+
+    /**
+     * Check if the request ran past its data source's query timeout.
+     *
+     * @return true if timed out
+     */
+    public boolean isTimedOut() {
+      return timedOut;
+    }
+  }
+}
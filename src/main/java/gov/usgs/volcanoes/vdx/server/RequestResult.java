@@ -44,6 +44,16 @@ public abstract class RequestResult {
     parameters.put(k, v);
   }
 
+  /**
+   * Get value of paramater k.
+   *
+   * @param k name of parameter
+   * @return value of parameter, or null if it isn't set
+   */
+  public String get(String k) {
+    return parameters.get(k);
+  }
+
   /**
    * Set error.
    *
@@ -53,6 +63,15 @@ public abstract class RequestResult {
     this.error = error;
   }
 
+  /**
+   * Check for error.
+   *
+   * @return true if error, false otherwise
+   */
+  public boolean isError() {
+    return error;
+  }
+
   /**
    * Get result ready for writing.
    */
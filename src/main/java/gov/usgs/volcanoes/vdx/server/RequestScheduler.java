@@ -0,0 +1,244 @@
+package gov.usgs.volcanoes.vdx.server;
+
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Admits data requests to the database in two classes, interactive and bulk. At most maxQueries
+ * requests run at once and at most maxBulkQueries of them bulk, so plots are never stuck behind a
+ * burst of exports. Waiting requests are admitted by weighted fair queuing (stride scheduling):
+ * while both classes wait, interactive requests get WEIGHT times as many slots as bulk ones,
+ * first come first served within a class.
+ *
+ * <p>Requests wait on their handler thread, so vdx.handlers should exceed vdx.maxQueries for
+ * interactive requests to queue while bulk ones hold their slots.
+ */
+public class RequestScheduler {
+
+  /**
+   * Request class.
+   */
+  public enum Priority {
+    INTERACTIVE, BULK;
+
+    /**
+     * Parse the 'priority' request parameter.
+     *
+     * @param s parameter value, may be null
+     * @return priority, or null if not given or unknown
+     */
+    public static Priority fromString(String s) {
+      if (s == null) {
+        return null;
+      }
+      s = s.trim().toLowerCase();
+      if (s.equals("interactive")) {
+        return INTERACTIVE;
+      } else if (s.equals("bulk") || s.equals("export")) {
+        return BULK;
+      }
+      return null;
+    }
+  }
+
+  private static final long STRIDE = 1 << 20;
+  private static final int WEIGHT = 4;
+
+  private final int maxQueries;
+  private final int[] limits;
+  private final long[] strides;
+  private final long[] pass;
+  private final int[] active;
+  private final ArrayDeque<Ticket>[] queues;
+  private int totalActive;
+  private long virtualTime;
+
+  private final int bulkRows;
+  private final double bulkSpan;
+  private final Map<SocketChannel, String> exports = new WeakHashMap<SocketChannel, String>();
+
+  /**
+   * Constructor.
+   *
+   * @param maxQueries maximum number of requests running at once
+   * @param maxBulkQueries maximum number of bulk requests running at once
+   * @param bulkRows estimated row count above which a downsampled request is bulk
+   * @param bulkSpan time span in seconds above which a request that isn't downsampled is bulk
+   */
+  @SuppressWarnings("unchecked")
+  public RequestScheduler(int maxQueries, int maxBulkQueries, int bulkRows, double bulkSpan) {
+    this.maxQueries = maxQueries;
+    this.bulkRows = bulkRows;
+    this.bulkSpan = bulkSpan;
+    limits = new int[] {maxQueries, Math.max(1, Math.min(maxBulkQueries, maxQueries))};
+    strides = new long[] {STRIDE / WEIGHT, STRIDE};
+    pass = new long[2];
+    active = new int[2];
+    queues = new ArrayDeque[] {new ArrayDeque<Ticket>(), new ArrayDeque<Ticket>()};
+  }
+
+  /**
+   * Note that a client asked for export info on a source. Its next data request for that source
+   * on the same connection is the export itself, and is treated as bulk.
+   *
+   * @param channel client channel
+   * @param source data source name
+   */
+  public synchronized void noteExport(SocketChannel channel, String source) {
+    exports.put(channel, source);
+  }
+
+  /**
+   * Choose the class of a data request. An explicit 'priority' parameter wins; otherwise exports
+   * and requests expected to return many rows are bulk.
+   *
+   * @param params request parameters
+   * @param channel client channel
+   * @return request class
+   */
+  public Priority classify(Map<String, String> params, SocketChannel channel) {
+    String source = params.get("source");
+    String export;
+    synchronized (this) {
+      export = exports.remove(channel);
+    }
+    Priority priority = Priority.fromString(params.get("priority"));
+    if (priority != null) {
+      return priority;
+    }
+    if (source != null && source.equals(export)) {
+      return Priority.BULK;
+    }
+    return isLarge(params) ? Priority.BULK : Priority.INTERACTIVE;
+  }
+
+  /**
+   * Estimate whether a request reads many rows, from its time span, downsampling and number of
+   * channels.
+   *
+   * @param params request parameters
+   * @return true if large
+   */
+  private boolean isLarge(Map<String, String> params) {
+    try {
+      double span = Double.parseDouble(params.get("et")) - Double.parseDouble(params.get("st"));
+      String ch = params.get("ch");
+      int channels = ch == null ? 1 : ch.split(",").length;
+      String ds = params.get("ds");
+      String dsInt = params.get("dsInt");
+      if (ds != null && ds.equalsIgnoreCase("mean") && dsInt != null
+          && Integer.parseInt(dsInt) > 0) {
+        return span / Integer.parseInt(dsInt) * channels > bulkRows;
+      }
+      return span * channels > bulkSpan;
+    } catch (Exception e) {
+      // not a time series request
+      return false;
+    }
+  }
+
+  /**
+   * Wait for a slot to run a request.
+   *
+   * @param priority request class
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized void acquire(Priority priority) throws InterruptedException {
+    int c = priority.ordinal();
+    if (queues[c].isEmpty() && active[c] == 0) {
+      // an idle class doesn't bank credit for the time it wasn't competing
+      pass[c] = Math.max(pass[c], virtualTime);
+    }
+    Ticket ticket = new Ticket();
+    queues[c].add(ticket);
+    dispatch();
+    try {
+      while (!ticket.granted) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      if (ticket.granted) {
+        release(priority);
+      } else {
+        queues[c].remove(ticket);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Take a slot for background work, only if no request is waiting and another slot stays free
+   * for the next request to arrive.
+   *
+   * @param priority request class
+   * @return true if a slot was taken
+   */
+  public synchronized boolean tryAcquire(Priority priority) {
+    int c = priority.ordinal();
+    if (!queues[0].isEmpty() || !queues[1].isEmpty() || totalActive + 1 >= maxQueries
+        || active[c] >= limits[c]) {
+      return false;
+    }
+    active[c]++;
+    totalActive++;
+    return true;
+  }
+
+  /**
+   * Give back a slot taken by {@link #acquire(Priority)} or {@link #tryAcquire(Priority)}.
+   *
+   * @param priority request class
+   */
+  public synchronized void release(Priority priority) {
+    active[priority.ordinal()]--;
+    totalActive--;
+    dispatch();
+  }
+
+  /**
+   * Get counts of running and waiting requests, as a parameter string.
+   *
+   * @return counts per class
+   */
+  public synchronized String getCounts() {
+    return String.format("interactive.active=%d;interactive.queued=%d;bulk.active=%d;"
+        + "bulk.queued=%d", active[0], queues[0].size(), active[1], queues[1].size());
+  }
+
+  /**
+   * Admit waiting requests while slots are free, lowest pass first.
+   */
+  private void dispatch() {
+    boolean granted = false;
+    while (totalActive < maxQueries) {
+      int next = -1;
+      for (int c = 0; c < queues.length; c++) {
+        if (!queues[c].isEmpty() && active[c] < limits[c]
+            && (next == -1 || pass[c] < pass[next])) {
+          next = c;
+        }
+      }
+      if (next == -1) {
+        break;
+      }
+      queues[next].poll().granted = true;
+      active[next]++;
+      totalActive++;
+      virtualTime = pass[next];
+      pass[next] += strides[next];
+      granted = true;
+    }
+    if (granted) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * A request waiting for a slot.
+   */
+  private static class Ticket {
+    private boolean granted;
+  }
+}
@@ -47,8 +47,20 @@ public class ServerHandler extends CommandHandler {
       }
     });
 
+    addCommand("status", new BaseCommand(this, netTools) {
+      public void doCommand(Object info, SocketChannel channel) {
+        netTools.writeString(RequestMonitor.getShared().getCounts() + ";"
+            + vdx.getScheduler().getCounts() + ";" + vdx.getMemoryBudget().getCounts()
+            + (vdx.getPrefetcher() == null ? "" : ";" + vdx.getPrefetcher().getCounts()) + ";"
+            + vdx.getSubscriptions().getCounts() + "\n",
+            channel);
+        vdx.log(Level.DEBUG, "status", channel);
+      }
+    });
+
     addCommand("menu", new MenuCommand(this, netTools));
     addCommand("getdata", new GetDataCommand(this, netTools));
+    addCommand("subscribe", new SubscribeCommand(this, netTools));
   }
 
   /**
@@ -60,6 +72,51 @@ public class ServerHandler extends CommandHandler {
     return dataSourceHandler;
   }
 
+  /**
+   * Yield scheduler admitting data requests.
+   *
+   * @return request scheduler shared by all handlers
+   */
+  public RequestScheduler getScheduler() {
+    return vdx.getScheduler();
+  }
+
+  /**
+   * Yield heap budget of data requests.
+   *
+   * @return memory budget shared by all handlers
+   */
+  public MemoryBudget getMemoryBudget() {
+    return vdx.getMemoryBudget();
+  }
+
+  /**
+   * Yield recorder of request shapes replayed at startup.
+   *
+   * @return warm up shared by all handlers
+   */
+  public WarmUp getWarmUp() {
+    return vdx.getWarmUp();
+  }
+
+  /**
+   * Yield prefetcher of adjacent windows.
+   *
+   * @return prefetcher shared by all handlers, or null if prefetching is off
+   */
+  public Prefetcher getPrefetcher() {
+    return vdx.getPrefetcher();
+  }
+
+  /**
+   * Yield live data subscriptions.
+   *
+   * @return subscriptions shared by all handlers
+   */
+  public SubscriptionManager getSubscriptions() {
+    return vdx.getSubscriptions();
+  }
+
   /**
    * Write log message.
    *
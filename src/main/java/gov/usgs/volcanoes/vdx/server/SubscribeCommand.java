@@ -0,0 +1,55 @@
+package gov.usgs.volcanoes.vdx.server;
+
+import gov.usgs.volcanoes.core.legacy.net.NetTools;
+
+import java.nio.channels.SocketChannel;
+
+import org.apache.log4j.Level;
+
+/**
+ * Command to subscribe to live data of one channel. Takes the parameters of a 'getdata' request
+ * for a single channel; 'st', if given, is the time after which rows are pushed. The connection
+ * is used for pushed data from then on, until the client closes it.
+ */
+public class SubscribeCommand extends BaseCommand {
+
+  /**
+   * Constructor.
+   *
+   * @param sh server handler
+   * @param nt net tools
+   */
+  public SubscribeCommand(ServerHandler sh, NetTools nt) {
+    super(sh, nt);
+  }
+
+  /**
+   * Perform command actions, write result to channel.
+   *
+   * @param info params
+   * @param channel where to write to
+   */
+  public void doCommand(Object info, SocketChannel channel) {
+    parseParams((String) info);
+    String source = inParams.get("source");
+    String ch = inParams.get("ch");
+    if (source == null) {
+      sendError("source not specified", "subscribe", channel);
+      return;
+    }
+    if (ch == null || ch.indexOf(',') != -1) {
+      sendError("subscribe to exactly one channel", "subscribe", channel);
+      return;
+    }
+    if (handler.getDataSourceHandler().getDataSourceDescriptor(source) == null) {
+      sendError("unknown source", "subscribe", channel);
+      return;
+    }
+    if (inParams.get("action") == null) {
+      inParams.put("action", "data");
+    }
+    netTools.writeString("ok: subscribed=" + source + "\n", channel);
+    handler.getSubscriptions().subscribe(inParams, channel);
+    handler.log(Level.DEBUG, "[subscribe] " + source + " " + ch, channel);
+  }
+}
@@ -0,0 +1,402 @@
+package gov.usgs.volcanoes.vdx.server;
+
+import cern.colt.matrix.DoubleMatrix2D;
+
+import gov.usgs.volcanoes.core.data.BinaryDataSet;
+import gov.usgs.volcanoes.core.data.GenericDataMatrix;
+import gov.usgs.volcanoes.core.legacy.net.NetTools;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.vdx.data.DataSource;
+import gov.usgs.volcanoes.vdx.data.DataSourceDescriptor;
+import gov.usgs.volcanoes.vdx.data.DataSourceHandler;
+import gov.usgs.volcanoes.vdx.data.gps.GpsData;
+import gov.usgs.volcanoes.vdx.data.hypo.Hypocenter;
+import gov.usgs.volcanoes.vdx.data.hypo.HypocenterList;
+import gov.usgs.volcanoes.vdx.data.lightning.Stroke;
+import gov.usgs.volcanoes.vdx.data.lightning.StrokeList;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Live data subscriptions. A client subscribing to a channel of a source keeps its connection
+ * open, and new rows are pushed to it as they appear, in the same form as 'getdata' replies.
+ * Importers run in their own processes, so the channel tables are tailed: every interval, each
+ * distinct subscription is queried once, from just after the last row pushed up to now, and the
+ * result is queued for all clients sharing it. Connections without new data get a heartbeat
+ * line, so clients can tell an idle channel from a dead server.
+ *
+ * <p>Each client has its own queue, written by a shared pool of writer threads, so a slow reader
+ * only holds up itself. A client falling more than {@link #MAX_PENDING} replies behind is
+ * disconnected. A request failing closes its subscription, after the error is sent.
+ */
+public class SubscriptionManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionManager.class);
+  private static final long HEARTBEAT_MS = 20000;
+  private static final int MAX_PENDING = 16;
+  private static final Object CLOSE = new Object();
+
+  private final DataSourceHandler dataSourceHandler;
+  private final RequestScheduler scheduler;
+  private final ExecutorService writers;
+  private final Map<String, Subscription> subscriptions = new HashMap<String, Subscription>();
+
+  /**
+   * Constructor. Starts the polling thread.
+   *
+   * @param dataSourceHandler data sources used for polling
+   * @param scheduler scheduler admitting data requests
+   * @param interval polling interval in milliseconds
+   */
+  public SubscriptionManager(DataSourceHandler dataSourceHandler, RequestScheduler scheduler,
+      long interval) {
+    this.dataSourceHandler = dataSourceHandler;
+    this.scheduler = scheduler;
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "VDX/Subscriptions");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        poll();
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+    writers = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "VDX/SubscriptionWriter-" + count.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Add a client to the subscription for a request. Rows pushed are those after the request's
+   * 'st', or after now if it has none.
+   *
+   * @param params request parameters
+   * @param channel client channel
+   */
+  public synchronized void subscribe(Map<String, String> params, SocketChannel channel) {
+    Map<String, String> sorted = new TreeMap<String, String>(params);
+    sorted.remove("st");
+    sorted.remove("et");
+    sorted.remove("priority");
+    String key = sorted.toString();
+    Subscription subscription = subscriptions.get(key);
+    if (subscription == null) {
+      double since;
+      try {
+        since = Double.parseDouble(params.get("st"));
+      } catch (Exception e) {
+        since = J2kSec.fromDate(new Date());
+      }
+      subscription = new Subscription(key, sorted, since);
+      subscriptions.put(key, subscription);
+    }
+    subscription.clients.add(new Client(channel));
+  }
+
+  /**
+   * Get counts of subscriptions, as a parameter string.
+   *
+   * @return counts of distinct subscriptions and subscribed clients
+   */
+  public synchronized String getCounts() {
+    int clients = 0;
+    for (Subscription subscription : subscriptions.values()) {
+      clients += subscription.clients.size();
+    }
+    return String.format("subscriptions=%d;subscribers=%d", subscriptions.size(), clients);
+  }
+
+  /**
+   * Drop clients that disconnected and push new rows to the others.
+   */
+  private void poll() {
+    List<Subscription> active = new ArrayList<Subscription>();
+    synchronized (this) {
+      Iterator<Subscription> it = subscriptions.values().iterator();
+      while (it.hasNext()) {
+        Subscription subscription = it.next();
+        for (Client client : subscription.clients) {
+          if (!client.isOpen()) {
+            subscription.clients.remove(client);
+          }
+        }
+        if (subscription.clients.isEmpty()) {
+          it.remove();
+        } else {
+          active.add(subscription);
+        }
+      }
+    }
+    for (Subscription subscription : active) {
+      try {
+        push(subscription);
+      } catch (Exception e) {
+        LOGGER.warn("Could not poll subscription {}: {}", subscription.params, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Query the rows after the last one pushed and queue them for the subscription's clients.
+   *
+   * @param subscription subscription to poll
+   */
+  private void push(Subscription subscription) {
+    double now = J2kSec.fromDate(new Date());
+    Map<String, String> params = new HashMap<String, String>(subscription.params);
+    params.put("st", Double.toString(Math.nextUp(subscription.since)));
+    params.put("et", Double.toString(now));
+    DataSourceDescriptor dsd = dataSourceHandler.getDataSourceDescriptor(params.get("source"));
+    if (dsd == null) {
+      return;
+    }
+
+    RequestResult result;
+    DataSource ds;
+    try {
+      scheduler.acquire(RequestScheduler.Priority.INTERACTIVE);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    try {
+      ds = dsd.getDataSource();
+      try {
+        result = ds.getData(params);
+      } finally {
+        dsd.putDataSource();
+      }
+    } finally {
+      scheduler.release(RequestScheduler.Priority.INTERACTIVE);
+    }
+
+    List<Client> clients = new ArrayList<Client>(subscription.clients);
+    if (result != null && result.isError()) {
+      LOGGER.warn("Closing subscription {} after an error", subscription.params);
+      synchronized (this) {
+        subscriptions.remove(subscription.key);
+      }
+      result.prepare();
+      for (Client client : clients) {
+        client.enqueue(result);
+        client.enqueue(CLOSE);
+      }
+      return;
+    }
+
+    double last = Double.NaN;
+    if (result instanceof BinaryResult) {
+      last = getLastTime(((BinaryResult) result).getData(), now);
+    }
+    long time = System.currentTimeMillis();
+    if (Double.isNaN(last) || clients.isEmpty()) {
+      if (time - subscription.written >= HEARTBEAT_MS) {
+        for (Client client : clients) {
+          client.enqueue("ok: heartbeat=" + now + "\n");
+        }
+        subscription.written = time;
+      }
+      return;
+    }
+
+    subscription.since = last;
+    subscription.written = time;
+    BinaryResult binary = (BinaryResult) result;
+    if (binary.get("type") == null) {
+      binary.set("type", ds.getType());
+    }
+    binary.setEncoding(params.get("encoding"));
+    binary.prepare();
+    binary.retain(clients.size() - 1);
+    for (Client client : clients) {
+      client.enqueue(binary);
+    }
+  }
+
+  /**
+   * Get the time of the last row of a result, the next poll starts after it. Rows imported late
+   * with times before it are not pushed, rows after it are, even if they were imported after the
+   * query ran.
+   *
+   * @param data result data
+   * @param end end of the queried time range
+   * @return time of the last row, NaN if there are no rows
+   */
+  private static double getLastTime(BinaryDataSet data, double end) {
+    double last = Double.NaN;
+    if (data instanceof GenericDataMatrix) {
+      // rows are ordered by time and no data comes back as a single row of NaN
+      GenericDataMatrix gdm = (GenericDataMatrix) data;
+      if (gdm.rows() > 0) {
+        last = gdm.getData().getQuick(gdm.rows() - 1, 0);
+      }
+    } else if (data instanceof HypocenterList) {
+      for (Hypocenter hypocenter : ((HypocenterList) data).getHypocenters()) {
+        last = Double.isNaN(last) ? hypocenter.j2ksec : Math.max(last, hypocenter.j2ksec);
+      }
+    } else if (data instanceof StrokeList) {
+      for (Stroke stroke : ((StrokeList) data).getStrokes()) {
+        last = Double.isNaN(last) ? stroke.j2ksec : Math.max(last, stroke.j2ksec);
+      }
+    } else if (data instanceof GpsData) {
+      DoubleMatrix2D times = ((GpsData) data).getTimes();
+      for (int i = 0; times != null && i < times.rows(); i++) {
+        last = Double.isNaN(last) ? times.getQuick(i, 0) : Math.max(last, times.getQuick(i, 0));
+      }
+    } else if (data != null) {
+      // other data, like waves from wave servers, covers the whole range queried
+      last = end;
+    }
+    return last;
+  }
+
+  /**
+   * Clients sharing one live request.
+   */
+  private static class Subscription {
+    private final String key;
+    private final Map<String, String> params;
+    private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+    private double since;
+    private long written = System.currentTimeMillis();
+
+    private Subscription(String key, Map<String, String> params, double since) {
+      this.key = key;
+      this.params = params;
+      this.since = since;
+    }
+  }
+
+  /**
+   * Subscribed connection and the replies queued for it. Replies are written in order by one
+   * writer thread at a time.
+   */
+  private class Client implements Runnable {
+    private final SocketChannel channel;
+    private final NetTools netTools = new NetTools();
+    private final ArrayDeque<Object> pending = new ArrayDeque<Object>();
+    private boolean writing;
+    private boolean closed;
+
+    private Client(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Check whether the client is still connected.
+     *
+     * @return true if connected
+     */
+    private synchronized boolean isOpen() {
+      return !closed && channel.isOpen();
+    }
+
+    /**
+     * Queue a reply: a line, a result or {@link #CLOSE}. A prepared BinaryResult must have been
+     * retained for this client.
+     *
+     * @param reply reply to queue
+     */
+    private void enqueue(Object reply) {
+      synchronized (this) {
+        if (!closed && pending.size() < MAX_PENDING) {
+          pending.add(reply);
+          if (!writing) {
+            writing = true;
+            writers.execute(this);
+          }
+          return;
+        }
+        if (!closed) {
+          LOGGER.warn("Disconnecting subscriber {}, more than {} replies behind", channel,
+              MAX_PENDING);
+          close();
+        }
+      }
+      discard(reply);
+    }
+
+    /**
+     * Write queued replies until the queue is empty.
+     */
+    public void run() {
+      while (true) {
+        Object reply;
+        synchronized (this) {
+          reply = pending.poll();
+          if (reply == null || closed) {
+            writing = false;
+            return;
+          }
+        }
+        if (reply == CLOSE) {
+          synchronized (this) {
+            close();
+          }
+        } else if (reply instanceof String) {
+          netTools.writeString((String) reply, channel);
+        } else {
+          RequestResult result = (RequestResult) reply;
+          result.writeHeader(netTools, channel);
+          result.writeBody(netTools, channel);
+        }
+      }
+    }
+
+    /**
+     * Close the connection and discard the replies not written. Called holding the lock.
+     */
+    private void close() {
+      closed = true;
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // nothing to do
+      }
+      Object reply;
+      while ((reply = pending.poll()) != null) {
+        discard(reply);
+      }
+    }
+
+    /**
+     * Drop a reply that won't be written.
+     *
+     * @param reply reply
+     */
+    private void discard(Object reply) {
+      if (reply instanceof BinaryResult) {
+        ((BinaryResult) reply).release();
+      }
+    }
+  }
+}
@@ -5,12 +5,15 @@ import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.legacy.net.Server;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.vdx.Version;
+import gov.usgs.volcanoes.vdx.data.DataSourceHandler;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.log4j.Level;
@@ -30,6 +33,11 @@ public class VDX extends Server {
   private String driver;
   private String url;
   private String prefix;
+  private RequestScheduler scheduler;
+  private MemoryBudget memoryBudget;
+  private WarmUp warmUp;
+  private Prefetcher prefetcher;
+  private SubscriptionManager subscriptions;
 
   /**
    * Constructor.
@@ -47,10 +55,15 @@ public class VDX extends Server {
     }
     processConfigFile();
 
+    List<ServerHandler> handlers = new ArrayList<ServerHandler>();
     for (int i = 0; i < numHandlers; i++) {
-      this.addCommandHandler(new ServerHandler(this));
+      ServerHandler handler = new ServerHandler(this);
+      handlers.add(handler);
+      this.addCommandHandler(handler);
     }
 
+    warmUp.run(handlers);
+    warmUp.startSaving();
     startListening();
   }
 
@@ -129,6 +142,52 @@ public class VDX extends Server {
 
     connections.setMaxConnections(m);
     LOGGER.info("config: vdx.maxConnections={}", connections.getMaxConnections());
+
+    int q = StringUtils.stringToInt(cf.getString("vdx.maxQueries"), numHandlers);
+    if (q < 1) {
+      fatalError(configFilename + ": bad 'vdx.maxQueries' setting.");
+    }
+    LOGGER.info("config: vdx.maxQueries={}", q);
+    int bq = StringUtils.stringToInt(cf.getString("vdx.maxBulkQueries"), Math.max(1, q / 4));
+    LOGGER.info("config: vdx.maxBulkQueries={}", bq);
+    int br = StringUtils.stringToInt(cf.getString("vdx.bulkRows"), 100000);
+    LOGGER.info("config: vdx.bulkRows={}", br);
+    double bs = StringUtils.stringToDouble(cf.getString("vdx.bulkDays"), 31) * 86400;
+    LOGGER.info("config: vdx.bulkDays={}", bs / 86400);
+    scheduler = new RequestScheduler(q, bq, br, bs);
+
+    long mb = StringUtils.stringToInt(cf.getString("vdx.memoryBudget"),
+        (int) (Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024)));
+    LOGGER.info("config: vdx.memoryBudget={}", mb);
+    int mw = StringUtils.stringToInt(cf.getString("vdx.memoryWait"), 30);
+    LOGGER.info("config: vdx.memoryWait={}", mw);
+    memoryBudget = new MemoryBudget(mb * 1024 * 1024, mw * 1000L);
+    int bp = StringUtils.stringToInt(cf.getString("vdx.bufferPool"), 32);
+    LOGGER.info("config: vdx.bufferPool={}", bp);
+    BufferPool.getShared().setMaxBytes(bp * 1024L * 1024);
+
+    String wf = cf.getString("vdx.warmupFile");
+    LOGGER.info("config: vdx.warmupFile={}", wf);
+    int wt = StringUtils.stringToInt(cf.getString("vdx.warmupTop"), 20);
+    LOGGER.info("config: vdx.warmupTop={}", wt);
+    int ws = StringUtils.stringToInt(cf.getString("vdx.warmupSeconds"), 120);
+    LOGGER.info("config: vdx.warmupSeconds={}", ws);
+    List<String> wl = cf.getList("vdx.warmup");
+    warmUp = new WarmUp(wf, wt, ws * 1000L, wl);
+
+    int pc = StringUtils.stringToInt(cf.getString("vdx.prefetch"), 0);
+    LOGGER.info("config: vdx.prefetch={}", pc);
+    int ps = StringUtils.stringToInt(cf.getString("vdx.prefetchSeconds"), 60);
+    LOGGER.info("config: vdx.prefetchSeconds={}", ps);
+    if (pc > 0) {
+      prefetcher = new Prefetcher(new DataSourceHandler(driver, url, prefix), scheduler,
+          memoryBudget, pc, ps * 1000L);
+    }
+
+    int si = StringUtils.stringToInt(cf.getString("vdx.subscribeInterval"), 5);
+    LOGGER.info("config: vdx.subscribeInterval={}", si);
+    subscriptions = new SubscriptionManager(new DataSourceHandler(driver, url, prefix), scheduler,
+        si * 1000L);
   }
 
   /**
@@ -158,6 +217,51 @@ public class VDX extends Server {
     return prefix;
   }
 
+  /**
+   * Getter for the scheduler admitting data requests.
+   *
+   * @return request scheduler
+   */
+  public RequestScheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * Getter for the heap budget of data requests.
+   *
+   * @return memory budget
+   */
+  public MemoryBudget getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * Getter for the recorder of request shapes replayed at startup.
+   *
+   * @return warm up
+   */
+  public WarmUp getWarmUp() {
+    return warmUp;
+  }
+
+  /**
+   * Getter for the prefetcher of adjacent windows.
+   *
+   * @return prefetcher, or null if prefetching is off
+   */
+  public Prefetcher getPrefetcher() {
+    return prefetcher;
+  }
+
+  /**
+   * Getter for live data subscriptions.
+   *
+   * @return subscriptions
+   */
+  public SubscriptionManager getSubscriptions() {
+    return subscriptions;
+  }
+
   /**
    * Main method, starts new thread for VDX server which listen configured port, and expect 'q'
    * symbol on stdin to exit.
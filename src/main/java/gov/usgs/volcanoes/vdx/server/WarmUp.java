@@ -0,0 +1,353 @@
+package gov.usgs.volcanoes.vdx.server;
+
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.vdx.data.DataSource;
+import gov.usgs.volcanoes.vdx.data.DataSourceDescriptor;
+import gov.usgs.volcanoes.vdx.data.SQLDataSource;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms the database buffer pool and data source caches before the server accepts traffic, by
+ * running data requests ending now. Requests come from the configured 'vdx.warmup' list and
+ * from the shapes most often seen in recent traffic. A shape is a data request's parameters with
+ * its time range replaced by its length, 'span', kept only for requests ending near the current
+ * time. Shapes seen are counted and periodically saved, most frequent first, with counts halved
+ * after each save so old traffic fades.
+ */
+public class WarmUp {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WarmUp.class);
+  private static final long SAVE_INTERVAL_MINUTES = 10;
+  private static final double RECENT = 3600;
+
+  private final String file;
+  private final int top;
+  private final long maxMillis;
+  private final List<String> configured;
+  private final ConcurrentMap<String, AtomicInteger> shapes =
+      new ConcurrentHashMap<String, AtomicInteger>();
+
+  /**
+   * Constructor.
+   *
+   * @param file file recording request shapes, null to record nothing
+   * @param top number of recorded shapes to replay
+   * @param maxMillis longest time to spend warming up
+   * @param configured configured shapes, may be null
+   */
+  public WarmUp(String file, int top, long maxMillis, List<String> configured) {
+    this.file = file;
+    this.top = top;
+    this.maxMillis = maxMillis;
+    this.configured = configured == null ? new ArrayList<String>() : configured;
+  }
+
+  /**
+   * Count the shape of a data request.
+   *
+   * @param params request parameters
+   */
+  public void record(Map<String, String> params) {
+    if (file == null || !"data".equals(params.get("action"))) {
+      return;
+    }
+    try {
+      double st = Double.parseDouble(params.get("st"));
+      double et = Double.parseDouble(params.get("et"));
+      if (et < J2kSec.fromDate(new Date()) - RECENT) {
+        return;
+      }
+      Map<String, String> shape = new TreeMap<String, String>(params);
+      shape.remove("st");
+      shape.remove("et");
+      shape.remove("priority");
+      shape.remove("encoding");
+      shape.put("span", Long.toString(Math.round(et - st)));
+      String key = StringUtils.mapToString(shape);
+      while (true) {
+        AtomicInteger count = shapes.get(key);
+        if (count == null) {
+          // handlers record at once, so the first of them adds the counter
+          count = shapes.putIfAbsent(key, new AtomicInteger(1));
+          if (count == null) {
+            return;
+          }
+        }
+        if (increment(count)) {
+          return;
+        }
+        // save retired the counter; drop it and add a new one
+        shapes.remove(key, count);
+      }
+    } catch (Exception e) {
+      // no usable time range
+    }
+  }
+
+  /**
+   * Run configured and recorded shapes, one thread per handler, each using its handler's data
+   * sources. Returns once all shapes ran or the time limit passed; queries still running then
+   * are cancelled, so handlers are idle when the server starts listening.
+   *
+   * @param handlers server handlers
+   */
+  public void run(List<ServerHandler> handlers) {
+    Set<String> todo = new LinkedHashSet<String>(configured);
+    todo.addAll(load());
+    if (todo.isEmpty() || handlers.isEmpty()) {
+      return;
+    }
+    LOGGER.info("Warming up with {} requests.", todo.size());
+    final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<String>(todo);
+    final long deadline = System.currentTimeMillis() + maxMillis;
+    final AtomicInteger done = new AtomicInteger();
+    final DataSource[] running = new DataSource[handlers.size()];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < handlers.size(); i++) {
+      final ServerHandler handler = handlers.get(i);
+      final int index = i;
+      Thread t = new Thread(new Runnable() {
+        public void run() {
+          String shape;
+          while (System.currentTimeMillis() < deadline && (shape = queue.poll()) != null) {
+            Map<String, String> params = toParams(shape);
+            DataSourceDescriptor dsd =
+                handler.getDataSourceHandler().getDataSourceDescriptor(params.get("source"));
+            if (dsd == null) {
+              continue;
+            }
+            try {
+              synchronized (running) {
+                running[index] = dsd.getDataSource();
+              }
+              running[index].getData(params);
+              done.incrementAndGet();
+            } catch (Exception e) {
+              LOGGER.warn("Warm up request failed: {}: {}", shape, e.getMessage());
+            } finally {
+              synchronized (running) {
+                running[index] = null;
+              }
+              dsd.putDataSource();
+            }
+          }
+        }
+      }, "VDX/WarmUp-" + i);
+      threads.add(t);
+      t.start();
+    }
+
+    try {
+      for (Thread t : threads) {
+        t.join(Math.max(1, deadline - System.currentTimeMillis()));
+      }
+      synchronized (running) {
+        for (DataSource ds : running) {
+          if (ds instanceof SQLDataSource) {
+            ((SQLDataSource) ds).cancel();
+          }
+        }
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    LOGGER.info("Warm up ran {} of {} requests in {} ms.", done.get(), todo.size(),
+        System.currentTimeMillis() - deadline + maxMillis);
+  }
+
+  /**
+   * Start saving recorded shapes periodically.
+   */
+  public void startSaving() {
+    if (file == null) {
+      return;
+    }
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "VDX/WarmUpRecorder");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          save();
+        } catch (Exception e) {
+          // an exception would cancel later saves
+          LOGGER.warn("Could not save warm up shapes: {}", e.getMessage());
+        }
+      }
+    }, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Build request parameters for a shape, with the time range ending now.
+   *
+   * @param shape request shape
+   * @return request parameters
+   */
+  private static Map<String, String> toParams(String shape) {
+    Map<String, String> params = StringUtils.stringToMap(shape);
+    double et = J2kSec.fromDate(new Date());
+    double span = Double.parseDouble(params.remove("span"));
+    params.put("st", Double.toString(et - span));
+    params.put("et", Double.toString(et));
+    if (params.get("action") == null) {
+      params.put("action", "data");
+    }
+    return params;
+  }
+
+  /**
+   * Read recorded shapes, most frequent first.
+   *
+   * @return up to top shapes
+   */
+  private List<String> load() {
+    List<String> list = new ArrayList<String>();
+    if (file == null || top <= 0 || !new File(file).exists()) {
+      return list;
+    }
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader(
+          new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+      String line;
+      while (list.size() < top && (line = in.readLine()) != null) {
+        int tab = line.indexOf('\t');
+        if (tab != -1) {
+          String shape = line.substring(tab + 1);
+          list.add(shape);
+          // carry recorded counts over the restart
+          int count = Integer.parseInt(line.substring(0, tab)) / 2;
+          if (count > 0) {
+            shapes.put(shape, new AtomicInteger(count));
+          }
+        }
+      }
+    } catch (Exception e) {
+      LOGGER.warn("Could not read warm up file {}: {}", file, e.getMessage());
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // nothing to do
+        }
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Add one to a shape counter unless save retired it.
+   *
+   * @param count shape counter
+   * @return false if the counter was retired
+   */
+  private static boolean increment(AtomicInteger count) {
+    while (true) {
+      int value = count.get();
+      if (value <= 0) {
+        return false;
+      }
+      if (count.compareAndSet(value, value + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Write recorded shapes with their counts, most frequent first, then halve the counts. Shapes
+   * counted once or less are retired, by setting their counter to 0, and removed.
+   */
+  private void save() {
+    // sort a snapshot; counts changing under the sort would break its ordering
+    List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>();
+    for (Map.Entry<String, AtomicInteger> entry : shapes.entrySet()) {
+      int count = entry.getValue().get();
+      if (count > 0) {
+        entries.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(entry.getKey(), count));
+      }
+    }
+    Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+      public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+        return b.getValue().compareTo(a.getValue());
+      }
+    });
+    File tmp = new File(file + ".tmp");
+    PrintWriter out = null;
+    try {
+      out = new PrintWriter(
+          new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+      for (Map.Entry<String, Integer> entry : entries) {
+        out.print(entry.getValue());
+        out.print('\t');
+        out.println(entry.getKey());
+      }
+      out.close();
+      out = null;
+      File target = new File(file);
+      if (!tmp.renameTo(target) && (!target.delete() || !tmp.renameTo(target))) {
+        LOGGER.warn("Could not replace warm up file {}", file);
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Could not write warm up file {}: {}", file, e.getMessage());
+    } finally {
+      if (out != null) {
+        out.close();
+      }
+    }
+
+    for (Map.Entry<String, AtomicInteger> entry : shapes.entrySet()) {
+      AtomicInteger count = entry.getValue();
+      while (true) {
+        int value = count.get();
+        if (value <= 1) {
+          if (count.compareAndSet(value, 0)) {
+            shapes.remove(entry.getKey(), count);
+            break;
+          }
+        } else if (count.compareAndSet(value, value / 2)) {
+          break;
+        }
+      }
+    }
+  }
+}